@@ -0,0 +1,82 @@
+package at.fhv.dgr1992.benchmarks;
+
+import at.fhv.dgr1992.differentialWheels.CameraImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading all pixels of a 64x64 camera image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CameraImageBenchmark {
+    private static final int SIZE = 64;
+
+    private CameraImage _image;
+    private int[] _rgb;
+    private int[] _row;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        _image = new CameraImage(SIZE, SIZE);
+        _rgb = new int[SIZE * SIZE * 3];
+        for (int i = 0; i < _rgb.length; i++) {
+            _rgb[i] = random.nextInt(256);
+        }
+        _row = new int[SIZE];
+        setPixel();
+    }
+
+    @Benchmark
+    public CameraImage setPixel() {
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int index = 3 * (y * SIZE + x);
+                _image.setPixel(x, y, _rgb[index], _rgb[index + 1], _rgb[index + 2]);
+            }
+        }
+        return _image;
+    }
+
+    @Benchmark
+    public void getPixel(Blackhole blackhole) {
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                blackhole.consume(_image.getPixel(x, y).getRed());
+            }
+        }
+    }
+
+    @Benchmark
+    public void red(Blackhole blackhole) {
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                blackhole.consume(_image.red(x, y));
+            }
+        }
+    }
+
+    @Benchmark
+    public void getRow(Blackhole blackhole) {
+        for (int y = 0; y < SIZE; y++) {
+            blackhole.consume(_image.getRow(y, _row));
+        }
+    }
+}
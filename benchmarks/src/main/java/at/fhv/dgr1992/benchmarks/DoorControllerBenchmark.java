@@ -0,0 +1,68 @@
+package at.fhv.dgr1992.benchmarks;
+
+import at.fhv.dgr1992.differentialWheels.CameraImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import solution.common.DoorController;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Door detection of the DoorController on synthetic 64x64 frames: a grey wall with a black door whose position is
+ * given by the parameter. A door at column 64 is not visible, so the whole frame is scanned.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DoorControllerBenchmark {
+    private static final int SIZE = 64;
+
+    @Param({"0", "32", "64"})
+    public int doorColumn;
+
+    private CameraImage _image;
+    private BenchmarkDoorController _controller;
+
+    @Setup
+    public void setup() {
+        _image = new CameraImage(SIZE, SIZE);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                boolean door = x >= doorColumn && x < doorColumn + 12 && y >= 16;
+                int value = door ? 0 : 128;
+                _image.setPixel(x, y, value, value, value);
+            }
+        }
+        _controller = new BenchmarkDoorController();
+    }
+
+    @Benchmark
+    public int[] getLeftRightPos() {
+        return _controller.leftRightPos(_image);
+    }
+
+    /**
+     * Makes the protected detection of the DoorController callable without a robot
+     */
+    private static class BenchmarkDoorController extends DoorController {
+        int[] leftRightPos(CameraImage image) {
+            return getLeftRightPos(image);
+        }
+
+        @Override
+        protected void startBehavior() {
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package at.fhv.dgr1992.benchmarks;
+
+import at.fhv.dgr1992.differentialWheels.CameraImage;
+import at.fhv.dgr1992.ePuck.ePuckVRep.CameraMode;
+import at.fhv.dgr1992.ePuck.ePuckVRep.EPuckVRep;
+import at.fhv.dgr1992.exceptions.CameraNotEnabledException;
+import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full sensor and camera reads of an EPuckVRep. The remote API is replaced by StubRemoteApiClient, so the client side
+ * cost is measured: the hand-off to the command dispatcher thread, the signal copy and the decode. The decode alone is
+ * measured by SignalDecoderBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EPuckVRepBenchmark {
+
+    /**
+     * true = every read delivers a new simulation step, false = the simulation has not advanced since the last read
+     */
+    @Param({"true", "false"})
+    public boolean changingSensorValues;
+
+    @Param({"ScriptCall", "StreamedSignal", "VisionSensorImage"})
+    public CameraMode cameraMode;
+
+    private EPuckVRep _ePuck;
+
+    @Setup
+    public void setup() {
+        StubRemoteApiClient client = new StubRemoteApiClient(64, 64);
+        client.setChangingSensorValues(changingSensorValues);
+        _ePuck = new EPuckVRep("ePuck", "127.0.0.1", 19999, 120 * Math.PI / 180, false, client);
+        _ePuck.enableAllSensors();
+        _ePuck.enableCamera();
+        _ePuck.setSenseAllTogether();
+        _ePuck.setCameraMode(cameraMode);
+    }
+
+    @Benchmark
+    public boolean senseAllTogether() throws RobotFunctionCallException {
+        return _ePuck.senseAllTogether();
+    }
+
+    @Benchmark
+    public CameraImage refreshCameraImage() throws CameraNotEnabledException, RobotFunctionCallException {
+        return _ePuck.getCameraImage();
+    }
+}
@@ -0,0 +1,58 @@
+package at.fhv.dgr1992.benchmarks;
+
+import coppelia.FloatWA;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion between float arrays and the char arrays of string signals.
+ * 24 values is the _allSens signal, 12288 values is a 64x64 rgb camera frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloatWABenchmark {
+
+    @Param({"24", "12288"})
+    public int numValues;
+
+    private FloatWA _floats;
+    private char[] _chars;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        _floats = new FloatWA(numValues);
+        for (int i = 0; i < numValues; i++) {
+            _floats.getArray()[i] = random.nextFloat();
+        }
+        _chars = _floats.getCharArrayFromArray();
+    }
+
+    @Benchmark
+    public float[] initArrayFromCharArray() {
+        FloatWA floatWA = new FloatWA(1);
+        floatWA.initArrayFromCharArray(_chars);
+        return floatWA.getArray();
+    }
+
+    @Benchmark
+    public char[] getCharArrayFromArray() {
+        return _floats.getCharArrayFromArray();
+    }
+}
@@ -0,0 +1,87 @@
+package at.fhv.dgr1992.benchmarks;
+
+import at.fhv.dgr1992.differentialWheels.CameraImage;
+import at.fhv.dgr1992.ePuck.ePuckVRep.SignalDecoder;
+import coppelia.FloatWA;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the _allSens signal and of the camera frames with SignalDecoder, without the command dispatcher of an
+ * EPuckVRep, so only the decode itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignalDecoderBenchmark {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 64;
+
+    private char[] _allSens;
+    private float[] _rgbFloats;
+    private char[] _rgbBytes;
+    private final double[] _proximity = new double[8];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        FloatWA allSens = new FloatWA(24);
+        for (int i = 0; i < 24; i++) {
+            allSens.getArray()[i] = random.nextFloat();
+        }
+        _allSens = allSens.getCharArrayFromArray();
+
+        _rgbFloats = new float[WIDTH * HEIGHT * 3];
+        _rgbBytes = new char[WIDTH * HEIGHT * 3];
+        for (int i = 0; i < _rgbFloats.length; i++) {
+            _rgbFloats[i] = random.nextFloat();
+            _rgbBytes[i] = (char) random.nextInt(256);
+        }
+    }
+
+    @Benchmark
+    public double[] decodeAllProximity() {
+        return SignalDecoder.decodeMaskedFloats(_allSens, 0, 8, 0xff);
+    }
+
+    @Benchmark
+    public double[] decodeAllProximityIntoBuffer() {
+        SignalDecoder.decodeMaskedFloats(_allSens, 0, 0xff, _proximity);
+        return _proximity;
+    }
+
+    @Benchmark
+    public double[] decodeMaskedProximity() {
+        return SignalDecoder.decodeMaskedFloats(_allSens, 0, 8, 0x0c);
+    }
+
+    @Benchmark
+    public double[] decodeWheelEncoding() {
+        return SignalDecoder.decodeFloats(_allSens, 22, 2);
+    }
+
+    @Benchmark
+    public CameraImage imageFromRgbFloats() {
+        return SignalDecoder.imageFromRgbFloats(_rgbFloats, WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public CameraImage imageFromRgbBytes() {
+        return SignalDecoder.imageFromRgbBytes(_rgbBytes, WIDTH, HEIGHT);
+    }
+}
@@ -0,0 +1,178 @@
+package at.fhv.dgr1992.benchmarks;
+
+import at.fhv.dgr1992.ePuck.ePuckVRep.remote.RemoteApiClient;
+import coppelia.CharWA;
+import coppelia.FloatWA;
+import coppelia.IntW;
+import coppelia.IntWA;
+import coppelia.StringWA;
+import coppelia.remoteApi;
+
+import java.util.Random;
+
+/**
+ * Remote API client that answers every call from memory with synthetic sensor values and camera frames, so the decode
+ * paths of EPuckVRep can be measured without VRep. Signal values are copied into the existing array of the CharWA if
+ * the length matches, like the NioRemoteApiClient does.
+ */
+public class StubRemoteApiClient implements RemoteApiClient {
+    public static final int NUM_SENSOR_VALUES = 24;
+
+    private final int _imageWidth;
+    private final int _imageHeight;
+    private final char[][] _allSens;
+    private final char[] _cameraSignal;
+    private final float[] _cameraFloats;
+    private final char[] _cameraBytes;
+    private int _allSensIndex;
+    private boolean _changingSensorValues;
+
+    /**
+     * Constructs a new stub
+     *
+     * @param imageWidth  width of the camera frames
+     * @param imageHeight height of the camera frames
+     */
+    public StubRemoteApiClient(int imageWidth, int imageHeight) {
+        _imageWidth = imageWidth;
+        _imageHeight = imageHeight;
+        Random random = new Random(42);
+
+        //Two different sensor signals, so a changing signal can be simulated. Like for a driving robot only the
+        //proximity (0-7), accelerometer (19-21) and wheel encoding (22-23) values differ, light and ground stay the same
+        _allSens = new char[2][];
+        FloatWA values = new FloatWA(NUM_SENSOR_VALUES);
+        for (int k = 0; k < NUM_SENSOR_VALUES; k++) {
+            values.getArray()[k] = random.nextFloat();
+        }
+        _allSens[0] = values.getCharArrayFromArray();
+        for (int k = 0; k < NUM_SENSOR_VALUES; k++) {
+            if (k < 8 || k >= 19) {
+                values.getArray()[k] = random.nextFloat();
+            }
+        }
+        _allSens[1] = values.getCharArrayFromArray();
+
+        FloatWA camera = new FloatWA(imageWidth * imageHeight * 3);
+        _cameraBytes = new char[imageWidth * imageHeight * 3];
+        for (int i = 0; i < camera.getArray().length; i++) {
+            float value = random.nextFloat();
+            camera.getArray()[i] = value;
+            _cameraBytes[i] = (char) (int) (value * 255);
+        }
+        _cameraFloats = camera.getArray();
+        _cameraSignal = camera.getCharArrayFromArray();
+    }
+
+    /**
+     * Set if every read of the _allSens signal returns different values than the previous read
+     *
+     * @param changingSensorValues true = a new simulation step for every read
+     */
+    public void setChangingSensorValues(boolean changingSensorValues) {
+        _changingSensorValues = changingSensorValues;
+    }
+
+    @Override
+    public int simxStart(String connectionAddress, int connectionPort, boolean waitUntilConnected, boolean doNotReconnectOnceDisconnected, int timeOutInMs, int commThreadCycleInMs) {
+        return 0;
+    }
+
+    @Override
+    public void simxFinish(int clientID) {
+    }
+
+    @Override
+    public int simxGetConnectionId(int clientID) {
+        return clientID;
+    }
+
+    @Override
+    public int simxGetObjectHandle(int clientID, String objectName, IntW handle, int operationMode) {
+        handle.setValue(1);
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxGetVisionSensorImage(int clientID, int sensorHandle, IntWA resolution, CharWA image, int options, int operationMode) {
+        resolution.getArray()[0] = _imageWidth;
+        resolution.getArray()[1] = _imageHeight;
+        copyInto(_cameraBytes, image);
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxCallScriptFunction(int clientID, String scriptDescription, int options, String functionName, IntWA inInts, FloatWA inFloats, StringWA inStrings, CharWA inBuffer, IntWA outInts, FloatWA outFloats, StringWA outStrings, CharWA outBuffer, int operationMode) {
+        if (outFloats != null) {
+            if ("getCameraSensorsForRemote".equals(functionName)) {
+                float[] floats = outFloats.getNewArray(_cameraFloats.length);
+                System.arraycopy(_cameraFloats, 0, floats, 0, floats.length);
+            } else {
+                outFloats.getNewArray(8);
+            }
+        }
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxGetStringSignal(int clientID, String signalName, CharWA signalValue, int operationMode) {
+        if (signalName.endsWith("_camera")) {
+            copyInto(_cameraSignal, signalValue);
+        } else {
+            if (_changingSensorValues) {
+                _allSensIndex = (_allSensIndex + 1) % _allSens.length;
+            }
+            copyInto(_allSens[_allSensIndex], signalValue);
+        }
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxSetStringSignal(int clientID, String signalName, CharWA signalValue, int operationMode) {
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxStartSimulation(int clientID, int operationMode) {
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxStopSimulation(int clientID, int operationMode) {
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxSynchronous(int clientID, boolean enable) {
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxSynchronousTrigger(int clientID) {
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxGetPingTime(int clientID, IntW pingTime) {
+        pingTime.setValue(0);
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxPauseCommunication(int clientID, boolean enable) {
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxGetLastCmdTime(int clientID) {
+        return 0;
+    }
+
+    private static void copyInto(char[] source, CharWA target) {
+        char[] chars = target.getArray();
+        if (chars.length != source.length) {
+            chars = target.getNewArray(source.length);
+        }
+        System.arraycopy(source, 0, chars, 0, source.length);
+    }
+}
@@ -0,0 +1,238 @@
+package at.fhv.dgr1992.differentialWheels;
+
+/**
+ * Proportional (Braitenberg) controller that maps sensor values linearly to wheel speeds:
+ * speeds = weights * input + bias, with one row of weights for the left and one for the right wheel.
+ * <p>
+ * The input vector consists of the first proximity values followed by the first light values of a sensor frame.
+ * Proximity values can be converted to an activation that is 1 at the sensor and 0 at the end of a range, so that near
+ * obstacles have the strongest influence. Values of disabled sensors (Double.NaN) are input as 0, so they don't
+ * contribute to the speeds.
+ * <p>
+ * Evaluations work on preallocated arrays and don't allocate. The parameters of a controller (weights row by row,
+ * followed by the bias of the left and the right wheel) can be set from a flat array, and many parameter sets can be
+ * evaluated on one input at once, e.g. for a parameter search.
+ * <p>
+ * An engine is used by one controller thread.
+ */
+public class BraitenbergEngine {
+    private static final int WHEELS = 2;
+
+    private final int _proximityInputs;
+    private final int _lightInputs;
+    private final int _inputs;
+    private final double[] _weights;
+    private final double[] _bias;
+    private final double[] _input;
+    private double _proximityRange;
+    private double _speedLimit;
+
+    /**
+     * Constructs a new engine with all weights and the bias 0
+     *
+     * @param proximityInputs Number of proximity values used as input, starting with the first sensor
+     * @param lightInputs     Number of light values used as input, starting with the first sensor
+     */
+    public BraitenbergEngine(int proximityInputs, int lightInputs) {
+        if (proximityInputs < 0 || lightInputs < 0 || proximityInputs + lightInputs == 0) {
+            throw new IllegalArgumentException("The engine needs at least one input");
+        }
+        _proximityInputs = proximityInputs;
+        _lightInputs = lightInputs;
+        _inputs = proximityInputs + lightInputs;
+        _weights = new double[WHEELS * _inputs];
+        _bias = new double[WHEELS];
+        _input = new double[_inputs];
+    }
+
+    /**
+     * Number of parameters of an engine with the given number of inputs
+     *
+     * @param inputs Number of inputs
+     * @return Number of weights plus the two bias values
+     */
+    public static int getParameterCount(int inputs) {
+        return WHEELS * (inputs + 1);
+    }
+
+    /**
+     * @return Number of values of the input vector
+     */
+    public int getInputCount() {
+        return _inputs;
+    }
+
+    /**
+     * @return Number of weights plus the two bias values
+     */
+    public int getParameterCount() {
+        return getParameterCount(_inputs);
+    }
+
+    /**
+     * Set the range of the proximity sensors. Values within the range are converted to an activation of
+     * 1 - distance / range, values beyond to 0.
+     *
+     * @param proximityRange Range in m, 0 to use the distances directly
+     */
+    public void setProximityRange(double proximityRange) {
+        if (proximityRange < 0) {
+            throw new IllegalArgumentException("Proximity range must not be negative");
+        }
+        _proximityRange = proximityRange;
+    }
+
+    /**
+     * @param speedLimit Absolute speed the wheel speeds are clamped to, 0 for no limit
+     */
+    public void setSpeedLimit(double speedLimit) {
+        if (speedLimit < 0) {
+            throw new IllegalArgumentException("Speed limit must not be negative");
+        }
+        _speedLimit = speedLimit;
+    }
+
+    /**
+     * Set the weights
+     *
+     * @param weights Two rows, the weights of the left and the right wheel, each with one weight per input
+     */
+    public void setWeights(double[][] weights) {
+        if (weights.length != WHEELS || weights[0].length != _inputs || weights[1].length != _inputs) {
+            throw new IllegalArgumentException("Weights must be a 2 x " + _inputs + " matrix");
+        }
+        System.arraycopy(weights[0], 0, _weights, 0, _inputs);
+        System.arraycopy(weights[1], 0, _weights, _inputs, _inputs);
+    }
+
+    /**
+     * @param wheel  0 for the left, 1 for the right wheel
+     * @param input  Index of the input
+     * @param weight Weight of the input for the wheel
+     */
+    public void setWeight(int wheel, int input, double weight) {
+        _weights[wheel * _inputs + input] = weight;
+    }
+
+    /**
+     * @param left  Speed of the left wheel without input
+     * @param right Speed of the right wheel without input
+     */
+    public void setBias(double left, double right) {
+        _bias[0] = left;
+        _bias[1] = right;
+    }
+
+    /**
+     * Set all parameters from a flat array: the weights of the left wheel, the weights of the right wheel, the bias of
+     * the left and the bias of the right wheel.
+     *
+     * @param parameters Array with the parameters
+     * @param offset     Index of the first parameter
+     */
+    public void setParameters(double[] parameters, int offset) {
+        System.arraycopy(parameters, offset, _weights, 0, _weights.length);
+        System.arraycopy(parameters, offset + _weights.length, _bias, 0, WHEELS);
+    }
+
+    /**
+     * Copy all parameters into a flat array in the order of setParameters.
+     *
+     * @param parameters Array the parameters are written to
+     * @param offset     Index of the first parameter
+     */
+    public void getParameters(double[] parameters, int offset) {
+        System.arraycopy(_weights, 0, parameters, offset, _weights.length);
+        System.arraycopy(_bias, 0, parameters, offset + _weights.length, WHEELS);
+    }
+
+    /**
+     * Write the input vector of a frame into the given array. Values of disabled sensors are written as 0.
+     *
+     * @param frame Sensor values
+     * @param input Array with at least getInputCount() values
+     */
+    public void readInput(SensorFrame frame, double[] input) {
+        double[] proximity = frame.getProximitySensorValues();
+        for (int i = 0; i < _proximityInputs; i++) {
+            double value = proximity[i];
+            if (Double.isNaN(value)) {
+                value = 0;
+            } else if (_proximityRange > 0) {
+                value = value < _proximityRange ? 1 - value / _proximityRange : 0;
+            }
+            input[i] = value;
+        }
+        double[] light = frame.getLightSensorValues();
+        for (int i = 0; i < _lightInputs; i++) {
+            double value = light[i];
+            input[_proximityInputs + i] = Double.isNaN(value) ? 0 : value;
+        }
+    }
+
+    /**
+     * Compute the wheel speeds of a frame
+     *
+     * @param frame  Sensor values
+     * @param speeds Array the speed of the left and the right wheel are written to
+     */
+    public void evaluate(SensorFrame frame, double[] speeds) {
+        readInput(frame, _input);
+        evaluate(_input, speeds);
+    }
+
+    /**
+     * Compute the wheel speeds of an input vector
+     *
+     * @param input  Input vector with getInputCount() values
+     * @param speeds Array the speed of the left and the right wheel are written to
+     */
+    public void evaluate(double[] input, double[] speeds) {
+        evaluate(_weights, 0, _bias, 0, input, speeds, 0);
+    }
+
+    /**
+     * Compute the wheel speeds of many parameter sets for one frame
+     *
+     * @param frame      Sensor values
+     * @param parameters count parameter sets one after the other, each in the order of setParameters
+     * @param count      Number of parameter sets
+     * @param speeds     Array with 2 * count values, the speeds of set i are written to index 2 * i and 2 * i + 1
+     */
+    public void evaluateBatch(SensorFrame frame, double[] parameters, int count, double[] speeds) {
+        readInput(frame, _input);
+        evaluateBatch(_input, parameters, count, speeds);
+    }
+
+    /**
+     * Compute the wheel speeds of many parameter sets for one input vector
+     *
+     * @param input      Input vector with getInputCount() values
+     * @param parameters count parameter sets one after the other, each in the order of setParameters
+     * @param count      Number of parameter sets
+     * @param speeds     Array with 2 * count values, the speeds of set i are written to index 2 * i and 2 * i + 1
+     */
+    public void evaluateBatch(double[] input, double[] parameters, int count, double[] speeds) {
+        int stride = getParameterCount();
+        int biasOffset = WHEELS * _inputs;
+        for (int i = 0; i < count; i++) {
+            int offset = i * stride;
+            evaluate(parameters, offset, parameters, offset + biasOffset, input, speeds, WHEELS * i);
+        }
+    }
+
+    private void evaluate(double[] weights, int weightOffset, double[] bias, int biasOffset, double[] input, double[] speeds, int speedOffset) {
+        int inputs = _inputs;
+        for (int wheel = 0; wheel < WHEELS; wheel++) {
+            int row = weightOffset + wheel * inputs;
+            double speed = bias[biasOffset + wheel];
+            for (int i = 0; i < inputs; i++) {
+                speed += weights[row + i] * input[i];
+            }
+            if (_speedLimit > 0) {
+                speed = Math.max(-_speedLimit, Math.min(_speedLimit, speed));
+            }
+            speeds[speedOffset + wheel] = speed;
+        }
+    }
+}
@@ -1,14 +1,25 @@
 package at.fhv.dgr1992.differentialWheels;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 
 /**
- * CameraImage takes a BufferedImage to hold a image. It provides set and get functions to easy work with the image.
+ * CameraImage holds a image as packed rgb int values (0xRRGGBB, row by row). It provides set and get functions to easy
+ * work with the image. The primitive getters and the row accessors do not allocate, the BufferedImage is only created
+ * on request and shares the pixel data with this image.
  */
 public class CameraImage {
-    private BufferedImage _image;
+    private static final int RED_MASK = 0xff0000;
+    private static final int GREEN_MASK = 0x00ff00;
+    private static final int BLUE_MASK = 0x0000ff;
+
+    private int[] _pixels;
     private int _width;
     private int _height;
+    private BufferedImage _image;
 
     /**
      * Constructs a new blank camera image
@@ -18,7 +29,7 @@ public class CameraImage {
     public CameraImage(int width, int height){
         _width = width;
         _height = height;
-        _image = new BufferedImage(_width,_height, BufferedImage.TYPE_INT_RGB);
+        _pixels = new int[_width * _height];
     }
 
     /**
@@ -58,7 +69,17 @@ public class CameraImage {
             rgb = rgb | b;
         }
 
-        _image.setRGB(x,y,rgb);
+        _pixels[index(x, y)] = rgb;
+    }
+
+    /**
+     * Set a pixel of the image
+     * @param x x position of the pixel
+     * @param y y position of the pixel
+     * @param rgb Packed rgb value 0xRRGGBB, the upper 8 bits are ignored
+     */
+    public void setRGB(int x, int y, int rgb){
+        _pixels[index(x, y)] = rgb & 0xffffff;
     }
 
     /**
@@ -68,15 +89,115 @@ public class CameraImage {
      * @return Pixel on the specified position
      */
     public CameraImagePixel getPixel(int x, int y){
-        int rgb = _image.getRGB(x,y);
-        return new CameraImagePixel(rgb);
+        return new CameraImagePixel(_pixels[index(x, y)]);
+    }
+
+    /**
+     * Get the packed rgb value of a pixel. X=0 Y=0 is in the left top corner.
+     * @param x x position of the pixel
+     * @param y y position of the pixel
+     * @return Packed rgb value 0xRRGGBB
+     */
+    public int getRGB(int x, int y){
+        return _pixels[index(x, y)];
+    }
+
+    /**
+     * Red value of a pixel
+     * @param x x position of the pixel
+     * @param y y position of the pixel
+     * @return Red value with range 0 - 255
+     */
+    public int red(int x, int y){
+        return (_pixels[index(x, y)]>>16)&255;
     }
 
     /**
-     * Get the camera image as a BufferedImage
+     * Green value of a pixel
+     * @param x x position of the pixel
+     * @param y y position of the pixel
+     * @return Green value with range 0 - 255
+     */
+    public int green(int x, int y){
+        return (_pixels[index(x, y)]>>8)&255;
+    }
+
+    /**
+     * Blue value of a pixel
+     * @param x x position of the pixel
+     * @param y y position of the pixel
+     * @return Blue value with range 0 - 255
+     */
+    public int blue(int x, int y){
+        return _pixels[index(x, y)]&255;
+    }
+
+    /**
+     * Copy one row of packed rgb values into the given array
+     * @param y row of the image
+     * @param row array with at least width elements
+     * @return The given array
+     */
+    public int[] getRow(int y, int[] row){
+        System.arraycopy(_pixels, index(0, y), row, 0, _width);
+        return row;
+    }
+
+    /**
+     * Overwrite one row with the given packed rgb values
+     * @param y row of the image
+     * @param row array with at least width packed rgb values
+     */
+    public void setRow(int y, int[] row){
+        int offset = index(0, y);
+        for (int x = 0; x < _width; x++) {
+            _pixels[offset + x] = row[x] & 0xffffff;
+        }
+    }
+
+    /**
+     * Get the backing array of packed rgb values, row by row. Changes to the array are visible in the image.
+     * @return Backing array with width * height elements
+     */
+    public int[] getPixels(){
+        return _pixels;
+    }
+
+    /**
+     * Width of the image
+     * @return width in pixel
+     */
+    public int getWidth(){
+        return _width;
+    }
+
+    /**
+     * Height of the image
+     * @return height in pixel
+     */
+    public int getHeight(){
+        return _height;
+    }
+
+    /**
+     * Get the camera image as a BufferedImage. The BufferedImage is created with the first call and shares the pixel
+     * data with this camera image.
      * @return Camera image as BufferedImage
      */
-    public BufferedImage getBufferedImage(){
+    public synchronized BufferedImage getBufferedImage(){
+        if (_image == null) {
+            DataBufferInt dataBuffer = new DataBufferInt(_pixels, _pixels.length);
+            int[] masks = new int[]{RED_MASK, GREEN_MASK, BLUE_MASK};
+            WritableRaster raster = Raster.createPackedRaster(dataBuffer, _width, _height, _width, masks, null);
+            _image = new BufferedImage(new DirectColorModel(24, RED_MASK, GREEN_MASK, BLUE_MASK), raster, false, null);
+        }
         return _image;
     }
+
+    private int index(int x, int y){
+        if (x < 0 || x >= _width || y < 0 || y >= _height) {
+            throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds: " + x + "," + y);
+        }
+        return y * _width + x;
+    }
 }
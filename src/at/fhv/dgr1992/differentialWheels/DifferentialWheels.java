@@ -5,7 +5,11 @@ import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
 import at.fhv.dgr1992.exceptions.SensorNotEnabledException;
 import at.fhv.dgr1992.exceptions.VelocityLimitException;
 
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Abstract representation of a robot with two wheels
@@ -18,27 +22,41 @@ public abstract class DifferentialWheels{
     protected boolean _proximitySensorEnabled = false;
     protected int _numProximitySeonsors;
     protected int[] _enabledProximitySensors;
-    protected double[] _proximitySensorValues;
+    protected volatile int _proximitySensorMask;
+    protected volatile double[] _proximitySensorValues;
     protected boolean _lightSensorsEnabled = false;
     protected int _numLightSensors;
     protected int[] _enabledLightSensors;
-    protected double[] _lightSensorValues;
+    protected volatile int _lightSensorMask;
+    protected volatile double[] _lightSensorValues;
     protected boolean _groundSensorsEnabled = false;
-    protected double[] _groundSensorValues;
+    protected volatile double[] _groundSensorValues;
     protected int _numGroundSensors;
     protected boolean _accelerometerEnabled = false;
-    protected Acceleration _accelerometerValues;
+    protected volatile Acceleration _accelerometerValues;
     protected boolean _wheelEncodingEnabled = false;
-    protected WheelEncode _wheelEncodeValues;
+    protected volatile WheelEncode _wheelEncodeValues;
     protected boolean _poseEnabled = false;
-    protected Pose _pose;
+    protected volatile Pose _pose;
     protected boolean _cameraEnabled = false;
     protected boolean _connected = false;
     protected Speed _motorSpeed;
     protected double _maxVel;
 
-    private LinkedList<SensorObserver> _sensorObservers;
-    private LinkedList<CameraImageObserver> _cameraImageObservers;
+    /**
+     * Default queue capacity of an observer
+     */
+    public static final int DEFAULT_OBSERVER_CAPACITY = 64;
+
+    private final ObserverBus<SensorObserver, Integer> _sensorObservers;
+    private final ObserverBus<CameraImageObserver, CameraImage> _cameraImageObservers;
+    private final Object lockTriggers = new Object();
+    private final CopyOnWriteArrayList<TriggerRegistration> _sensorTriggers;
+    private volatile int _sensorTriggerMask;
+    private volatile Executor _observerExecutor;
+    private final AtomicReference<SensorFrame> _sensorFrame;
+    private volatile SensorHistory _sensorHistory;
+    private volatile Odometry _odometry;
 
     public DifferentialWheels(String robotName, double wheelDiameter, double wheelDistance, double maxVel,int numProximitySensors, int numLightSensors, int numGroundSensors){
         _robotName = robotName;
@@ -50,22 +68,43 @@ public abstract class DifferentialWheels{
         _numGroundSensors = numGroundSensors;
         _pose = new Pose(new double[3]);
 
+        //Sensors that are not enabled are Double.NaN, they are never published
         _enabledProximitySensors = new int[_numProximitySeonsors];
-        _proximitySensorValues = new double[_numProximitySeonsors];
+        _proximitySensorValues = nanValues(_numProximitySeonsors);
         _enabledLightSensors = new int[_numLightSensors];
-        _lightSensorValues = new double[_numLightSensors];
-        _groundSensorValues = new double[3];
-        _accelerometerValues = new Acceleration(new double[3]);
-        _wheelEncodeValues = new WheelEncode(new double[2]);
+        _lightSensorValues = nanValues(_numLightSensors);
+        _groundSensorValues = nanValues(3);
+        _accelerometerValues = new Acceleration(nanValues(3));
+        _wheelEncodeValues = new WheelEncode(nanValues(2));
 
-        _sensorObservers = new LinkedList<SensorObserver>();
-        _cameraImageObservers = new LinkedList<CameraImageObserver>();
+        //The changed sensors are sent as mask, masks of pending notifications are combined with LatestOnly
+        _observerExecutor = ForkJoinPool.commonPool();
+        _sensorTriggers = new CopyOnWriteArrayList<TriggerRegistration>();
+        _sensorObservers = new ObserverBus<SensorObserver, Integer>(new ObserverBus.Delivery<SensorObserver, Integer>() {
+            @Override
+            public void deliver(SensorObserver observer, Integer sensorMask) {
+                observer.sensorValuesChanged(Sensor.fromMask(sensorMask));
+            }
+        }, new ObserverBus.Merger<Integer>() {
+            @Override
+            public Integer merge(Integer older, Integer newer) {
+                return older | newer;
+            }
+        }, _observerExecutor);
+        _cameraImageObservers = new ObserverBus<CameraImageObserver, CameraImage>(new ObserverBus.Delivery<CameraImageObserver, CameraImage>() {
+            @Override
+            public void deliver(CameraImageObserver observer, CameraImage cameraImage) {
+                observer.cameraImageChanged(cameraImage);
+            }
+        }, null, _observerExecutor);
 
         _motorSpeed = new Speed(0,0);
+
+        _sensorFrame = new AtomicReference<SensorFrame>(new SensorFrame(0, System.currentTimeMillis(), _proximitySensorValues, _lightSensorValues, _groundSensorValues, _accelerometerValues, _wheelEncodeValues, _pose));
     }
 
-    protected abstract boolean connect() throws RobotFunctionCallException;
-    protected abstract void disconnect();
+    public abstract boolean connect() throws RobotFunctionCallException;
+    public abstract void disconnect();
     protected abstract void initRobotModel() throws RobotFunctionCallException;
     public abstract double[] getProximitySensorValues() throws SensorNotEnabledException, RobotFunctionCallException;
     public abstract double[] getLightSensorValues() throws SensorNotEnabledException, RobotFunctionCallException;
@@ -96,20 +135,24 @@ public abstract class DifferentialWheels{
         for(int i = 0; i < _numProximitySeonsors; i++){
             _enabledProximitySensors[i] = i;
         }
+        _proximitySensorMask = toSensorMask(_enabledProximitySensors, _numProximitySeonsors);
         _proximitySensorEnabled = true;
     }
 
     /**
-     * Enable specific proximity sensors of the robot.
+     * Enable specific proximity sensors of the robot. Only the enabled sensors are decoded, the values of the other
+     * sensors are Double.NaN.
      * @param sensorIDs IDs of the sensors to be enabled.
-     * @throws Exception
+     * @throws Exception if more sensors are given than available or an ID is out of range
      */
     public void enableProximitySensors(int[] sensorIDs) throws Exception{
         if(sensorIDs.length < _numProximitySeonsors){
+            int mask = toSensorMask(sensorIDs, _numProximitySeonsors);
             _enabledProximitySensors = new int[sensorIDs.length];
             for(int i = 0; i < sensorIDs.length; i++){
                 _enabledProximitySensors[i] = sensorIDs[i];
             }
+            _proximitySensorMask = mask;
             _proximitySensorEnabled = true;
         } else {
             throw new Exception("Number of sensors larger then actually available sensors");
@@ -124,26 +167,70 @@ public abstract class DifferentialWheels{
         for(int i = 0; i < _numLightSensors; i++){
             _enabledLightSensors[i] = i;
         }
+        _lightSensorMask = toSensorMask(_enabledLightSensors, _numLightSensors);
         _lightSensorsEnabled = true;
     }
 
     /**
-     * Enable specific light sensors of the robot.
+     * Enable specific light sensors of the robot. Only the enabled sensors are decoded, the values of the other
+     * sensors are Double.NaN.
      * @param sensorIDs IDs of the sensors to enable
-     * @throws Exception
+     * @throws Exception if more sensors are given than available or an ID is out of range
      */
     public void enableLightSensors(int[] sensorIDs) throws Exception{
         if(sensorIDs.length < _numLightSensors) {
-            _enabledLightSensors = new int[_numLightSensors];
-            for (int i = 0; i < _numLightSensors; i++) {
-                _enabledLightSensors[i] = i;
+            int mask = toSensorMask(sensorIDs, _numLightSensors);
+            _enabledLightSensors = new int[sensorIDs.length];
+            for (int i = 0; i < sensorIDs.length; i++) {
+                _enabledLightSensors[i] = sensorIDs[i];
             }
+            _lightSensorMask = mask;
             _lightSensorsEnabled = true;
         } else {
             throw new Exception("Number of sensors larger then actually available sensors");
         }
     }
 
+    /**
+     * Get the enabled proximity sensors as bitmask, bit i is set if the sensor with ID i is enabled.
+     * @return bitmask of the enabled proximity sensors, 0 if none is enabled
+     */
+    public int getProximitySensorMask(){
+        return _proximitySensorEnabled ? _proximitySensorMask : 0;
+    }
+
+    /**
+     * Get the enabled light sensors as bitmask, bit i is set if the sensor with ID i is enabled.
+     * @return bitmask of the enabled light sensors, 0 if none is enabled
+     */
+    public int getLightSensorMask(){
+        return _lightSensorsEnabled ? _lightSensorMask : 0;
+    }
+
+    /**
+     * Compile sensor IDs into a bitmask.
+     * @param sensorIDs IDs of the sensors
+     * @param numSensors number of available sensors, at most 31
+     * @return bitmask with bit i set for every sensor ID i
+     * @throws IllegalArgumentException if an ID is out of range
+     */
+    protected static int toSensorMask(int[] sensorIDs, int numSensors){
+        int mask = 0;
+        for(int sensorID : sensorIDs){
+            if(sensorID < 0 || sensorID >= numSensors || sensorID > 30){
+                throw new IllegalArgumentException("Sensor ID " + sensorID + " out of range 0.." + (numSensors - 1));
+            }
+            mask |= 1 << sensorID;
+        }
+        return mask;
+    }
+
+    private static double[] nanValues(int numValues){
+        double[] values = new double[numValues];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
+
     /**
      * Enable the accelerometer of the robot.
      */
@@ -204,11 +291,186 @@ public abstract class DifferentialWheels{
     }
 
     /**
-     * Register as observer for the sensor values to get updates.
+     * Get the latest consistent snapshot of all sensor values. Does not refresh any values and does not block.
+     * Compare the sequence number with a previous frame to detect if new values arrived.
+     * @return Latest published sensor frame
+     */
+    public SensorFrame getSensorFrame(){
+        return _sensorFrame.get();
+    }
+
+    /**
+     * Publish new sensor values as one frame and store them in the sensor value fields.
+     * Channels that are null keep their previous values.
+     * @param proximitySensorValues New proximity values or null
+     * @param lightSensorValues New light values or null
+     * @param groundSensorValues New ground values or null
+     * @param accelerometerValues New accelerometer values or null
+     * @param wheelEncodeValues New wheel encoding or null
+     * @param pose New pose or null
+     * @return The published frame
+     */
+    protected SensorFrame publishSensorFrame(double[] proximitySensorValues, double[] lightSensorValues, double[] groundSensorValues, Acceleration accelerometerValues, WheelEncode wheelEncodeValues, Pose pose){
+        if (proximitySensorValues != null) {
+            _proximitySensorValues = proximitySensorValues;
+        }
+        if (lightSensorValues != null) {
+            _lightSensorValues = lightSensorValues;
+        }
+        if (groundSensorValues != null) {
+            _groundSensorValues = groundSensorValues;
+        }
+        if (accelerometerValues != null) {
+            _accelerometerValues = accelerometerValues;
+        }
+        if (wheelEncodeValues != null) {
+            _wheelEncodeValues = wheelEncodeValues;
+        }
+        if (pose != null) {
+            _pose = pose;
+        }
+
+        long timestamp = System.currentTimeMillis();
+        SensorFrame previous;
+        SensorFrame next;
+        do {
+            previous = _sensorFrame.get();
+            next = previous.next(timestamp, proximitySensorValues, lightSensorValues, groundSensorValues, accelerometerValues, wheelEncodeValues, pose);
+        } while (!_sensorFrame.compareAndSet(previous, next));
+
+        SensorHistory sensorHistory = _sensorHistory;
+        if (sensorHistory != null) {
+            sensorHistory.append(next);
+        }
+
+        Odometry odometry = _odometry;
+        if (odometry != null && wheelEncodeValues != null) {
+            odometry.update(next);
+        }
+
+        int triggerMask = _sensorTriggerMask;
+        if (triggerMask != 0) {
+            int refreshedMask = 0;
+            if (proximitySensorValues != null) {
+                refreshedMask |= Sensor.Proximity.getMask();
+            }
+            if (lightSensorValues != null) {
+                refreshedMask |= Sensor.Light.getMask();
+            }
+            if (groundSensorValues != null) {
+                refreshedMask |= Sensor.Ground.getMask();
+            }
+            if (accelerometerValues != null) {
+                refreshedMask |= Sensor.Accelerometer.getMask();
+            }
+            if (wheelEncodeValues != null) {
+                refreshedMask |= Sensor.WheelEncoding.getMask();
+            }
+            if (pose != null) {
+                refreshedMask |= Sensor.Pose.getMask();
+            }
+            if ((triggerMask & refreshedMask) != 0) {
+                evaluateSensorTriggers(next, refreshedMask);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Record every published sensor frame in a history. Replaces a previous history.
+     * @param capacity Maximum number of frames, the oldest frames are overwritten
+     * @param offHeap true to store the values outside of the heap
+     * @return the new history
+     */
+    public SensorHistory enableSensorHistory(int capacity, boolean offHeap){
+        SensorHistory sensorHistory = new SensorHistory(capacity, _numProximitySeonsors, _numGroundSensors, offHeap);
+        sensorHistory.append(_sensorFrame.get());
+        _sensorHistory = sensorHistory;
+        return sensorHistory;
+    }
+
+    /**
+     * Stop recording the sensor frames.
+     */
+    public void disableSensorHistory(){
+        _sensorHistory = null;
+    }
+
+    /**
+     * Get the history of the sensor frames.
+     * @return the history or null if it is not enabled
+     */
+    public SensorHistory getSensorHistory(){
+        return _sensorHistory;
+    }
+
+    /**
+     * Estimate the pose from the wheel encoding of every published sensor frame, without calls to the robot. The wheel
+     * encoding has to be enabled and the geometry of the robot known, so call it after connecting. Replaces a
+     * previous odometry.
+     * @param x Start position in the x coordinates
+     * @param y Start position in the y coordinates
+     * @param theta Start orientation
+     * @return the new odometry
+     */
+    public Odometry enableOdometry(double x, double y, double theta){
+        Odometry odometry = new Odometry(_wheelDiameter, _wheelDistance);
+        //The next published wheel encoding is the reference of the integration
+        odometry.reset(x, y, theta);
+        _odometry = odometry;
+        return odometry;
+    }
+
+    /**
+     * Stop the pose estimation.
+     */
+    public void disableOdometry(){
+        _odometry = null;
+    }
+
+    /**
+     * Get the pose estimation from the wheel encoding.
+     * @return the odometry or null if it is not enabled
+     */
+    public Odometry getOdometry(){
+        return _odometry;
+    }
+
+    /**
+     * Set the executor the observers are notified on. By default the common fork join pool is used.
+     * @param executor Executor
+     */
+    public void setObserverExecutor(Executor executor){
+        synchronized (lockTriggers) {
+            _observerExecutor = executor;
+            _sensorObservers.setExecutor(executor);
+            _cameraImageObservers.setExecutor(executor);
+            for (TriggerRegistration registration : _sensorTriggers) {
+                registration._listeners.setExecutor(executor);
+            }
+        }
+    }
+
+    /**
+     * Register as observer for the sensor values to get updates. Up to DEFAULT_OBSERVER_CAPACITY notifications are
+     * queued, if the observer is slower the oldest notifications are dropped.
      * @param observer
      */
     public void registerSensorObserver(SensorObserver observer){
-        _sensorObservers.add(observer);
+        registerSensorObserver(observer, DEFAULT_OBSERVER_CAPACITY, OverflowPolicy.DropOldest);
+    }
+
+    /**
+     * Register as observer for the sensor values to get updates. The observer is notified asynchronously, the
+     * notifications are queued until the observer has processed the previous ones.
+     * @param observer
+     * @param capacity Maximum number of queued notifications
+     * @param policy What happens if the queue is full. With LatestOnly the changed sensors of the dropped notifications
+     *               are added to the queued one.
+     * @return Subscription of the observer
+     */
+    public ObserverBus<SensorObserver, Integer>.Subscription registerSensorObserver(SensorObserver observer, int capacity, OverflowPolicy policy){
+        return _sensorObservers.subscribe(observer, capacity, policy);
     }
 
     /**
@@ -216,25 +478,38 @@ public abstract class DifferentialWheels{
      * @param observer
      */
     public void unregisterSensorObserver(SensorObserver observer){
-        _sensorObservers.remove(observer);
+        _sensorObservers.unsubscribe(observer);
     }
 
     /**
-     * Notify all observers about a the change of sensor values by giving them a list of all sensors that have changed.
-     * @param sensors
+     * Notify all observers about a the change of sensor values by giving them the sensors that have changed.
+     * @param sensorMask Mask of the changed sensors, see Sensor.getMask()
      */
-    protected void notifySensorObservers(LinkedList<Sensor> sensors){
-        for (SensorObserver observer: _sensorObservers) {
-            observer.sensorValuesChanged(sensors);
+    protected void notifySensorObservers(int sensorMask){
+        if (sensorMask != 0) {
+            _sensorObservers.publish(sensorMask);
         }
     }
 
     /**
-     * Register as observer for camera image to get updates.
+     * Register as observer for camera image to get updates. Up to DEFAULT_OBSERVER_CAPACITY images are queued, if the
+     * observer is slower the oldest images are dropped.
      * @param observer
      */
     public void registerCameraImageObserver(CameraImageObserver observer){
-        _cameraImageObservers.add(observer);
+        registerCameraImageObserver(observer, DEFAULT_OBSERVER_CAPACITY, OverflowPolicy.DropOldest);
+    }
+
+    /**
+     * Register as observer for camera image to get updates. The observer is notified asynchronously, the images are
+     * queued until the observer has processed the previous ones.
+     * @param observer
+     * @param capacity Maximum number of queued images
+     * @param policy What happens if the queue is full
+     * @return Subscription of the observer
+     */
+    public ObserverBus<CameraImageObserver, CameraImage>.Subscription registerCameraImageObserver(CameraImageObserver observer, int capacity, OverflowPolicy policy){
+        return _cameraImageObservers.subscribe(observer, capacity, policy);
     }
 
     /**
@@ -242,7 +517,7 @@ public abstract class DifferentialWheels{
      * @param observer
      */
     public void unregisterCameraImageObserver(CameraImageObserver observer){
-        _cameraImageObservers.remove(observer);
+        _cameraImageObservers.unsubscribe(observer);
     }
 
     /**
@@ -250,8 +525,95 @@ public abstract class DifferentialWheels{
      * @param cameraImage
      */
     protected void notifyCameraImageObservers(CameraImage cameraImage){
-        for (CameraImageObserver observer: _cameraImageObservers) {
-            observer.cameraImageChanged(cameraImage);
+        _cameraImageObservers.publish(cameraImage);
+    }
+
+    //region Sensor triggers
+
+    /**
+     * Register a listener that is notified when the trigger fires. The trigger is evaluated with every published
+     * sensor frame that refreshed its sensor, the listener is notified asynchronously. Up to
+     * DEFAULT_OBSERVER_CAPACITY events are queued, if the listener is slower the oldest events are dropped.
+     * @param trigger Condition, e.g. SensorTrigger.below(Sensor.Proximity, 2, 0.05, 0.005)
+     * @param listener Listener
+     */
+    public void registerSensorTrigger(SensorTrigger trigger, SensorEventListener listener){
+        registerSensorTrigger(trigger, listener, DEFAULT_OBSERVER_CAPACITY, OverflowPolicy.DropOldest);
+    }
+
+    /**
+     * Register a listener that is notified when the trigger fires. The trigger is evaluated with every published
+     * sensor frame that refreshed its sensor, the listener is notified asynchronously.
+     * @param trigger Condition, e.g. SensorTrigger.below(Sensor.Proximity, 2, 0.05, 0.005)
+     * @param listener Listener
+     * @param capacity Maximum number of queued events
+     * @param policy What happens if the queue is full
+     * @return Subscription of the listener
+     */
+    public ObserverBus<SensorEventListener, SensorEvent>.Subscription registerSensorTrigger(SensorTrigger trigger, SensorEventListener listener, int capacity, OverflowPolicy policy){
+        synchronized (lockTriggers) {
+            for (TriggerRegistration registration : _sensorTriggers) {
+                if (registration._trigger == trigger) {
+                    throw new IllegalArgumentException("Trigger " + trigger + " is already registered");
+                }
+            }
+            ObserverBus<SensorEventListener, SensorEvent> listeners = new ObserverBus<SensorEventListener, SensorEvent>(new ObserverBus.Delivery<SensorEventListener, SensorEvent>() {
+                @Override
+                public void deliver(SensorEventListener listener, SensorEvent event) {
+                    listener.sensorEvent(event);
+                }
+            }, null, _observerExecutor);
+            ObserverBus<SensorEventListener, SensorEvent>.Subscription subscription = listeners.subscribe(listener, capacity, policy);
+            _sensorTriggers.add(new TriggerRegistration(trigger, listener, listeners));
+            _sensorTriggerMask |= trigger.getSensor().getMask();
+            return subscription;
+        }
+    }
+
+    /**
+     * Remove a trigger, its listener is not notified anymore.
+     * @param trigger Trigger
+     * @return true if the trigger was registered
+     */
+    public boolean unregisterSensorTrigger(SensorTrigger trigger){
+        synchronized (lockTriggers) {
+            boolean removed = false;
+            int mask = 0;
+            for (TriggerRegistration registration : _sensorTriggers) {
+                if (registration._trigger == trigger) {
+                    _sensorTriggers.remove(registration);
+                    registration._listeners.unsubscribe(registration._listener);
+                    removed = true;
+                } else {
+                    mask |= registration._trigger.getSensor().getMask();
+                }
+            }
+            _sensorTriggerMask = mask;
+            return removed;
+        }
+    }
+
+    private void evaluateSensorTriggers(SensorFrame frame, int refreshedMask){
+        for (TriggerRegistration registration : _sensorTriggers) {
+            if ((registration._trigger.getSensor().getMask() & refreshedMask) != 0) {
+                SensorEvent event = registration._trigger.evaluate(frame);
+                if (event != null) {
+                    registration._listeners.publish(event);
+                }
+            }
+        }
+    }
+
+    private static final class TriggerRegistration {
+        private final SensorTrigger _trigger;
+        private final SensorEventListener _listener;
+        private final ObserverBus<SensorEventListener, SensorEvent> _listeners;
+
+        private TriggerRegistration(SensorTrigger trigger, SensorEventListener listener, ObserverBus<SensorEventListener, SensorEvent> listeners){
+            _trigger = trigger;
+            _listener = listener;
+            _listeners = listeners;
         }
     }
+    //endregion
 }
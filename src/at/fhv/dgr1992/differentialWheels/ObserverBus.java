@@ -0,0 +1,258 @@
+package at.fhv.dgr1992.differentialWheels;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers events to observers asynchronously. Every observer has its own bounded queue that is drained on an
+ * executor, so a slow observer neither delays the publisher nor the other observers. What happens if the queue of an
+ * observer is full is selected per observer with an OverflowPolicy.
+ * <p>
+ * The observers are kept in a copy-on-write list, observers can be added and removed at any time, also from within
+ * an observer. The events of one observer are delivered in order and never concurrently.
+ *
+ * @param <O> Type of the observers
+ * @param <E> Type of the events
+ */
+public class ObserverBus<O, E> {
+
+    /**
+     * Delivers an event to an observer
+     *
+     * @param <O> Type of the observers
+     * @param <E> Type of the events
+     */
+    public interface Delivery<O, E> {
+        void deliver(O observer, E event);
+    }
+
+    /**
+     * Merges two events into one, used by OverflowPolicy.LatestOnly
+     *
+     * @param <E> Type of the events
+     */
+    public interface Merger<E> {
+        E merge(E older, E newer);
+    }
+
+    private final CopyOnWriteArrayList<Subscription> _subscriptions;
+    private final Delivery<O, E> _delivery;
+    private final Merger<E> _merger;
+    private volatile Executor _executor;
+
+    /**
+     * Constructs a new bus
+     *
+     * @param delivery Delivers an event to an observer
+     * @param merger   Merges events for OverflowPolicy.LatestOnly, null to keep only the newer event
+     * @param executor Executor the events are delivered on
+     */
+    public ObserverBus(Delivery<O, E> delivery, Merger<E> merger, Executor executor) {
+        _subscriptions = new CopyOnWriteArrayList<Subscription>();
+        _delivery = delivery;
+        _merger = merger;
+        _executor = executor;
+    }
+
+    /**
+     * Set the executor the events are delivered on. Takes effect with the next published event.
+     *
+     * @param executor Executor
+     */
+    public void setExecutor(Executor executor) {
+        _executor = executor;
+    }
+
+    /**
+     * Add an observer. An observer that is already subscribed is replaced.
+     *
+     * @param observer Observer
+     * @param capacity Maximum number of queued events
+     * @param policy   What happens if the queue is full
+     * @return Subscription of the observer
+     */
+    public Subscription subscribe(O observer, int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        unsubscribe(observer);
+        Subscription subscription = new Subscription(observer, capacity, policy);
+        _subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Remove an observer. Queued events are discarded and a blocked publisher is released.
+     *
+     * @param observer Observer
+     * @return true if the observer was subscribed
+     */
+    public boolean unsubscribe(O observer) {
+        for (Subscription subscription : _subscriptions) {
+            if (subscription._observer == observer) {
+                _subscriptions.remove(subscription);
+                subscription.close();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if at least one observer is subscribed
+     */
+    public boolean hasSubscribers() {
+        return !_subscriptions.isEmpty();
+    }
+
+    /**
+     * Queue the event for all observers. Only blocks if the queue of an observer with OverflowPolicy.Block is full.
+     *
+     * @param event Event
+     */
+    public void publish(E event) {
+        for (Subscription subscription : _subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Queue of one observer
+     */
+    public class Subscription {
+        private final Object lockQueue = new Object();
+        private final O _observer;
+        private final int _capacity;
+        private final OverflowPolicy _policy;
+        private final ArrayDeque<E> _queue;
+        private final Runnable _drainTask;
+        private boolean _draining;
+        private boolean _closed;
+        private long _deliveredCount;
+        private long _droppedCount;
+
+        private Subscription(O observer, int capacity, OverflowPolicy policy) {
+            _observer = observer;
+            _capacity = policy == OverflowPolicy.LatestOnly ? 1 : capacity;
+            _policy = policy;
+            _queue = new ArrayDeque<E>(_capacity);
+            _drainTask = new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            };
+        }
+
+        public O getObserver() {
+            return _observer;
+        }
+
+        public OverflowPolicy getPolicy() {
+            return _policy;
+        }
+
+        /**
+         * @return Number of events delivered to the observer
+         */
+        public long getDeliveredCount() {
+            synchronized (lockQueue) {
+                return _deliveredCount;
+            }
+        }
+
+        /**
+         * @return Number of events that were dropped or merged because the queue was full
+         */
+        public long getDroppedCount() {
+            synchronized (lockQueue) {
+                return _droppedCount;
+            }
+        }
+
+        /**
+         * @return Number of queued events
+         */
+        public int getQueueLength() {
+            synchronized (lockQueue) {
+                return _queue.size();
+            }
+        }
+
+        private void offer(E event) {
+            synchronized (lockQueue) {
+                if (_closed) {
+                    return;
+                }
+                if (_queue.size() >= _capacity) {
+                    switch (_policy) {
+                        case DropOldest:
+                            _queue.pollFirst();
+                            _droppedCount++;
+                            break;
+                        case LatestOnly:
+                            E older = _queue.pollFirst();
+                            _droppedCount++;
+                            if (_merger != null) {
+                                event = _merger.merge(older, event);
+                            }
+                            break;
+                        case Block:
+                            while (_queue.size() >= _capacity && !_closed) {
+                                try {
+                                    lockQueue.wait();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    _droppedCount++;
+                                    return;
+                                }
+                            }
+                            if (_closed) {
+                                return;
+                            }
+                            break;
+                    }
+                }
+                _queue.addLast(event);
+
+                if (!_draining) {
+                    _draining = true;
+                    _executor.execute(_drainTask);
+                }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                E event;
+                synchronized (lockQueue) {
+                    event = _queue.pollFirst();
+                    if (event == null || _closed) {
+                        _draining = false;
+                        return;
+                    }
+                    //Release a blocked publisher
+                    lockQueue.notifyAll();
+                }
+
+                try {
+                    _delivery.deliver(_observer, event);
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                }
+                synchronized (lockQueue) {
+                    _deliveredCount++;
+                }
+            }
+        }
+
+        private void close() {
+            synchronized (lockQueue) {
+                _closed = true;
+                _queue.clear();
+                lockQueue.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package at.fhv.dgr1992.differentialWheels;
+
+/**
+ * Dead reckoning of the pose from the wheel encoding. The encoder deltas between two updates are integrated with the
+ * differential drive kinematics into a running pose, together with the covariance of the pose that grows with the
+ * distance the wheels travelled.
+ * <p>
+ * The wheel encoding is expected in rad. A delta of more than pi between two updates is taken as a wrap around of the
+ * encoder, so the wheels must not turn more than half a revolution between two updates.
+ * <p>
+ * Updates don't allocate. All methods are thread safe, the pose and the covariance of one read are consistent with
+ * each other.
+ */
+public class Odometry {
+
+    /**
+     * Default variance in m^2 of the travelled distance of a wheel per m
+     */
+    public static final double DEFAULT_WHEEL_ERROR = 0.0001;
+
+    private final Object lockOdometry = new Object();
+    private final double _wheelRadius;
+    private final double _wheelDistance;
+    private final double _wheelError;
+    private final double[] _covariance;
+    private final double[] _scratch;
+    private double _x;
+    private double _y;
+    private double _theta;
+    private double _lastLeft;
+    private double _lastRight;
+    private boolean _hasEncoding;
+    private long _lastSequence;
+    private long _updateCount;
+    private double _distance;
+
+    /**
+     * Constructs a new odometry at the pose (0,0,0)
+     *
+     * @param wheelDiameter Diameter of the wheels in m
+     * @param wheelDistance Distance between the wheels in m
+     */
+    public Odometry(double wheelDiameter, double wheelDistance) {
+        this(wheelDiameter, wheelDistance, DEFAULT_WHEEL_ERROR);
+    }
+
+    /**
+     * Constructs a new odometry at the pose (0,0,0)
+     *
+     * @param wheelDiameter Diameter of the wheels in m
+     * @param wheelDistance Distance between the wheels in m
+     * @param wheelError    Variance in m^2 of the travelled distance of a wheel per m
+     */
+    public Odometry(double wheelDiameter, double wheelDistance, double wheelError) {
+        if (wheelDiameter <= 0 || wheelDistance <= 0) {
+            throw new IllegalArgumentException("Wheel diameter and distance must be positive");
+        }
+        if (wheelError < 0) {
+            throw new IllegalArgumentException("Wheel error must not be negative");
+        }
+        _wheelRadius = wheelDiameter / 2;
+        _wheelDistance = wheelDistance;
+        _wheelError = wheelError;
+        _covariance = new double[9];
+        _scratch = new double[9];
+        _lastSequence = -1;
+    }
+
+    /**
+     * Set the pose and forget the covariance. The next update only takes the wheel encoding as reference.
+     *
+     * @param x     x coordinate in m
+     * @param y     y coordinate in m
+     * @param theta Orientation in rad
+     */
+    public void reset(double x, double y, double theta) {
+        synchronized (lockOdometry) {
+            _x = x;
+            _y = y;
+            _theta = theta;
+            _hasEncoding = false;
+            _distance = 0;
+            for (int i = 0; i < _covariance.length; i++) {
+                _covariance[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Integrate the wheel encoding of a frame. Frames that are not newer than the last integrated frame are ignored.
+     *
+     * @param frame Frame with the wheel encoding
+     * @return true if the frame was integrated
+     */
+    public boolean update(SensorFrame frame) {
+        WheelEncode wheelEncode = frame.getWheelEncodingValues();
+        if (wheelEncode == null) {
+            return false;
+        }
+        synchronized (lockOdometry) {
+            if (frame.getSequence() <= _lastSequence) {
+                return false;
+            }
+            _lastSequence = frame.getSequence();
+            integrate(wheelEncode.getLeft(), wheelEncode.getRight());
+            return true;
+        }
+    }
+
+    /**
+     * Integrate the wheel encoding.
+     *
+     * @param wheelEncode Wheel encoding in rad
+     */
+    public void update(WheelEncode wheelEncode) {
+        synchronized (lockOdometry) {
+            integrate(wheelEncode.getLeft(), wheelEncode.getRight());
+        }
+    }
+
+    /**
+     * @return Estimated pose
+     */
+    public Pose getPose() {
+        synchronized (lockOdometry) {
+            return new Pose(new double[]{_x, _y, _theta});
+        }
+    }
+
+    /**
+     * Copy the estimated pose and its covariance without allocating.
+     *
+     * @param pose       Array of at least 3 values the pose x, y and theta is copied to
+     * @param covariance Array of at least 9 values the row major 3x3 covariance is copied to, or null
+     */
+    public void getPose(double[] pose, double[] covariance) {
+        synchronized (lockOdometry) {
+            pose[0] = _x;
+            pose[1] = _y;
+            pose[2] = _theta;
+            if (covariance != null) {
+                System.arraycopy(_covariance, 0, covariance, 0, 9);
+            }
+        }
+    }
+
+    public double getX() {
+        synchronized (lockOdometry) {
+            return _x;
+        }
+    }
+
+    public double getY() {
+        synchronized (lockOdometry) {
+            return _y;
+        }
+    }
+
+    public double getTheta() {
+        synchronized (lockOdometry) {
+            return _theta;
+        }
+    }
+
+    /**
+     * @return Distance in m the robot travelled since the last reset
+     */
+    public double getDistance() {
+        synchronized (lockOdometry) {
+            return _distance;
+        }
+    }
+
+    /**
+     * @return Number of integrated wheel encodings
+     */
+    public long getUpdateCount() {
+        synchronized (lockOdometry) {
+            return _updateCount;
+        }
+    }
+
+    /**
+     * Has to be called while holding lockOdometry.
+     */
+    private void integrate(double left, double right) {
+        if (Double.isNaN(left) || Double.isNaN(right)) {
+            return;
+        }
+        _updateCount++;
+        if (!_hasEncoding) {
+            _lastLeft = left;
+            _lastRight = right;
+            _hasEncoding = true;
+            return;
+        }
+
+        double deltaLeft = unwrap(left - _lastLeft) * _wheelRadius;
+        double deltaRight = unwrap(right - _lastRight) * _wheelRadius;
+        _lastLeft = left;
+        _lastRight = right;
+
+        double deltaS = (deltaLeft + deltaRight) / 2;
+        double deltaTheta = (deltaRight - deltaLeft) / _wheelDistance;
+        double heading = _theta + deltaTheta / 2;
+        double cos = Math.cos(heading);
+        double sin = Math.sin(heading);
+
+        propagateCovariance(deltaS, cos, sin, _wheelError * Math.abs(deltaRight), _wheelError * Math.abs(deltaLeft));
+
+        _x += deltaS * cos;
+        _y += deltaS * sin;
+        _theta = normalizeAngle(_theta + deltaTheta);
+        _distance += Math.abs(deltaS);
+    }
+
+    /**
+     * P = Fp * P * Fp^T + Fw * Q * Fw^T with the jacobians Fp of the pose and Fw of the wheel deltas, Q is the
+     * diagonal covariance of the right and left wheel delta.
+     */
+    private void propagateCovariance(double deltaS, double cos, double sin, double varianceRight, double varianceLeft) {
+        double[] p = _covariance;
+        double[] a = _scratch;
+        double fp02 = -deltaS * sin;
+        double fp12 = deltaS * cos;
+
+        //a = Fp * P, Fp is the identity except for the last column
+        for (int column = 0; column < 3; column++) {
+            a[column] = p[column] + fp02 * p[6 + column];
+            a[3 + column] = p[3 + column] + fp12 * p[6 + column];
+            a[6 + column] = p[6 + column];
+        }
+        //P = a * Fp^T
+        for (int row = 0; row < 3; row++) {
+            p[row * 3] = a[row * 3] + a[row * 3 + 2] * fp02;
+            p[row * 3 + 1] = a[row * 3 + 1] + a[row * 3 + 2] * fp12;
+            p[row * 3 + 2] = a[row * 3 + 2];
+        }
+
+        //Jacobian of the pose by the right (r) and left (l) wheel delta
+        double k = deltaS / (2 * _wheelDistance);
+        double r0 = 0.5 * cos - k * sin;
+        double l0 = 0.5 * cos + k * sin;
+        double r1 = 0.5 * sin + k * cos;
+        double l1 = 0.5 * sin - k * cos;
+        double r2 = 1 / _wheelDistance;
+        double l2 = -1 / _wheelDistance;
+
+        p[0] += r0 * r0 * varianceRight + l0 * l0 * varianceLeft;
+        p[1] += r0 * r1 * varianceRight + l0 * l1 * varianceLeft;
+        p[2] += r0 * r2 * varianceRight + l0 * l2 * varianceLeft;
+        p[4] += r1 * r1 * varianceRight + l1 * l1 * varianceLeft;
+        p[5] += r1 * r2 * varianceRight + l1 * l2 * varianceLeft;
+        p[8] += r2 * r2 * varianceRight + l2 * l2 * varianceLeft;
+        p[3] = p[1];
+        p[6] = p[2];
+        p[7] = p[5];
+    }
+
+    private static double unwrap(double delta) {
+        if (delta > Math.PI) {
+            return delta - 2 * Math.PI;
+        } else if (delta < -Math.PI) {
+            return delta + 2 * Math.PI;
+        }
+        return delta;
+    }
+
+    private static double normalizeAngle(double angle) {
+        while (angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        }
+        while (angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+}
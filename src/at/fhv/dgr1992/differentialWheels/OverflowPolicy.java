@@ -0,0 +1,19 @@
+package at.fhv.dgr1992.differentialWheels;
+
+/**
+ * What happens if an event is published to an observer whose queue is full
+ */
+public enum OverflowPolicy {
+    /**
+     * The oldest queued event is dropped
+     */
+    DropOldest,
+    /**
+     * Only the latest event is kept, queued events are merged into it
+     */
+    LatestOnly,
+    /**
+     * The publisher waits until the observer has taken an event from the queue
+     */
+    Block
+}
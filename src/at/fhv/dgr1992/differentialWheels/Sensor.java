@@ -1,5 +1,9 @@
 package at.fhv.dgr1992.differentialWheels;
 
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * Sensors of the robot
  */
@@ -9,5 +13,52 @@ public enum Sensor {
     Accelerometer,
     WheelEncoding,
     Pose,
-    Ground
+    Ground;
+
+    private static final Set<Sensor>[] _sets = createSets();
+
+    /**
+     * @return Bit of this sensor in a sensor mask
+     */
+    public int getMask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Get the sensors of a mask. The sets are cached, so no set is created.
+     * @param mask Sensor mask, a combination of getMask() of the sensors
+     * @return Unmodifiable set of the sensors in the mask
+     */
+    public static Set<Sensor> fromMask(int mask) {
+        return _sets[mask & (_sets.length - 1)];
+    }
+
+    /**
+     * Compile sensors into a mask.
+     * @param sensors Sensors
+     * @return Sensor mask
+     */
+    public static int toMask(Set<Sensor> sensors) {
+        int mask = 0;
+        for (Sensor sensor : sensors) {
+            mask |= sensor.getMask();
+        }
+        return mask;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Set<Sensor>[] createSets() {
+        Sensor[] sensors = values();
+        Set<Sensor>[] sets = new Set[1 << sensors.length];
+        for (int mask = 0; mask < sets.length; mask++) {
+            EnumSet<Sensor> set = EnumSet.noneOf(Sensor.class);
+            for (Sensor sensor : sensors) {
+                if ((mask & (1 << sensor.ordinal())) != 0) {
+                    set.add(sensor);
+                }
+            }
+            sets[mask] = Collections.unmodifiableSet(set);
+        }
+        return sets;
+    }
 }
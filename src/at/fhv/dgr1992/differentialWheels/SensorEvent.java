@@ -0,0 +1,43 @@
+package at.fhv.dgr1992.differentialWheels;
+
+/**
+ * A sensor trigger has fired
+ */
+public final class SensorEvent {
+    private final SensorTrigger _trigger;
+    private final SensorFrame _frame;
+    private final double _value;
+
+    /**
+     * Constructs a new event
+     * @param trigger Trigger that fired
+     * @param frame Frame that made the trigger fire
+     * @param value Value of the frame the trigger evaluated
+     */
+    public SensorEvent(SensorTrigger trigger, SensorFrame frame, double value){
+        _trigger = trigger;
+        _frame = frame;
+        _value = value;
+    }
+
+    public SensorTrigger getTrigger(){
+        return _trigger;
+    }
+
+    /**
+     * Get the frame that made the trigger fire, all values of the frame are consistent with each other.
+     * @return Frame
+     */
+    public SensorFrame getFrame(){
+        return _frame;
+    }
+
+    public double getValue(){
+        return _value;
+    }
+
+    @Override
+    public String toString(){
+        return _trigger + " fired with " + _value + " at frame " + _frame.getSequence();
+    }
+}
@@ -0,0 +1,10 @@
+package at.fhv.dgr1992.differentialWheels;
+
+
+public interface SensorEventListener {
+    /**
+     * Called asynchronously when a registered sensor trigger has fired.
+     * @param event Event
+     */
+    void sensorEvent(SensorEvent event);
+}
@@ -0,0 +1,110 @@
+package at.fhv.dgr1992.differentialWheels;
+
+/**
+ * Immutable snapshot of all sensor values of the robot. A new frame is published every time sensor values are
+ * refreshed, channels that were not refreshed keep the values of the previous frame. All values of one frame are
+ * therefore consistent with each other.
+ * The arrays and value objects are shared with the robot and must not be modified.
+ */
+public final class SensorFrame {
+    private final long _sequence;
+    private final long _timestamp;
+    private final double[] _proximitySensorValues;
+    private final double[] _lightSensorValues;
+    private final double[] _groundSensorValues;
+    private final Acceleration _accelerometerValues;
+    private final WheelEncode _wheelEncodeValues;
+    private final Pose _pose;
+
+    /**
+     * Constructs a new frame
+     * @param sequence Sequence number of the frame, increases by one with each published frame
+     * @param timestamp Capture time in ms (System.currentTimeMillis)
+     * @param proximitySensorValues Values of the proximity sensors
+     * @param lightSensorValues Values of the light sensors
+     * @param groundSensorValues Values of the ground sensors
+     * @param accelerometerValues Values of the accelerometer
+     * @param wheelEncodeValues Values of the wheel encoding
+     * @param pose Pose of the robot
+     */
+    public SensorFrame(long sequence, long timestamp, double[] proximitySensorValues, double[] lightSensorValues, double[] groundSensorValues, Acceleration accelerometerValues, WheelEncode wheelEncodeValues, Pose pose){
+        _sequence = sequence;
+        _timestamp = timestamp;
+        _proximitySensorValues = proximitySensorValues;
+        _lightSensorValues = lightSensorValues;
+        _groundSensorValues = groundSensorValues;
+        _accelerometerValues = accelerometerValues;
+        _wheelEncodeValues = wheelEncodeValues;
+        _pose = pose;
+    }
+
+    /**
+     * Creates the successor of this frame. Values that are null are taken from this frame.
+     * @param timestamp Capture time in ms of the new frame
+     * @param proximitySensorValues New proximity values or null
+     * @param lightSensorValues New light values or null
+     * @param groundSensorValues New ground values or null
+     * @param accelerometerValues New accelerometer values or null
+     * @param wheelEncodeValues New wheel encoding or null
+     * @param pose New pose or null
+     * @return New frame with the next sequence number
+     */
+    public SensorFrame next(long timestamp, double[] proximitySensorValues, double[] lightSensorValues, double[] groundSensorValues, Acceleration accelerometerValues, WheelEncode wheelEncodeValues, Pose pose){
+        return new SensorFrame(_sequence + 1, timestamp,
+                proximitySensorValues != null ? proximitySensorValues : _proximitySensorValues,
+                lightSensorValues != null ? lightSensorValues : _lightSensorValues,
+                groundSensorValues != null ? groundSensorValues : _groundSensorValues,
+                accelerometerValues != null ? accelerometerValues : _accelerometerValues,
+                wheelEncodeValues != null ? wheelEncodeValues : _wheelEncodeValues,
+                pose != null ? pose : _pose);
+    }
+
+    /**
+     * Sequence number of the frame. Two frames with the same sequence number contain the same values.
+     * @return Sequence number, 0 for the initial frame
+     */
+    public long getSequence(){
+        return _sequence;
+    }
+
+    /**
+     * Time the frame was captured
+     * @return Capture time in ms (System.currentTimeMillis)
+     */
+    public long getTimestamp(){
+        return _timestamp;
+    }
+
+    /**
+     * Check if this frame was published after the given frame
+     * @param other Previously read frame, can be null
+     * @return true if this frame contains newer values
+     */
+    public boolean isNewerThan(SensorFrame other){
+        return other == null || _sequence > other._sequence;
+    }
+
+    public double[] getProximitySensorValues(){
+        return _proximitySensorValues;
+    }
+
+    public double[] getLightSensorValues(){
+        return _lightSensorValues;
+    }
+
+    public double[] getGroundSensorValues(){
+        return _groundSensorValues;
+    }
+
+    public Acceleration getAccelerometerValues(){
+        return _accelerometerValues;
+    }
+
+    public WheelEncode getWheelEncodingValues(){
+        return _wheelEncodeValues;
+    }
+
+    public Pose getPose(){
+        return _pose;
+    }
+}
@@ -0,0 +1,504 @@
+package at.fhv.dgr1992.differentialWheels;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Fixed capacity ring buffer of sensor frames. Every published frame of a robot is appended, when the buffer is full
+ * the oldest frame is overwritten. The values are stored in primitive arrays, or optionally off-heap in direct
+ * buffers, so long recordings neither create garbage nor increase the heap.
+ * <p>
+ * Entries are addressed by their index, 0 is the oldest and size() - 1 the newest entry. All queries copy into
+ * arrays of the caller or return primitives, so they don't allocate. Timestamps are in ms like the timestamps of the
+ * frames. They never decrease from one entry to the next: a frame with a timestamp before the newest entry, e.g.
+ * after a wall clock adjustment or from a publisher that took its timestamp before a concurrent one, is recorded with
+ * the timestamp of the newest entry, so the queries by time can search the entries in order.
+ */
+public class SensorHistory {
+
+    /**
+     * Channel of a frame that is recorded
+     */
+    public enum Channel {
+        Proximity,
+        Ground,
+        Accelerometer,
+        WheelEncoding,
+        Pose
+    }
+
+    private final Object lockHistory = new Object();
+    private final int _capacity;
+    private final int _stride;
+    private final int[] _offsets;
+    private final int[] _sizes;
+    private final boolean _offHeap;
+    private final double[] _heapValues;
+    private final long[] _heapSequences;
+    private final long[] _heapTimestamps;
+    private final DoubleBuffer _directValues;
+    private final LongBuffer _directSequences;
+    private final LongBuffer _directTimestamps;
+    private int _head;
+    private int _size;
+    private long _lastSequence;
+    private long _lastTimestamp;
+    private long _droppedCount;
+
+    /**
+     * Constructs a new history
+     *
+     * @param capacity            Maximum number of frames
+     * @param numProximitySensors Number of proximity sensors of the robot
+     * @param numGroundSensors    Number of ground sensors of the robot
+     * @param offHeap             true to store the values in direct buffers outside of the heap
+     */
+    public SensorHistory(int capacity, int numProximitySensors, int numGroundSensors, boolean offHeap) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        _capacity = capacity;
+        _sizes = new int[Channel.values().length];
+        _sizes[Channel.Proximity.ordinal()] = numProximitySensors;
+        _sizes[Channel.Ground.ordinal()] = numGroundSensors;
+        _sizes[Channel.Accelerometer.ordinal()] = 3;
+        _sizes[Channel.WheelEncoding.ordinal()] = 2;
+        _sizes[Channel.Pose.ordinal()] = 3;
+        _offsets = new int[_sizes.length];
+        int stride = 0;
+        for (int i = 0; i < _sizes.length; i++) {
+            _offsets[i] = stride;
+            stride += _sizes[i];
+        }
+        _stride = stride;
+        if ((long) capacity * stride * 8 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capacity " + capacity + " too large, at most " + (Integer.MAX_VALUE / 8 / stride) + " frames");
+        }
+
+        _offHeap = offHeap;
+        if (offHeap) {
+            _directValues = ByteBuffer.allocateDirect(capacity * stride * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            _directSequences = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+            _directTimestamps = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+            _heapValues = null;
+            _heapSequences = null;
+            _heapTimestamps = null;
+        } else {
+            _heapValues = new double[capacity * stride];
+            _heapSequences = new long[capacity];
+            _heapTimestamps = new long[capacity];
+            _directValues = null;
+            _directSequences = null;
+            _directTimestamps = null;
+        }
+        _lastSequence = -1;
+        _lastTimestamp = Long.MIN_VALUE;
+    }
+
+    /**
+     * Append a frame. A frame that is older than the newest entry, e.g. because two threads published concurrently,
+     * is dropped, the newer frame already contains its values.
+     *
+     * @param frame Frame to append
+     */
+    public void append(SensorFrame frame) {
+        synchronized (lockHistory) {
+            if (frame.getSequence() <= _lastSequence) {
+                _droppedCount++;
+                return;
+            }
+            _lastSequence = frame.getSequence();
+
+            int slot = _head;
+            _head = (_head + 1) % _capacity;
+            if (_size < _capacity) {
+                _size++;
+            }
+
+            putLong(true, slot, frame.getSequence());
+            //Keep the timestamps ascending for the binary searches
+            _lastTimestamp = Math.max(frame.getTimestamp(), _lastTimestamp);
+            putLong(false, slot, _lastTimestamp);
+            int base = slot * _stride;
+            putArray(base + _offsets[Channel.Proximity.ordinal()], frame.getProximitySensorValues(), _sizes[Channel.Proximity.ordinal()]);
+            putArray(base + _offsets[Channel.Ground.ordinal()], frame.getGroundSensorValues(), _sizes[Channel.Ground.ordinal()]);
+
+            int offset = base + _offsets[Channel.Accelerometer.ordinal()];
+            Acceleration acceleration = frame.getAccelerometerValues();
+            putDouble(offset, acceleration.getX());
+            putDouble(offset + 1, acceleration.getY());
+            putDouble(offset + 2, acceleration.getZ());
+
+            offset = base + _offsets[Channel.WheelEncoding.ordinal()];
+            WheelEncode wheelEncode = frame.getWheelEncodingValues();
+            putDouble(offset, wheelEncode.getLeft());
+            putDouble(offset + 1, wheelEncode.getRight());
+
+            offset = base + _offsets[Channel.Pose.ordinal()];
+            Pose pose = frame.getPose();
+            putDouble(offset, pose.getX());
+            putDouble(offset + 1, pose.getY());
+            putDouble(offset + 2, pose.getTheta());
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        synchronized (lockHistory) {
+            _head = 0;
+            _size = 0;
+            _lastTimestamp = Long.MIN_VALUE;
+        }
+    }
+
+    //region Entries
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * @return true if the values are stored outside of the heap
+     */
+    public boolean isOffHeap() {
+        return _offHeap;
+    }
+
+    /**
+     * @return Number of entries
+     */
+    public int size() {
+        synchronized (lockHistory) {
+            return _size;
+        }
+    }
+
+    /**
+     * @return Number of frames that were dropped because they were older than the newest entry
+     */
+    public long getDroppedCount() {
+        synchronized (lockHistory) {
+            return _droppedCount;
+        }
+    }
+
+    /**
+     * @param channel Channel of the frame
+     * @return Number of values of the channel
+     */
+    public int getChannelSize(Channel channel) {
+        return _sizes[channel.ordinal()];
+    }
+
+    /**
+     * @param index Index of the entry, 0 is the oldest
+     * @return Sequence number of the frame
+     */
+    public long getSequence(int index) {
+        synchronized (lockHistory) {
+            return getLong(true, slot(index));
+        }
+    }
+
+    /**
+     * @param index Index of the entry, 0 is the oldest
+     * @return Timestamp of the frame in ms
+     */
+    public long getTimestamp(int index) {
+        synchronized (lockHistory) {
+            return getLong(false, slot(index));
+        }
+    }
+
+    /**
+     * @param index     Index of the entry, 0 is the oldest
+     * @param channel   Channel of the value
+     * @param component Index of the value in the channel, e.g. the sensor ID
+     * @return the value
+     */
+    public double getValue(int index, Channel channel, int component) {
+        synchronized (lockHistory) {
+            return getDouble(valueOffset(slot(index), channel, component));
+        }
+    }
+    //endregion
+
+    //region Time indexed queries
+
+    /**
+     * Find the newest entry that was captured at or before the given time.
+     *
+     * @param timestamp time in ms
+     * @return Index of the entry or -1 if all entries are newer
+     */
+    public int indexAt(long timestamp) {
+        synchronized (lockHistory) {
+            return indexAtLocked(timestamp);
+        }
+    }
+
+    /**
+     * Get the value of a channel at the given time, which is the value of the newest entry captured at or before
+     * that time.
+     *
+     * @param timestamp time in ms
+     * @param channel   Channel of the value
+     * @param component Index of the value in the channel, e.g. the sensor ID
+     * @return the value or Double.NaN if all entries are newer
+     */
+    public double valueAt(long timestamp, Channel channel, int component) {
+        synchronized (lockHistory) {
+            int index = indexAtLocked(timestamp);
+            return index < 0 ? Double.NaN : getDouble(valueOffset(slot(index), channel, component));
+        }
+    }
+
+    /**
+     * Copy all values of a channel at the given time.
+     *
+     * @param timestamp time in ms
+     * @param channel   Channel of the values
+     * @param values    Array the values are copied to, at least getChannelSize(channel) long
+     * @return Index of the entry or -1 if all entries are newer
+     */
+    public int valuesAt(long timestamp, Channel channel, double[] values) {
+        synchronized (lockHistory) {
+            int index = indexAtLocked(timestamp);
+            if (index >= 0) {
+                int offset = valueOffset(slot(index), channel, 0);
+                for (int i = 0; i < _sizes[channel.ordinal()]; i++) {
+                    values[i] = getDouble(offset + i);
+                }
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Copy the values of one channel component that were captured in the time range.
+     *
+     * @param from       start of the range in ms, inclusive
+     * @param to         end of the range in ms, inclusive
+     * @param channel    Channel of the values
+     * @param component  Index of the value in the channel, e.g. the sensor ID
+     * @param values     Array the values are copied to, oldest first
+     * @param timestamps Array the timestamps are copied to, null if not needed
+     * @return Number of copied values, at most the length of values
+     */
+    public int window(long from, long to, Channel channel, int component, double[] values, long[] timestamps) {
+        synchronized (lockHistory) {
+            int first = firstIndexFrom(from);
+            int count = 0;
+            for (int index = first; index < _size && count < values.length; index++) {
+                int slot = slot(index);
+                long timestamp = getLong(false, slot);
+                if (timestamp > to) {
+                    break;
+                }
+                values[count] = getDouble(valueOffset(slot, channel, component));
+                if (timestamps != null) {
+                    timestamps[count] = timestamp;
+                }
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Mean of one channel component over the time range.
+     *
+     * @param from      start of the range in ms, inclusive
+     * @param to        end of the range in ms, inclusive
+     * @param channel   Channel of the values
+     * @param component Index of the value in the channel, e.g. the sensor ID
+     * @return the mean or Double.NaN if there is no entry in the range
+     */
+    public double mean(long from, long to, Channel channel, int component) {
+        synchronized (lockHistory) {
+            double sum = 0;
+            int count = 0;
+            for (int index = firstIndexFrom(from); index < _size; index++) {
+                int slot = slot(index);
+                if (getLong(false, slot) > to) {
+                    break;
+                }
+                sum += getDouble(valueOffset(slot, channel, component));
+                count++;
+            }
+            return count == 0 ? Double.NaN : sum / count;
+        }
+    }
+
+    /**
+     * Minimum of one channel component over the time range.
+     *
+     * @param from      start of the range in ms, inclusive
+     * @param to        end of the range in ms, inclusive
+     * @param channel   Channel of the values
+     * @param component Index of the value in the channel, e.g. the sensor ID
+     * @return the minimum or Double.NaN if there is no entry in the range
+     */
+    public double min(long from, long to, Channel channel, int component) {
+        synchronized (lockHistory) {
+            double min = Double.NaN;
+            for (int index = firstIndexFrom(from); index < _size; index++) {
+                int slot = slot(index);
+                if (getLong(false, slot) > to) {
+                    break;
+                }
+                double value = getDouble(valueOffset(slot, channel, component));
+                if (Double.isNaN(min) || value < min) {
+                    min = value;
+                }
+            }
+            return min;
+        }
+    }
+
+    /**
+     * Maximum of one channel component over the time range.
+     *
+     * @param from      start of the range in ms, inclusive
+     * @param to        end of the range in ms, inclusive
+     * @param channel   Channel of the values
+     * @param component Index of the value in the channel, e.g. the sensor ID
+     * @return the maximum or Double.NaN if there is no entry in the range
+     */
+    public double max(long from, long to, Channel channel, int component) {
+        synchronized (lockHistory) {
+            double max = Double.NaN;
+            for (int index = firstIndexFrom(from); index < _size; index++) {
+                int slot = slot(index);
+                if (getLong(false, slot) > to) {
+                    break;
+                }
+                double value = getDouble(valueOffset(slot, channel, component));
+                if (Double.isNaN(max) || value > max) {
+                    max = value;
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Average rate of change of one channel component over the time range, computed from the first and the last entry
+     * in the range.
+     *
+     * @param from      start of the range in ms, inclusive
+     * @param to        end of the range in ms, inclusive
+     * @param channel   Channel of the values
+     * @param component Index of the value in the channel, e.g. the sensor ID
+     * @return change per second or Double.NaN if the range contains less than two entries with different timestamps
+     */
+    public double derivative(long from, long to, Channel channel, int component) {
+        synchronized (lockHistory) {
+            int first = firstIndexFrom(from);
+            int last = indexAtLocked(to);
+            if (first >= _size || last <= first) {
+                return Double.NaN;
+            }
+            int firstSlot = slot(first);
+            int lastSlot = slot(last);
+            long duration = getLong(false, lastSlot) - getLong(false, firstSlot);
+            if (duration <= 0) {
+                return Double.NaN;
+            }
+            double change = getDouble(valueOffset(lastSlot, channel, component)) - getDouble(valueOffset(firstSlot, channel, component));
+            return change * 1000.0 / duration;
+        }
+    }
+    //endregion
+
+    /**
+     * Index of the newest entry with a timestamp at or before the given time. Has to be called while holding
+     * lockHistory.
+     */
+    private int indexAtLocked(long timestamp) {
+        //Timestamps are ascending, find the last entry <= timestamp
+        int low = 0;
+        int high = _size - 1;
+        int result = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (getLong(false, slot(middle)) <= timestamp) {
+                result = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Index of the oldest entry with a timestamp at or after the given time, size if there is none. Has to be called
+     * while holding lockHistory.
+     */
+    private int firstIndexFrom(long timestamp) {
+        int low = 0;
+        int high = _size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getLong(false, slot(middle)) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= _size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range 0.." + (_size - 1));
+        }
+        int slot = _head - _size + index;
+        return slot < 0 ? slot + _capacity : slot;
+    }
+
+    private int valueOffset(int slot, Channel channel, int component) {
+        if (component < 0 || component >= _sizes[channel.ordinal()]) {
+            throw new IndexOutOfBoundsException("Component " + component + " out of range for " + channel);
+        }
+        return slot * _stride + _offsets[channel.ordinal()] + component;
+    }
+
+    private void putArray(int offset, double[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            putDouble(offset + i, i < values.length ? values[i] : Double.NaN);
+        }
+    }
+
+    private void putDouble(int offset, double value) {
+        if (_offHeap) {
+            _directValues.put(offset, value);
+        } else {
+            _heapValues[offset] = value;
+        }
+    }
+
+    private double getDouble(int offset) {
+        return _offHeap ? _directValues.get(offset) : _heapValues[offset];
+    }
+
+    private void putLong(boolean sequence, int slot, long value) {
+        if (_offHeap) {
+            (sequence ? _directSequences : _directTimestamps).put(slot, value);
+        } else {
+            (sequence ? _heapSequences : _heapTimestamps)[slot] = value;
+        }
+    }
+
+    private long getLong(boolean sequence, int slot) {
+        if (_offHeap) {
+            return (sequence ? _directSequences : _directTimestamps).get(slot);
+        }
+        return (sequence ? _heapSequences : _heapTimestamps)[slot];
+    }
+}
@@ -1,7 +1,11 @@
 package at.fhv.dgr1992.differentialWheels;
 
-import java.util.LinkedList;
+import java.util.Set;
 
 public interface SensorObserver {
-    void sensorValuesChanged(LinkedList<Sensor> sensors);
+    /**
+     * Called asynchronously after sensor values have been refreshed.
+     * @param sensors Unmodifiable set of the sensors that have changed
+     */
+    void sensorValuesChanged(Set<Sensor> sensors);
 }
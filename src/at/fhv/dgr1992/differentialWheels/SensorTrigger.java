@@ -0,0 +1,273 @@
+package at.fhv.dgr1992.differentialWheels;
+
+/**
+ * Condition on one value of a sensor channel, e.g. "front proximity dropped below 0.05". Registered on a robot with
+ * DifferentialWheels.registerSensorTrigger the condition is evaluated incrementally with every published sensor frame
+ * that refreshed the sensor, and the listener is only notified when the condition fires.
+ * <p>
+ * A trigger keeps the state of the evaluation, so it must only be registered once. Values that are NaN, e.g. of
+ * disabled sensors, are ignored.
+ */
+public abstract class SensorTrigger {
+
+    private final Object lockTrigger = new Object();
+    private final Sensor _sensor;
+    private final int _component;
+    private long _lastSequence = -1;
+
+    /**
+     * @param sensor    Sensor channel of the value
+     * @param component Index of the value in the channel, e.g. the sensor id or 0=x, 1=y, 2=z / theta
+     */
+    protected SensorTrigger(Sensor sensor, int component) {
+        if (component < 0) {
+            throw new IllegalArgumentException("Component must not be negative");
+        }
+        _sensor = sensor;
+        _component = component;
+    }
+
+    /**
+     * Fires every time the value has moved by at least the deadband since the last time it fired. The first value
+     * fires as well.
+     *
+     * @param sensor    Sensor channel of the value
+     * @param component Index of the value in the channel
+     * @param deadband  Minimum change of the value
+     * @return new trigger
+     */
+    public static SensorTrigger deadband(Sensor sensor, int component, double deadband) {
+        return new Deadband(sensor, component, deadband);
+    }
+
+    /**
+     * Fires when the value drops below the threshold. Fires again only after the value has risen above
+     * threshold + hysteresis.
+     *
+     * @param sensor     Sensor channel of the value
+     * @param component  Index of the value in the channel
+     * @param threshold  Threshold
+     * @param hysteresis Distance above the threshold the value has to reach to rearm the trigger
+     * @return new trigger
+     */
+    public static SensorTrigger below(Sensor sensor, int component, double threshold, double hysteresis) {
+        return new Threshold(sensor, component, threshold, hysteresis, true);
+    }
+
+    /**
+     * Fires when the value rises above the threshold. Fires again only after the value has dropped below
+     * threshold - hysteresis.
+     *
+     * @param sensor     Sensor channel of the value
+     * @param component  Index of the value in the channel
+     * @param threshold  Threshold
+     * @param hysteresis Distance below the threshold the value has to reach to rearm the trigger
+     * @return new trigger
+     */
+    public static SensorTrigger above(Sensor sensor, int component, double threshold, double hysteresis) {
+        return new Threshold(sensor, component, threshold, hysteresis, false);
+    }
+
+    /**
+     * Fires when the value changes faster than the rate between two frames. Fires again only after the rate has
+     * dropped below the limit.
+     *
+     * @param sensor          Sensor channel of the value
+     * @param component       Index of the value in the channel
+     * @param ratePerSecond   Absolute change of the value per second
+     * @return new trigger
+     */
+    public static SensorTrigger rateOfChange(Sensor sensor, int component, double ratePerSecond) {
+        return new RateOfChange(sensor, component, ratePerSecond);
+    }
+
+    /**
+     * @return Sensor channel of the value
+     */
+    public Sensor getSensor() {
+        return _sensor;
+    }
+
+    /**
+     * @return Index of the value in the channel
+     */
+    public int getComponent() {
+        return _component;
+    }
+
+    /**
+     * Evaluate the condition with the value of a frame. Frames that are older than the last evaluated frame are
+     * ignored.
+     *
+     * @param frame Frame that refreshed the sensor of this trigger
+     * @return the event if the condition fired, otherwise null
+     */
+    SensorEvent evaluate(SensorFrame frame) {
+        double value = valueOf(frame, _sensor, _component);
+        if (Double.isNaN(value)) {
+            return null;
+        }
+        synchronized (lockTrigger) {
+            if (frame.getSequence() <= _lastSequence) {
+                return null;
+            }
+            _lastSequence = frame.getSequence();
+            if (!update(value, frame.getTimestamp())) {
+                return null;
+            }
+        }
+        return new SensorEvent(this, frame, value);
+    }
+
+    /**
+     * Update the state of the condition with the next value. Called in order of the frames and never concurrently.
+     *
+     * @param value     Value of the frame
+     * @param timestamp Timestamp of the frame in ms
+     * @return true if the condition fired
+     */
+    protected abstract boolean update(double value, long timestamp);
+
+    /**
+     * Get a value of a frame
+     *
+     * @param frame     Frame
+     * @param sensor    Sensor channel of the value
+     * @param component Index of the value in the channel
+     * @return the value or NaN if the frame has no such value
+     */
+    public static double valueOf(SensorFrame frame, Sensor sensor, int component) {
+        switch (sensor) {
+            case Proximity:
+                return valueOf(frame.getProximitySensorValues(), component);
+            case Light:
+                return valueOf(frame.getLightSensorValues(), component);
+            case Ground:
+                return valueOf(frame.getGroundSensorValues(), component);
+            case Accelerometer:
+                Acceleration acceleration = frame.getAccelerometerValues();
+                if (acceleration == null || component > 2) {
+                    return Double.NaN;
+                }
+                return component == 0 ? acceleration.getX() : component == 1 ? acceleration.getY() : acceleration.getZ();
+            case WheelEncoding:
+                WheelEncode wheelEncode = frame.getWheelEncodingValues();
+                if (wheelEncode == null || component > 1) {
+                    return Double.NaN;
+                }
+                return component == 0 ? wheelEncode.getLeft() : wheelEncode.getRight();
+            case Pose:
+                Pose pose = frame.getPose();
+                if (pose == null || component > 2) {
+                    return Double.NaN;
+                }
+                return component == 0 ? pose.getX() : component == 1 ? pose.getY() : pose.getTheta();
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private static double valueOf(double[] values, int component) {
+        if (values == null || component >= values.length) {
+            return Double.NaN;
+        }
+        return values[component];
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + _sensor + "[" + _component + "])";
+    }
+
+    //region Conditions
+
+    private static final class Deadband extends SensorTrigger {
+        private final double _deadband;
+        private double _reported = Double.NaN;
+
+        private Deadband(Sensor sensor, int component, double deadband) {
+            super(sensor, component);
+            if (deadband < 0) {
+                throw new IllegalArgumentException("Deadband must not be negative");
+            }
+            _deadband = deadband;
+        }
+
+        @Override
+        protected boolean update(double value, long timestamp) {
+            if (!Double.isNaN(_reported) && Math.abs(value - _reported) < _deadband) {
+                return false;
+            }
+            _reported = value;
+            return true;
+        }
+    }
+
+    private static final class Threshold extends SensorTrigger {
+        private final double _threshold;
+        private final double _hysteresis;
+        private final boolean _below;
+        private boolean _armed = true;
+
+        private Threshold(Sensor sensor, int component, double threshold, double hysteresis, boolean below) {
+            super(sensor, component);
+            if (hysteresis < 0) {
+                throw new IllegalArgumentException("Hysteresis must not be negative");
+            }
+            _threshold = threshold;
+            _hysteresis = hysteresis;
+            _below = below;
+        }
+
+        @Override
+        protected boolean update(double value, long timestamp) {
+            boolean crossed = _below ? value < _threshold : value > _threshold;
+            if (_armed) {
+                if (crossed) {
+                    _armed = false;
+                    return true;
+                }
+            } else if (_below ? value > _threshold + _hysteresis : value < _threshold - _hysteresis) {
+                _armed = true;
+            }
+            return false;
+        }
+    }
+
+    private static final class RateOfChange extends SensorTrigger {
+        private final double _ratePerSecond;
+        private double _lastValue = Double.NaN;
+        private long _lastTimestamp;
+        private boolean _armed = true;
+
+        private RateOfChange(Sensor sensor, int component, double ratePerSecond) {
+            super(sensor, component);
+            if (ratePerSecond <= 0) {
+                throw new IllegalArgumentException("Rate must be positive");
+            }
+            _ratePerSecond = ratePerSecond;
+        }
+
+        @Override
+        protected boolean update(double value, long timestamp) {
+            double lastValue = _lastValue;
+            long dt = timestamp - _lastTimestamp;
+            _lastValue = value;
+            _lastTimestamp = timestamp;
+            if (Double.isNaN(lastValue) || dt <= 0) {
+                return false;
+            }
+
+            boolean exceeded = Math.abs(value - lastValue) * 1000.0 / dt >= _ratePerSecond;
+            if (exceeded && _armed) {
+                _armed = false;
+                return true;
+            }
+            if (!exceeded) {
+                _armed = true;
+            }
+            return false;
+        }
+    }
+    //endregion
+}
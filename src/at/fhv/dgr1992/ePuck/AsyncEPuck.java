@@ -0,0 +1,325 @@
+package at.fhv.dgr1992.ePuck;
+
+import at.fhv.dgr1992.differentialWheels.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Asynchronous facade of an EPuck. Every call returns immediately with a CompletableFuture, so a controller can e.g.
+ * request the next camera image while it is still analysing the current one.
+ * <p>
+ * The futures complete with the same values as the synchronous getters of the robot, or exceptionally with the
+ * exception the getter threw (SensorNotEnabledException, CameraNotEnabledException, RobotFunctionCallException, ...)
+ * or with a TimeoutException if a timeout was given. A timeout only completes the returned future, the call to the
+ * robot itself is not aborted.
+ * <p>
+ * By default the calls are executed on the worker executor of the refresh scheduler of the robot. The calls are
+ * blocking calls to the robot, so every pending call parks a worker thread until the robot has answered; see the thread
+ * budget of RefreshScheduler. A call that waits for a free worker has not reached the robot yet.
+ */
+public class AsyncEPuck {
+
+    /**
+     * A call to the robot
+     *
+     * @param <T> Type of the result
+     */
+    protected interface RobotCall<T> {
+        T call() throws Exception;
+    }
+
+    private final EPuck _ePuck;
+    private final Executor _executor;
+    private volatile long _defaultTimeout;
+
+    /**
+     * Constructs a new facade that executes the calls on the worker executor of the refresh scheduler of the robot.
+     *
+     * @param ePuck Robot the calls are made to
+     */
+    public AsyncEPuck(EPuck ePuck) {
+        this(ePuck, null);
+    }
+
+    /**
+     * Constructs a new facade.
+     *
+     * @param ePuck    Robot the calls are made to
+     * @param executor Executor the calls are executed on, null for the worker executor of the refresh scheduler of the robot
+     */
+    public AsyncEPuck(EPuck ePuck, Executor executor) {
+        _ePuck = ePuck;
+        _executor = executor;
+        _defaultTimeout = 0;
+    }
+
+    /**
+     * @return Robot the calls are made to
+     */
+    public EPuck getEPuck() {
+        return _ePuck;
+    }
+
+    /**
+     * Set the timeout that is applied to all calls without an explicit timeout.
+     *
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     */
+    public void setDefaultTimeout(long timeoutMs) {
+        if (timeoutMs < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        _defaultTimeout = timeoutMs;
+    }
+
+    /**
+     * @return timeout in ms that is applied to all calls without an explicit timeout, 0 for no timeout
+     */
+    public long getDefaultTimeout() {
+        return _defaultTimeout;
+    }
+
+    //region Sensors
+
+    public CompletableFuture<double[]> getProximitySensorValues() {
+        return getProximitySensorValues(_defaultTimeout);
+    }
+
+    /**
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @return Future of the proximity sensor values
+     */
+    public CompletableFuture<double[]> getProximitySensorValues(long timeoutMs) {
+        return withTimeout(submit(new RobotCall<double[]>() {
+            @Override
+            public double[] call() throws Exception {
+                return _ePuck.getProximitySensorValues();
+            }
+        }), timeoutMs);
+    }
+
+    public CompletableFuture<double[]> getLightSensorValues() {
+        return getLightSensorValues(_defaultTimeout);
+    }
+
+    /**
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @return Future of the light sensor values
+     */
+    public CompletableFuture<double[]> getLightSensorValues(long timeoutMs) {
+        return withTimeout(submit(new RobotCall<double[]>() {
+            @Override
+            public double[] call() throws Exception {
+                return _ePuck.getLightSensorValues();
+            }
+        }), timeoutMs);
+    }
+
+    public CompletableFuture<double[]> getGroundSensorValues() {
+        return getGroundSensorValues(_defaultTimeout);
+    }
+
+    /**
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @return Future of the ground sensor values
+     */
+    public CompletableFuture<double[]> getGroundSensorValues(long timeoutMs) {
+        return withTimeout(submit(new RobotCall<double[]>() {
+            @Override
+            public double[] call() throws Exception {
+                return _ePuck.getGroundSensorValues();
+            }
+        }), timeoutMs);
+    }
+
+    public CompletableFuture<Acceleration> getAccelerometerValues() {
+        return getAccelerometerValues(_defaultTimeout);
+    }
+
+    /**
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @return Future of the accelerometer values
+     */
+    public CompletableFuture<Acceleration> getAccelerometerValues(long timeoutMs) {
+        return withTimeout(submit(new RobotCall<Acceleration>() {
+            @Override
+            public Acceleration call() throws Exception {
+                return _ePuck.getAccelerometerValues();
+            }
+        }), timeoutMs);
+    }
+
+    public CompletableFuture<WheelEncode> getWheelEncodingValues() {
+        return getWheelEncodingValues(_defaultTimeout);
+    }
+
+    /**
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @return Future of the wheel encoding values
+     */
+    public CompletableFuture<WheelEncode> getWheelEncodingValues(long timeoutMs) {
+        return withTimeout(submit(new RobotCall<WheelEncode>() {
+            @Override
+            public WheelEncode call() throws Exception {
+                return _ePuck.getWheelEncodingValues();
+            }
+        }), timeoutMs);
+    }
+
+    public CompletableFuture<Pose> getPose() {
+        return getPose(_defaultTimeout);
+    }
+
+    /**
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @return Future of the pose
+     */
+    public CompletableFuture<Pose> getPose(long timeoutMs) {
+        return withTimeout(submit(new RobotCall<Pose>() {
+            @Override
+            public Pose call() throws Exception {
+                return _ePuck.getPose();
+            }
+        }), timeoutMs);
+    }
+
+    public CompletableFuture<SensorFrame> senseAllTogether() {
+        return senseAllTogether(_defaultTimeout);
+    }
+
+    /**
+     * Read all non-camera sensors in one call, see EPuck.senseAllTogether().
+     *
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @return Future of the sensor frame that contains the read values
+     */
+    public CompletableFuture<SensorFrame> senseAllTogether(long timeoutMs) {
+        return withTimeout(submit(new RobotCall<SensorFrame>() {
+            @Override
+            public SensorFrame call() throws Exception {
+                _ePuck.senseAllTogether();
+                return _ePuck.getSensorFrame();
+            }
+        }), timeoutMs);
+    }
+    //endregion
+
+    //region Camera
+
+    public CompletableFuture<CameraImage> getCameraImage() {
+        return getCameraImage(_defaultTimeout);
+    }
+
+    /**
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @return Future of the camera image
+     */
+    public CompletableFuture<CameraImage> getCameraImage(long timeoutMs) {
+        return withTimeout(submit(new RobotCall<CameraImage>() {
+            @Override
+            public CameraImage call() throws Exception {
+                return _ePuck.getCameraImage();
+            }
+        }), timeoutMs);
+    }
+    //endregion
+
+    //region Motors
+
+    public CompletableFuture<Speed> setMotorSpeeds(Speed speed) {
+        return setMotorSpeeds(speed, _defaultTimeout);
+    }
+
+    /**
+     * @param speed     Speed of the left and right motor
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @return Future that completes with the speed when it has been set
+     */
+    public CompletableFuture<Speed> setMotorSpeeds(final Speed speed, long timeoutMs) {
+        return withTimeout(submit(new RobotCall<Speed>() {
+            @Override
+            public Speed call() throws Exception {
+                _ePuck.setMotorSpeeds(speed);
+                return speed;
+            }
+        }), timeoutMs);
+    }
+    //endregion
+
+    /**
+     * Get a future that completes like the given future, or exceptionally with a TimeoutException if the given future
+     * has not completed within the timeout. Can be applied to any future, e.g. one composed of several calls.
+     *
+     * @param future    Future to wait for
+     * @param timeoutMs timeout in ms, 0 for no timeout
+     * @param <T>       Type of the result
+     * @return Future with timeout
+     */
+    public <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, final long timeoutMs) {
+        if (timeoutMs <= 0 || future.isDone()) {
+            return future;
+        }
+
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        ScheduledExecutorService timer = _ePuck._refreshScheduler.getExecutor();
+        final ScheduledFuture<?> timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                result.completeExceptionally(new TimeoutException("Call did not complete within " + timeoutMs + " ms"));
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable throwable) {
+                timeout.cancel(false);
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(value);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Execute the call asynchronously on the executor. The call blocks its thread until the robot has answered.
+     *
+     * @param call Call to execute
+     * @param <T>  Type of the result
+     * @return Future of the result
+     */
+    protected <T> CompletableFuture<T> submit(final RobotCall<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        Executor executor = _executor != null ? _executor : _ePuck._refreshScheduler.getWorkerExecutor();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                complete(future, call);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Execute the call on the current thread and complete the future with its result.
+     *
+     * @param future Future to complete
+     * @param call   Call to execute
+     * @param <T>    Type of the result
+     */
+    protected static <T> void complete(CompletableFuture<T> future, RobotCall<T> call) {
+        try {
+            future.complete(call.call());
+        } catch (Throwable ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+}
@@ -4,12 +4,10 @@ import at.fhv.dgr1992.differentialWheels.CameraImage;
 import at.fhv.dgr1992.exceptions.CameraNotEnabledException;
 import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
 
-import java.util.TimerTask;
-
 /**
  * This tasks refreshes the camera image.
  */
-public class CameraImageRefreshTask extends TimerTask {
+public class CameraImageRefreshTask implements Runnable {
 
     private EPuck _ePuck;
 
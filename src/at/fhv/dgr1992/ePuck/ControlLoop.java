@@ -0,0 +1,309 @@
+package at.fhv.dgr1992.ePuck;
+
+import at.fhv.dgr1992.differentialWheels.CameraImage;
+import at.fhv.dgr1992.differentialWheels.SensorFrame;
+import at.fhv.dgr1992.ePuck.metrics.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a behavior at a fixed rate. Every tick reads the sensors (and optionally the camera image) and passes them to
+ * the behavior. The ticks are scheduled relative to the start of the loop, so the time a tick takes doesn't shift the
+ * following ticks.
+ * <p>
+ * A tick that ends after the start of the next tick missed its deadline. The loop then skips the ticks that are
+ * already due instead of running them back to back, and sheds the next work of the shedding order, by default first
+ * the camera image and then the sensors. The sensors are only shed if the camera is read as well, otherwise they are
+ * the only input of the behavior. Once the ticks end with at least half of the period left again the shed work is
+ * restored one after the other.
+ * <p>
+ * Exceptions of a tick are printed and counted, the loop only stops after several consecutive failed ticks.
+ */
+public class ControlLoop {
+
+    /**
+     * Behavior that is executed every tick
+     */
+    public interface Behavior {
+        void tick(Tick tick) throws Exception;
+    }
+
+    /**
+     * Input of a tick. The same instance is passed to every tick, so it must not be kept.
+     */
+    public static final class Tick {
+        private long _index;
+        private long _scheduledTime;
+        private SensorFrame _sensorFrame;
+        private CameraImage _cameraImage;
+        private int _shedMask;
+
+        /**
+         * @return Number of the tick, skipped ticks are counted as well
+         */
+        public long getIndex() {
+            return _index;
+        }
+
+        /**
+         * @return Time in ns (System.nanoTime) the tick was scheduled for
+         */
+        public long getScheduledTime() {
+            return _scheduledTime;
+        }
+
+        /**
+         * @return Sensor values of the tick, the values of a previous tick if the sensors were shed
+         */
+        public SensorFrame getSensorFrame() {
+            return _sensorFrame;
+        }
+
+        /**
+         * @return Camera image of the tick, null if the camera is not read or was shed
+         */
+        public CameraImage getCameraImage() {
+            return _cameraImage;
+        }
+
+        /**
+         * @param work Work of the tick
+         * @return true if the work was skipped in this tick
+         */
+        public boolean isShed(SheddableWork work) {
+            return (_shedMask & (1 << work.ordinal())) != 0;
+        }
+    }
+
+    /**
+     * Number of ticks with at least half of the period left before one shed work is restored
+     */
+    private static final int RECOVERY_TICKS = 10;
+
+    private final EPuck _ePuck;
+    private final Behavior _behavior;
+    private final long _period;
+    private final LatencyHistogram _jitter;
+    private final Tick _tick;
+    private volatile SheddableWork[] _sheddingOrder;
+    private volatile boolean _readCamera;
+    private volatile int _maxConsecutiveErrors;
+    private volatile boolean _running;
+    private volatile int _shedLevel;
+    private volatile long _tickCount;
+    private volatile long _deadlineMissCount;
+    private volatile long _skippedTickCount;
+    private volatile long _errorCount;
+
+    /**
+     * Constructs a new loop
+     *
+     * @param ePuck     Robot the sensors are read from
+     * @param frequency Target frequency in Hz
+     * @param behavior  Behavior that is executed every tick
+     */
+    public ControlLoop(EPuck ePuck, double frequency, Behavior behavior) {
+        if (frequency <= 0) {
+            throw new IllegalArgumentException("Frequency must be positive");
+        }
+        _ePuck = ePuck;
+        _behavior = behavior;
+        _period = (long) (TimeUnit.SECONDS.toNanos(1) / frequency);
+        _jitter = new LatencyHistogram();
+        _tick = new Tick();
+        _sheddingOrder = new SheddableWork[]{SheddableWork.Camera, SheddableWork.Sensors};
+        _maxConsecutiveErrors = 3;
+    }
+
+    /**
+     * Set the order in which work is shed when the loop is overloaded. Work that is not in the order is never shed, the
+     * sensors are never shed if the camera is not read.
+     *
+     * @param order Work in the order it is shed
+     */
+    public void setSheddingOrder(SheddableWork... order) {
+        _sheddingOrder = order.clone();
+        _shedLevel = Math.min(_shedLevel, order.length);
+    }
+
+    /**
+     * @param readCamera true to read the camera image every tick, the camera has to be enabled
+     */
+    public void setReadCamera(boolean readCamera) {
+        _readCamera = readCamera;
+    }
+
+    /**
+     * @param maxConsecutiveErrors Number of consecutive failed ticks after which the loop stops
+     */
+    public void setMaxConsecutiveErrors(int maxConsecutiveErrors) {
+        if (maxConsecutiveErrors <= 0) {
+            throw new IllegalArgumentException("Max consecutive errors must be positive");
+        }
+        _maxConsecutiveErrors = maxConsecutiveErrors;
+    }
+
+    /**
+     * Run the loop on the calling thread until stop() is called or the robot is disconnected.
+     *
+     * @throws Exception the exception of the last tick if the loop stopped because of consecutive failed ticks
+     */
+    public void run() throws Exception {
+        _running = true;
+        long start = System.nanoTime();
+        long index = 0;
+        int consecutiveErrors = 0;
+        int recoveryTicks = 0;
+
+        while (_running && _ePuck.isConnected()) {
+            long scheduled = start + index * _period;
+            if (!waitUntil(scheduled)) {
+                break;
+            }
+            _jitter.record(System.nanoTime() - scheduled);
+
+            try {
+                runTick(index, scheduled);
+                consecutiveErrors = 0;
+            } catch (Exception e) {
+                e.printStackTrace();
+                _errorCount++;
+                if (++consecutiveErrors >= _maxConsecutiveErrors) {
+                    _running = false;
+                    throw e;
+                }
+            }
+            _tickCount++;
+
+            long end = System.nanoTime();
+            long deadline = scheduled + _period;
+            if (end > deadline) {
+                //Continue with the next tick that is not due yet
+                _deadlineMissCount++;
+                long next = (end - start) / _period + 1;
+                _skippedTickCount += next - index - 1;
+                index = next;
+                recoveryTicks = 0;
+                if (_shedLevel < _sheddingOrder.length) {
+                    _shedLevel++;
+                }
+            } else {
+                index++;
+                if (deadline - end >= _period / 2 && _shedLevel > 0) {
+                    if (++recoveryTicks >= RECOVERY_TICKS) {
+                        _shedLevel--;
+                        recoveryTicks = 0;
+                    }
+                } else {
+                    recoveryTicks = 0;
+                }
+            }
+        }
+        _running = false;
+    }
+
+    /**
+     * Stop the loop after the current tick.
+     */
+    public void stop() {
+        _running = false;
+    }
+
+    public boolean isRunning() {
+        return _running;
+    }
+
+    /**
+     * @return Target period in ns
+     */
+    public long getPeriod() {
+        return _period;
+    }
+
+    /**
+     * @return Number of executed ticks
+     */
+    public long getTickCount() {
+        return _tickCount;
+    }
+
+    /**
+     * @return Number of ticks that ended after the start of the next tick
+     */
+    public long getDeadlineMissCount() {
+        return _deadlineMissCount;
+    }
+
+    /**
+     * @return Number of ticks that were skipped because the loop was behind
+     */
+    public long getSkippedTickCount() {
+        return _skippedTickCount;
+    }
+
+    /**
+     * @return Number of ticks that threw an exception
+     */
+    public long getErrorCount() {
+        return _errorCount;
+    }
+
+    /**
+     * @return Number of works of the shedding order that are currently shed
+     */
+    public int getShedLevel() {
+        return _shedLevel;
+    }
+
+    /**
+     * Get the histogram of how late the ticks started in relation to their scheduled time.
+     *
+     * @return Jitter in ns
+     */
+    public LatencyHistogram getJitterHistogram() {
+        return _jitter;
+    }
+
+    private void runTick(long index, long scheduled) throws Exception {
+        int shedMask = 0;
+        SheddableWork[] order = _sheddingOrder;
+        for (int i = 0; i < _shedLevel && i < order.length; i++) {
+            shedMask |= 1 << order[i].ordinal();
+        }
+        if (!_readCamera) {
+            //Without the camera the sensors are the only input of the behavior
+            shedMask &= ~(1 << SheddableWork.Sensors.ordinal());
+        }
+
+        Tick tick = _tick;
+        tick._index = index;
+        tick._scheduledTime = scheduled;
+        tick._shedMask = shedMask;
+        tick._cameraImage = null;
+        if (_readCamera && !tick.isShed(SheddableWork.Camera)) {
+            tick._cameraImage = _ePuck.getCameraImage();
+        }
+        if (!tick.isShed(SheddableWork.Sensors)) {
+            _ePuck.senseAllTogether();
+        }
+        tick._sensorFrame = _ePuck.getSensorFrame();
+        if (!tick.isShed(SheddableWork.Behavior)) {
+            _behavior.tick(tick);
+        }
+    }
+
+    /**
+     * @return false if interrupted
+     */
+    private boolean waitUntil(long time) {
+        long remaining;
+        while ((remaining = time - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -4,9 +4,10 @@ import at.fhv.dgr1992.differentialWheels.*;
 import at.fhv.dgr1992.exceptions.CameraNotEnabledException;
 import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
 import at.fhv.dgr1992.exceptions.SensorNotEnabledException;
+import at.fhv.dgr1992.exceptions.VelocityLimitException;
+
+import java.util.concurrent.atomic.AtomicLong;
 
-import java.util.LinkedList;
-import java.util.Timer;
 
 /**
  * Abstract representation of the robot e-Puck
@@ -24,11 +25,29 @@ public abstract class EPuck extends DifferentialWheels {
      */
     protected long _sensorCycleTime;
     protected boolean _senseAllTogetherEnabled;
-    protected Timer _cameraImageRefreshTimer;
-    protected Timer _sensorValueRefreshTimer;
+    protected RefreshScheduler _refreshScheduler;
+    protected RefreshScheduler.ScheduledRefresh _cameraImageRefresh;
+    protected RefreshScheduler.ScheduledRefresh _sensorValueRefresh;
     protected int _imageWidth;
     protected int _imageHeight;
-    protected CameraImage _cameraImage;
+    protected volatile CameraImage _cameraImage;
+    /**
+     * time in ms
+     */
+    protected volatile long _sensorValueTtl;
+    /**
+     * time in ms
+     */
+    protected volatile long _cameraImageTtl;
+    private final SingleFlight<double[]> _proximityFlight = new SingleFlight<double[]>();
+    private final SingleFlight<double[]> _lightFlight = new SingleFlight<double[]>();
+    private final SingleFlight<double[]> _groundFlight = new SingleFlight<double[]>();
+    private final SingleFlight<Acceleration> _accelerometerFlight = new SingleFlight<Acceleration>();
+    private final SingleFlight<WheelEncode> _wheelEncodingFlight = new SingleFlight<WheelEncode>();
+    private final SingleFlight<Pose> _poseFlight = new SingleFlight<Pose>();
+    private final SingleFlight<CameraImage> _cameraImageFlight = new SingleFlight<CameraImage>();
+    private final AtomicLong _cameraImageCount = new AtomicLong();
+    private AsyncEPuck _asyncApi;
 
     public EPuck(String robotName, double maxVel, int imageWidth, int imageHeight) {
         //Values set are the values from the robot
@@ -38,11 +57,12 @@ public abstract class EPuck extends DifferentialWheels {
         _hasOwnSensingThread = false;
         _senseAllTogetherEnabled = false;
 
-        _cameraImageRefreshTimer = new Timer();
-        _sensorValueRefreshTimer = new Timer();
-
         _cameraCycleTime = 500;
         _sensorCycleTime = 90;
+        _sensorValueTtl = 0;
+        _cameraImageTtl = 0;
+
+        setRefreshScheduler(RefreshScheduler.getSharedScheduler());
 
         _imageWidth = imageWidth;
         _imageHeight = imageHeight;
@@ -63,29 +83,119 @@ public abstract class EPuck extends DifferentialWheels {
 
     protected abstract CameraImage refreshCameraImage() throws CameraNotEnabledException, RobotFunctionCallException;
 
-    protected abstract boolean senseAllTogether() throws RobotFunctionCallException;
+    public abstract boolean senseAllTogether() throws RobotFunctionCallException;
+
+    /**
+     * Get how many camera images were read since the robot was created.
+     *
+     * @return number of camera images
+     */
+    public long getCameraImageCount() {
+        return _cameraImageCount.get();
+    }
 
     public void setSenseAllTogether() {
         _senseAllTogetherEnabled = true;
     }
 
     protected void setCameraImage(CameraImage image){
-        synchronized (_cameraImage){
-            _cameraImage = image;
+        _cameraImage = image;
+        _cameraImageCount.incrementAndGet();
+        notifyCameraImageObservers(image);
+    }
+
+    /**
+     * Set the scheduler that runs the sensor and camera refresh. Running refreshes are stopped and restarted on the
+     * new scheduler.
+     *
+     * @param refreshScheduler Scheduler, e.g. one that is shared by many robots
+     */
+    public synchronized void setRefreshScheduler(RefreshScheduler refreshScheduler) {
+        boolean cameraRunning = _hasOwnCameraThread;
+        boolean sensingRunning = _hasOwnSensingThread;
+        RefreshPolicy cameraPolicy = _cameraImageRefresh != null ? _cameraImageRefresh.getPolicy() : RefreshPolicy.FixedRate;
+        RefreshPolicy sensorPolicy = _sensorValueRefresh != null ? _sensorValueRefresh.getPolicy() : RefreshPolicy.FixedRate;
+        stopImageThread();
+        stopSensingThread();
+
+        _refreshScheduler = refreshScheduler;
+        _cameraImageRefresh = _refreshScheduler.create(new CameraImageRefreshTask(this), _cameraCycleTime, cameraPolicy);
+        _sensorValueRefresh = _refreshScheduler.create(new SensorValueRefreshTask(this), _sensorCycleTime, sensorPolicy);
+
+        if (cameraRunning) {
+            createImageThread();
         }
+        if (sensingRunning) {
+            createSensingThread();
+        }
+    }
+
+    /**
+     * Set the period of the camera image refresh. Takes effect with the next refresh.
+     *
+     * @param cameraCycleTime time in ms
+     */
+    public synchronized void setCameraCycleTime(long cameraCycleTime) {
+        _cameraImageRefresh.setPeriod(cameraCycleTime);
+        _cameraCycleTime = cameraCycleTime;
     }
 
-    public void createImageThread() {
+    public long getCameraCycleTime() {
+        return _cameraCycleTime;
+    }
+
+    /**
+     * Set the period of the sensor value refresh. Takes effect with the next refresh.
+     *
+     * @param sensorCycleTime time in ms
+     */
+    public synchronized void setSensorCycleTime(long sensorCycleTime) {
+        _sensorValueRefresh.setPeriod(sensorCycleTime);
+        _sensorCycleTime = sensorCycleTime;
+    }
+
+    public long getSensorCycleTime() {
+        return _sensorCycleTime;
+    }
+
+    /**
+     * Set if the refreshes run with a fixed rate or with a fixed delay between the runs.
+     *
+     * @param policy policy of the sensor and camera refresh
+     */
+    public synchronized void setRefreshPolicy(RefreshPolicy policy) {
+        _cameraImageRefresh.setPolicy(policy);
+        _sensorValueRefresh.setPolicy(policy);
+    }
+
+    /**
+     * Get the handle of the camera image refresh, e.g. to read the overrun count.
+     *
+     * @return Camera image refresh
+     */
+    public RefreshScheduler.ScheduledRefresh getCameraImageRefresh() {
+        return _cameraImageRefresh;
+    }
+
+    /**
+     * Get the handle of the sensor value refresh, e.g. to read the overrun count.
+     *
+     * @return Sensor value refresh
+     */
+    public RefreshScheduler.ScheduledRefresh getSensorValueRefresh() {
+        return _sensorValueRefresh;
+    }
+
+    public synchronized void createImageThread() {
         if (!_hasOwnCameraThread) {
-            _cameraImageRefreshTimer.schedule(new CameraImageRefreshTask(this), 0, _cameraCycleTime);
+            _cameraImageRefresh.start();
             _hasOwnCameraThread = true;
         }
     }
 
-    public void stopImageThread() {
+    public synchronized void stopImageThread() {
         if (_hasOwnCameraThread) {
-            _cameraImageRefreshTimer.cancel();
-            _cameraImageRefreshTimer.purge();
+            _cameraImageRefresh.stop();
             _hasOwnCameraThread = false;
         }
     }
@@ -107,14 +217,18 @@ public abstract class EPuck extends DifferentialWheels {
     }
 
     private void refreshSensorValuesIndividual() {
-        LinkedList<Sensor> updatedSensors = new LinkedList<Sensor>();
+        int updatedSensors = 0;
+        double[] proximitySensorValues = null;
+        double[] lightSensorValues = null;
+        double[] groundSensorValues = null;
+        Acceleration accelerometerValues = null;
+        WheelEncode wheelEncodeValues = null;
+        Pose pose = null;
 
         if (_proximitySensorEnabled) {
             try {
-                synchronized (_proximitySensorValues) {
-                    _proximitySensorValues = refreshProximitySensorValues();
-                }
-                updatedSensors.add(Sensor.Proximity);
+                proximitySensorValues = refreshProximitySensorValues();
+                updatedSensors |= Sensor.Proximity.getMask();
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -122,10 +236,8 @@ public abstract class EPuck extends DifferentialWheels {
 
         if (_lightSensorsEnabled) {
             try {
-                synchronized (_lightSensorValues) {
-                    _lightSensorValues = refreshLightSensorValues();
-                }
-                updatedSensors.add(Sensor.Light);
+                lightSensorValues = refreshLightSensorValues();
+                updatedSensors |= Sensor.Light.getMask();
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -133,10 +245,8 @@ public abstract class EPuck extends DifferentialWheels {
 
         if (_groundSensorsEnabled) {
             try {
-                synchronized (_groundSensorValues) {
-                    _groundSensorValues = refreshGroundSensorValues();
-                }
-                updatedSensors.add(Sensor.Ground);
+                groundSensorValues = refreshGroundSensorValues();
+                updatedSensors |= Sensor.Ground.getMask();
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -144,10 +254,8 @@ public abstract class EPuck extends DifferentialWheels {
 
         if (_accelerometerEnabled) {
             try {
-                synchronized (_accelerometerValues) {
-                    _accelerometerValues = refreshAccelerometerValues();
-                }
-                updatedSensors.add(Sensor.Accelerometer);
+                accelerometerValues = refreshAccelerometerValues();
+                updatedSensors |= Sensor.Accelerometer.getMask();
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -155,10 +263,8 @@ public abstract class EPuck extends DifferentialWheels {
 
         if (_wheelEncodingEnabled) {
             try {
-                synchronized (_wheelEncodeValues) {
-                    _wheelEncodeValues = refreshWheelEncodingValues();
-                }
-                updatedSensors.add(Sensor.WheelEncoding);
+                wheelEncodeValues = refreshWheelEncodingValues();
+                updatedSensors |= Sensor.WheelEncoding.getMask();
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -166,102 +272,245 @@ public abstract class EPuck extends DifferentialWheels {
 
         if (_poseEnabled) {
             try {
-                synchronized (_pose) {
-                    _pose = refreshPose();
-                }
-                updatedSensors.add(Sensor.Pose);
+                pose = refreshPose();
+                updatedSensors |= Sensor.Pose.getMask();
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
         }
 
-        if (updatedSensors.size() > 0) {
+        if (updatedSensors != 0) {
+            //Publish all values of this cycle as one frame
+            publishSensorFrame(proximitySensorValues, lightSensorValues, groundSensorValues, accelerometerValues, wheelEncodeValues, pose);
             notifySensorObservers(updatedSensors);
         }
     }
 
-    public void createSensingThread() {
+    public synchronized void createSensingThread() {
         if (!_hasOwnSensingThread) {
-            _sensorValueRefreshTimer.schedule(new SensorValueRefreshTask(this), 0, _sensorCycleTime);
+            _sensorValueRefresh.start();
             _hasOwnSensingThread = true;
         }
     }
 
-    public void stopSensingThread() {
-        _sensorValueRefreshTimer.cancel();
-        _sensorValueRefreshTimer.purge();
-        _hasOwnSensingThread = false;
+    public synchronized void stopSensingThread() {
+        if (_hasOwnSensingThread) {
+            _sensorValueRefresh.stop();
+            _hasOwnSensingThread = false;
+        }
     }
 
 
     @Override
     public double[] getProximitySensorValues() throws RobotFunctionCallException, SensorNotEnabledException {
-        synchronized (_proximitySensorValues) {
-            if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
-                _proximitySensorValues = refreshProximitySensorValues();
-            }
-
-            return _proximitySensorValues;
+        if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
+            return _proximityFlight.get(_sensorValueTtl, new SingleFlight.Loader<double[], SensorNotEnabledException>() {
+                @Override
+                public double[] load() throws SensorNotEnabledException, RobotFunctionCallException {
+                    return publishSensorFrame(refreshProximitySensorValues(), null, null, null, null, null).getProximitySensorValues();
+                }
+            }, SensorNotEnabledException.class, canWaitForSharedLoad());
         }
+        return _proximitySensorValues;
     }
 
     @Override
     public double[] getLightSensorValues() throws RobotFunctionCallException, SensorNotEnabledException {
-        synchronized (_lightSensorValues) {
-            if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
-                _lightSensorValues = refreshLightSensorValues();
-            }
-            return _lightSensorValues;
+        if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
+            return _lightFlight.get(_sensorValueTtl, new SingleFlight.Loader<double[], SensorNotEnabledException>() {
+                @Override
+                public double[] load() throws SensorNotEnabledException, RobotFunctionCallException {
+                    return publishSensorFrame(null, refreshLightSensorValues(), null, null, null, null).getLightSensorValues();
+                }
+            }, SensorNotEnabledException.class, canWaitForSharedLoad());
         }
+        return _lightSensorValues;
     }
 
     @Override
     public double[] getGroundSensorValues() throws RobotFunctionCallException, SensorNotEnabledException {
-        synchronized (_groundSensorValues) {
-            if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
-                _groundSensorValues = refreshGroundSensorValues();
-            }
-            return _groundSensorValues;
+        if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
+            return _groundFlight.get(_sensorValueTtl, new SingleFlight.Loader<double[], SensorNotEnabledException>() {
+                @Override
+                public double[] load() throws SensorNotEnabledException, RobotFunctionCallException {
+                    return publishSensorFrame(null, null, refreshGroundSensorValues(), null, null, null).getGroundSensorValues();
+                }
+            }, SensorNotEnabledException.class, canWaitForSharedLoad());
         }
+        return _groundSensorValues;
     }
 
     @Override
     public Acceleration getAccelerometerValues() throws RobotFunctionCallException, SensorNotEnabledException {
-        synchronized (_accelerometerValues) {
-            if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
-                _accelerometerValues = refreshAccelerometerValues();
-            }
-            return _accelerometerValues;
+        if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
+            return _accelerometerFlight.get(_sensorValueTtl, new SingleFlight.Loader<Acceleration, SensorNotEnabledException>() {
+                @Override
+                public Acceleration load() throws SensorNotEnabledException, RobotFunctionCallException {
+                    return publishSensorFrame(null, null, null, refreshAccelerometerValues(), null, null).getAccelerometerValues();
+                }
+            }, SensorNotEnabledException.class, canWaitForSharedLoad());
         }
+        return _accelerometerValues;
     }
 
     @Override
     public WheelEncode getWheelEncodingValues() throws RobotFunctionCallException, SensorNotEnabledException {
-        synchronized (_wheelEncodeValues) {
-            if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
-                _wheelEncodeValues = refreshWheelEncodingValues();
-            }
-            return _wheelEncodeValues;
+        if (!_hasOwnSensingThread && !_senseAllTogetherEnabled) {
+            return _wheelEncodingFlight.get(_sensorValueTtl, new SingleFlight.Loader<WheelEncode, SensorNotEnabledException>() {
+                @Override
+                public WheelEncode load() throws SensorNotEnabledException, RobotFunctionCallException {
+                    return publishSensorFrame(null, null, null, null, refreshWheelEncodingValues(), null).getWheelEncodingValues();
+                }
+            }, SensorNotEnabledException.class, canWaitForSharedLoad());
         }
+        return _wheelEncodeValues;
     }
 
     @Override
     public Pose getPose() throws RobotFunctionCallException, SensorNotEnabledException {
-        synchronized (_pose) {
-            if ((_hasOwnSensingThread && _senseAllTogetherEnabled) || !_hasOwnSensingThread) {
-                _pose = refreshPose();
-            }
-            return _pose;
+        if ((_hasOwnSensingThread && _senseAllTogetherEnabled) || !_hasOwnSensingThread) {
+            return _poseFlight.get(_sensorValueTtl, new SingleFlight.Loader<Pose, SensorNotEnabledException>() {
+                @Override
+                public Pose load() throws SensorNotEnabledException, RobotFunctionCallException {
+                    return publishSensorFrame(null, null, null, null, null, refreshPose()).getPose();
+                }
+            }, SensorNotEnabledException.class, canWaitForSharedLoad());
         }
+        return _pose;
     }
 
     @Override
     public CameraImage getCameraImage() throws CameraNotEnabledException, RobotFunctionCallException {
-        synchronized (_cameraImage) {
-            if (!_hasOwnCameraThread) {
-                _cameraImage = refreshCameraImage();
-            }
-            return _cameraImage;
+        if (!_hasOwnCameraThread) {
+            return _cameraImageFlight.get(_cameraImageTtl, new SingleFlight.Loader<CameraImage, CameraNotEnabledException>() {
+                @Override
+                public CameraImage load() throws CameraNotEnabledException, RobotFunctionCallException {
+                    CameraImage image = refreshCameraImage();
+                    setCameraImage(image);
+                    return image;
+                }
+            }, CameraNotEnabledException.class, canWaitForSharedLoad());
+        }
+        return _cameraImage;
+    }
+
+    /**
+     * Check whether the calling thread may wait for a load of a sensor value or camera image another thread is doing.
+     * A thread that the load of the other thread depends on, e.g. the thread that executes the remote calls, loads
+     * the value itself instead.
+     *
+     * @return true if the calling thread may wait for the load of another thread
+     */
+    protected boolean canWaitForSharedLoad() {
+        return true;
+    }
+
+    /**
+     * Execute one control tick: set the motor speeds, read all sensors together and optionally the camera image.
+     * Subclasses can override this to execute the tick with fewer round trips.
+     *
+     * @param speed      Speed of the left and right motor, null to keep the current speeds
+     * @param readCamera true to read the camera image as well
+     * @return Sensor values and camera image of the tick
+     * @throws RobotFunctionCallException
+     * @throws CameraNotEnabledException
+     * @throws VelocityLimitException
+     */
+    public TickResult tick(Speed speed, boolean readCamera) throws RobotFunctionCallException, CameraNotEnabledException, VelocityLimitException {
+        if (readCamera && !_cameraEnabled) {
+            throw new CameraNotEnabledException("Camera is not enabled");
+        }
+        if (speed != null) {
+            setMotorSpeeds(speed);
+        }
+        senseAllTogether();
+        CameraImage image = null;
+        if (readCamera) {
+            image = refreshCameraImage();
+            setCameraImage(image);
+        }
+        return new TickResult(getSensorFrame(), image);
+    }
+
+    /**
+     * Get the asynchronous facade of this robot.
+     *
+     * @return Asynchronous facade of the robot
+     */
+    public synchronized AsyncEPuck getAsyncApi() {
+        if (_asyncApi == null) {
+            _asyncApi = new AsyncEPuck(this);
+        }
+        return _asyncApi;
+    }
+
+    //region Request coalescing
+
+    /**
+     * Set how long a sensor value that was requested by a getter is served to following getter calls without a new
+     * request. Concurrent getter calls always share one request. Has no effect while the sensing thread runs.
+     *
+     * @param sensorValueTtl time in ms, 0 to request a new value with every call
+     */
+    public void setSensorValueTtl(long sensorValueTtl) {
+        if (sensorValueTtl < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative");
+        }
+        _sensorValueTtl = sensorValueTtl;
+    }
+
+    /**
+     * @return time in ms a requested sensor value is served from the cache
+     */
+    public long getSensorValueTtl() {
+        return _sensorValueTtl;
+    }
+
+    /**
+     * Set how long a camera image that was requested by getCameraImage is served to following calls without a new
+     * request. Concurrent calls always share one request. Has no effect while the camera thread runs.
+     *
+     * @param cameraImageTtl time in ms, 0 to request a new image with every call
+     */
+    public void setCameraImageTtl(long cameraImageTtl) {
+        if (cameraImageTtl < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative");
         }
+        _cameraImageTtl = cameraImageTtl;
+    }
+
+    /**
+     * @return time in ms a requested camera image is served from the cache
+     */
+    public long getCameraImageTtl() {
+        return _cameraImageTtl;
+    }
+
+    /**
+     * @return Single flight of the proximity sensor values, e.g. to read its counters
+     */
+    public SingleFlight<double[]> getProximityFlight() {
+        return _proximityFlight;
+    }
+
+    /**
+     * @return Single flight of the camera image, e.g. to read its counters
+     */
+    public SingleFlight<CameraImage> getCameraImageFlight() {
+        return _cameraImageFlight;
+    }
+
+    /**
+     * Forget all cached sensor values and camera images, the next getter calls request new values.
+     */
+    public void invalidateCachedValues() {
+        _proximityFlight.invalidate();
+        _lightFlight.invalidate();
+        _groundFlight.invalidate();
+        _accelerometerFlight.invalidate();
+        _wheelEncodingFlight.invalidate();
+        _poseFlight.invalidate();
+        _cameraImageFlight.invalidate();
     }
+    //endregion
 }
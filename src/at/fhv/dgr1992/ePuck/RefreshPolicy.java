@@ -0,0 +1,15 @@
+package at.fhv.dgr1992.ePuck;
+
+/**
+ * How the next run of a periodic refresh is scheduled
+ */
+public enum RefreshPolicy {
+    /**
+     * The runs start every period. If a run takes longer than the period the missed runs are skipped and counted as overrun.
+     */
+    FixedRate,
+    /**
+     * The next run starts one period after the previous run has finished.
+     */
+    FixedDelay
+}
@@ -0,0 +1,356 @@
+package at.fhv.dgr1992.ePuck;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the periodic refresh tasks of robots. One scheduler can be shared by many robots, so a fleet of robots does not
+ * need its own timer threads per robot.
+ * <p>
+ * The refresh tasks block on remote round trips, so the ScheduledExecutorService only times the runs and hands each
+ * run to a worker executor. The worker executor is also used by MotorCommandChannel and AsyncEPuck.
+ * <p>
+ * Thread budget: a worker thread is occupied for the whole round trip of each blocking task. Per robot these are at
+ * most one thread per running refresh (camera image, sensor values, metrics sampling), one while its motor command
+ * channel is sending and one per pending AsyncEPuck call. By default the workers are a fixed pool of
+ * DEFAULT_NUM_WORKERS daemon threads that end when idle; further tasks wait in the queue, so with many robots a slow
+ * round trip can delay the refresh of another robot. Give the scheduler a larger pool, or a scheduler per group of
+ * robots, if that is not acceptable. Tasks on the workers must not wait for other worker tasks, e.g. by calling get()
+ * on an AsyncEPuck future, otherwise a full pool deadlocks.
+ */
+public class RefreshScheduler {
+
+    /**
+     * Number of worker threads of the default worker pool
+     */
+    public static final int DEFAULT_NUM_WORKERS = 16;
+
+    private static RefreshScheduler _sharedScheduler;
+
+    private ScheduledExecutorService _executor;
+    private ExecutorService _workers;
+
+    /**
+     * Constructs a new scheduler that times the runs on the given executor and executes them on the given workers.
+     *
+     * @param executor Executor that times the runs. The scheduler does not shut it down.
+     * @param workers  Executor that executes the blocking runs. The scheduler does not shut it down.
+     */
+    public RefreshScheduler(ScheduledExecutorService executor, ExecutorService workers) {
+        _executor = executor;
+        _workers = workers;
+    }
+
+    /**
+     * Constructs a new scheduler that times the runs on the given executor and executes them on its own pool of
+     * DEFAULT_NUM_WORKERS daemon threads.
+     *
+     * @param executor Executor that times the runs. The scheduler does not shut it down.
+     */
+    public RefreshScheduler(ScheduledExecutorService executor) {
+        this(executor, createWorkers(DEFAULT_NUM_WORKERS));
+    }
+
+    /**
+     * Constructs a new scheduler with its own timer threads and its own pool of DEFAULT_NUM_WORKERS worker threads, all
+     * daemon threads.
+     *
+     * @param numThreads Number of threads that time the runs
+     */
+    public RefreshScheduler(int numThreads) {
+        this(numThreads, DEFAULT_NUM_WORKERS);
+    }
+
+    /**
+     * Constructs a new scheduler with its own timer threads and its own pool of worker threads, all daemon threads.
+     *
+     * @param numThreads Number of threads that time the runs
+     * @param numWorkers Maximum number of threads that execute the blocking runs
+     */
+    public RefreshScheduler(int numThreads, int numWorkers) {
+        this(Executors.newScheduledThreadPool(numThreads, new DaemonThreadFactory("refresh-")), createWorkers(numWorkers));
+    }
+
+    /**
+     * Get the scheduler that is shared by all robots unless they are given their own. It uses one timer thread and a
+     * pool of DEFAULT_NUM_WORKERS worker threads.
+     *
+     * @return Shared scheduler
+     */
+    public static synchronized RefreshScheduler getSharedScheduler() {
+        if (_sharedScheduler == null) {
+            _sharedScheduler = new RefreshScheduler(1);
+        }
+        return _sharedScheduler;
+    }
+
+    /**
+     * Create a new periodic refresh of the given task. The refresh is not started.
+     *
+     * @param task     Task that is run periodically
+     * @param periodMs Period in ms
+     * @param policy   Fixed rate or fixed delay
+     * @return Handle to start, stop and adjust the refresh
+     */
+    public ScheduledRefresh create(Runnable task, long periodMs, RefreshPolicy policy) {
+        return new ScheduledRefresh(_executor, _workers, task, periodMs, policy);
+    }
+
+    /**
+     * Get the executor that times the runs. Only short non-blocking tasks, e.g. timeouts, may be run on it.
+     *
+     * @return Timer executor of the scheduler
+     */
+    public ScheduledExecutorService getExecutor() {
+        return _executor;
+    }
+
+    /**
+     * Get the executor for blocking work, e.g. calls to the robot
+     *
+     * @return Worker executor of the scheduler
+     */
+    public ExecutorService getWorkerExecutor() {
+        return _workers;
+    }
+
+    /**
+     * Create a pool of at most numWorkers daemon threads. Idle threads end after a minute, tasks that find all threads
+     * busy are queued.
+     */
+    private static ExecutorService createWorkers(int numWorkers) {
+        if (numWorkers <= 0) {
+            throw new IllegalArgumentException("Number of workers must be larger than 0");
+        }
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(numWorkers, numWorkers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("refresh-worker-"));
+        workers.allowCoreThreadTimeOut(true);
+        return workers;
+    }
+
+    /**
+     * Creates daemon threads, the refresh threads must not keep the JVM alive.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private static final AtomicInteger _poolNumber = new AtomicInteger(1);
+        private final String _prefix;
+        private final int _pool = _poolNumber.getAndIncrement();
+        private final AtomicInteger _threadNumber = new AtomicInteger(1);
+
+        private DaemonThreadFactory(String prefix) {
+            _prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, _prefix + _pool + "-" + _threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * A periodic refresh of one task. It can be stopped and started again and the period and policy can be changed
+     * while it is running; the change takes effect with the next run. Runs never overlap: a refresh that is started
+     * again while a run of the previous start is still executing begins when that run has finished.
+     */
+    public static class ScheduledRefresh {
+        private final Object lockRefresh = new Object();
+        private final ScheduledExecutorService _executor;
+        private final ExecutorService _workers;
+        private final Runnable _task;
+        private final Runnable _executeTask;
+        private volatile long _periodNanos;
+        private volatile RefreshPolicy _policy;
+        private boolean _running;
+        private boolean _executing;
+        private int _executingGeneration;
+        private int _generation;
+        private long _nextStart;
+        private long _runCount;
+        private long _overrunCount;
+        private long _lastDurationNanos;
+
+        private ScheduledRefresh(ScheduledExecutorService executor, ExecutorService workers, Runnable task, long periodMs, RefreshPolicy policy) {
+            checkPeriod(periodMs);
+            _executor = executor;
+            _workers = workers;
+            _task = task;
+            _executeTask = new Runnable() {
+                @Override
+                public void run() {
+                    execute();
+                }
+            };
+            _periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMs);
+            _policy = policy;
+        }
+
+        /**
+         * Start the refresh, the first run is executed immediately. Has no effect if already running.
+         */
+        public void start() {
+            synchronized (lockRefresh) {
+                if (_running) {
+                    return;
+                }
+                _running = true;
+                _generation++;
+                _nextStart = System.nanoTime();
+                //A run that is still executing schedules the first run of this start when it has finished
+                if (!_executing) {
+                    scheduleNext(_generation, 0);
+                }
+            }
+        }
+
+        /**
+         * Stop the refresh. A run that is currently executing is finished, no further runs are started.
+         */
+        public void stop() {
+            synchronized (lockRefresh) {
+                _running = false;
+                _generation++;
+            }
+        }
+
+        public boolean isRunning() {
+            synchronized (lockRefresh) {
+                return _running;
+            }
+        }
+
+        /**
+         * Change the period
+         *
+         * @param periodMs New period in ms
+         */
+        public void setPeriod(long periodMs) {
+            checkPeriod(periodMs);
+            _periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMs);
+        }
+
+        /**
+         * @return Period in ms
+         */
+        public long getPeriod() {
+            return TimeUnit.NANOSECONDS.toMillis(_periodNanos);
+        }
+
+        public void setPolicy(RefreshPolicy policy) {
+            _policy = policy;
+        }
+
+        public RefreshPolicy getPolicy() {
+            return _policy;
+        }
+
+        /**
+         * @return Number of finished runs
+         */
+        public long getRunCount() {
+            synchronized (lockRefresh) {
+                return _runCount;
+            }
+        }
+
+        /**
+         * Number of periods that were missed because a run took longer than the period (fixed rate only).
+         *
+         * @return Number of skipped runs
+         */
+        public long getOverrunCount() {
+            synchronized (lockRefresh) {
+                return _overrunCount;
+            }
+        }
+
+        /**
+         * @return Duration of the last run in ms
+         */
+        public double getLastDuration() {
+            synchronized (lockRefresh) {
+                return _lastDurationNanos / 1e6;
+            }
+        }
+
+        private static void checkPeriod(long periodMs) {
+            if (periodMs <= 0) {
+                throw new IllegalArgumentException("Period must be larger than 0 ms");
+            }
+        }
+
+        private void scheduleNext(final int generation, long delayNanos) {
+            _executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(generation);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Called on the timer thread, hands the run to a worker unless the refresh was stopped or restarted meanwhile
+         */
+        private void dispatch(int generation) {
+            synchronized (lockRefresh) {
+                if (!_running || generation != _generation || _executing) {
+                    return;
+                }
+                _executing = true;
+                _executingGeneration = generation;
+            }
+            try {
+                _workers.execute(_executeTask);
+            } catch (RuntimeException ex) {
+                synchronized (lockRefresh) {
+                    _executing = false;
+                }
+                throw ex;
+            }
+        }
+
+        private void execute() {
+            long start = System.nanoTime();
+            try {
+                _task.run();
+            } catch (RuntimeException ex) {
+                //A failing run must not stop the refresh
+                ex.printStackTrace();
+            }
+            long end = System.nanoTime();
+
+            synchronized (lockRefresh) {
+                _executing = false;
+                _runCount++;
+                _lastDurationNanos = end - start;
+                if (!_running) {
+                    return;
+                }
+
+                long period = _periodNanos;
+                if (_executingGeneration != _generation) {
+                    //Started again while running, the new start begins now
+                    _nextStart = end;
+                } else if (_policy == RefreshPolicy.FixedRate) {
+                    _nextStart += period;
+                    if (_nextStart <= end) {
+                        //Skip the missed runs instead of running them back to back
+                        long missed = (end - _nextStart) / period + 1;
+                        _overrunCount += missed;
+                        _nextStart += missed * period;
+                    }
+                } else {
+                    _nextStart = end + period;
+                }
+                scheduleNext(_generation, _nextStart - end);
+            }
+        }
+    }
+}
@@ -1,11 +1,9 @@
 package at.fhv.dgr1992.ePuck;
 
-import java.util.TimerTask;
-
 /**
  * This task refreshes all the sensor values
  */
-public class SensorValueRefreshTask extends TimerTask{
+public class SensorValueRefreshTask implements Runnable {
 
     private EPuck _ePuck;
 
@@ -0,0 +1,19 @@
+package at.fhv.dgr1992.ePuck;
+
+/**
+ * Work of a control loop tick that can be skipped when the loop is overloaded
+ */
+public enum SheddableWork {
+    /**
+     * Reading the camera image, the behavior gets null instead of an image
+     */
+    Camera,
+    /**
+     * Reading the sensors, the behavior gets the last sensor frame again
+     */
+    Sensors,
+    /**
+     * Running the behavior, the robot keeps the last motor speeds
+     */
+    Behavior
+}
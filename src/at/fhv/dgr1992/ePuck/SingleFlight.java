@@ -0,0 +1,173 @@
+package at.fhv.dgr1992.ePuck;
+
+import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent requests for the same value: while one caller loads the value all other callers wait for its
+ * result instead of loading it again. Optionally a loaded value is served from the cache as long as it is younger
+ * than a time to live.
+ *
+ * @param <T> Type of the value
+ */
+public class SingleFlight<T> {
+
+    /**
+     * Loads the value
+     *
+     * @param <T> Type of the value
+     * @param <E> Type of the exception the loader throws besides RobotFunctionCallException
+     */
+    public interface Loader<T, E extends Exception> {
+        T load() throws E, RobotFunctionCallException;
+    }
+
+    private final Object lockFlight = new Object();
+    private CompletableFuture<T> _inFlight;
+    private T _value;
+    private long _valueTime;
+    private boolean _hasValue;
+    private long _loadCount;
+    private long _sharedCount;
+    private long _cacheHitCount;
+
+    /**
+     * Get the value. If a value younger than the time to live is cached it is returned, if another caller is loading
+     * the value its result is returned, otherwise the value is loaded by the calling thread.
+     *
+     * @param ttlMs         time to live of a loaded value in ms, 0 to never serve a cached value
+     * @param loader        Loader of the value
+     * @param exceptionType Type of the exception the loader throws besides RobotFunctionCallException
+     * @param <E>           Type of the exception the loader throws besides RobotFunctionCallException
+     * @return the value
+     * @throws E                          if loading failed
+     * @throws RobotFunctionCallException if loading failed or waiting for another caller was interrupted
+     */
+    public <E extends Exception> T get(long ttlMs, Loader<T, E> loader, Class<E> exceptionType) throws E, RobotFunctionCallException {
+        return get(ttlMs, loader, exceptionType, true);
+    }
+
+    /**
+     * Get the value like get(ttlMs, loader, exceptionType), but optionally without waiting for another caller. A
+     * caller that must not wait, e.g. because the load of the other caller can only proceed once the calling thread
+     * is free, loads the value itself while the other load is in progress.
+     *
+     * @param ttlMs         time to live of a loaded value in ms, 0 to never serve a cached value
+     * @param loader        Loader of the value
+     * @param exceptionType Type of the exception the loader throws besides RobotFunctionCallException
+     * @param canWait       false to load the value instead of waiting for the load of another caller
+     * @param <E>           Type of the exception the loader throws besides RobotFunctionCallException
+     * @return the value
+     * @throws E                          if loading failed
+     * @throws RobotFunctionCallException if loading failed or waiting for another caller was interrupted
+     */
+    public <E extends Exception> T get(long ttlMs, Loader<T, E> loader, Class<E> exceptionType, boolean canWait) throws E, RobotFunctionCallException {
+        CompletableFuture<T> flight;
+        boolean leader = false;
+        synchronized (lockFlight) {
+            if (ttlMs > 0 && _hasValue && System.nanoTime() - _valueTime < TimeUnit.MILLISECONDS.toNanos(ttlMs)) {
+                _cacheHitCount++;
+                return _value;
+            }
+            flight = _inFlight;
+            if (flight == null) {
+                flight = new CompletableFuture<T>();
+                _inFlight = flight;
+                _loadCount++;
+                leader = true;
+            } else if (!canWait) {
+                _loadCount++;
+            } else {
+                _sharedCount++;
+            }
+        }
+
+        if (leader) {
+            return load(flight, loader);
+        } else if (!canWait) {
+            //Load beside the running flight, its followers keep waiting for the leader
+            return loader.load();
+        }
+
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RobotFunctionCallException("Interrupted while waiting for a shared request", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (exceptionType.isInstance(cause)) {
+                throw exceptionType.cast(cause);
+            } else if (cause instanceof RobotFunctionCallException) {
+                throw (RobotFunctionCallException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RobotFunctionCallException("Shared request failed", cause);
+        }
+    }
+
+    /**
+     * Forget the cached value, the next call of get loads the value.
+     */
+    public void invalidate() {
+        synchronized (lockFlight) {
+            _hasValue = false;
+            _value = null;
+        }
+    }
+
+    /**
+     * @return Number of times the value was loaded
+     */
+    public long getLoadCount() {
+        synchronized (lockFlight) {
+            return _loadCount;
+        }
+    }
+
+    /**
+     * @return Number of calls that got the result of the load of another caller
+     */
+    public long getSharedCount() {
+        synchronized (lockFlight) {
+            return _sharedCount;
+        }
+    }
+
+    /**
+     * @return Number of calls that got the cached value
+     */
+    public long getCacheHitCount() {
+        synchronized (lockFlight) {
+            return _cacheHitCount;
+        }
+    }
+
+    private <E extends Exception> T load(CompletableFuture<T> flight, Loader<T, E> loader) throws E, RobotFunctionCallException {
+        T value;
+        try {
+            value = loader.load();
+        } catch (Throwable ex) {
+            synchronized (lockFlight) {
+                _inFlight = null;
+            }
+            flight.completeExceptionally(ex);
+            throw ex;
+        }
+
+        synchronized (lockFlight) {
+            _value = value;
+            _valueTime = System.nanoTime();
+            _hasValue = true;
+            _inFlight = null;
+        }
+        flight.complete(value);
+        return value;
+    }
+}
@@ -0,0 +1,59 @@
+package at.fhv.dgr1992.ePuck;
+
+import at.fhv.dgr1992.differentialWheels.CameraImage;
+import at.fhv.dgr1992.differentialWheels.SensorFrame;
+
+/**
+ * Results of one control tick of an EPuck: the sensor values and optionally the camera image that were read
+ * together with sending the motor speeds.
+ */
+public class TickResult {
+    private final SensorFrame _sensorFrame;
+    private final CameraImage _cameraImage;
+    private final double _simulationTime;
+
+    /**
+     * Constructs a new result without simulation time
+     * @param sensorFrame Sensor values after the tick
+     * @param cameraImage Camera image of the tick, null if the camera was not read
+     */
+    public TickResult(SensorFrame sensorFrame, CameraImage cameraImage) {
+        this(sensorFrame, cameraImage, Double.NaN);
+    }
+
+    /**
+     * Constructs a new result
+     * @param sensorFrame Sensor values after the tick
+     * @param cameraImage Camera image of the tick, null if the camera was not read
+     * @param simulationTime Simulation time in s the values belong to, NaN if unknown
+     */
+    public TickResult(SensorFrame sensorFrame, CameraImage cameraImage, double simulationTime) {
+        _sensorFrame = sensorFrame;
+        _cameraImage = cameraImage;
+        _simulationTime = simulationTime;
+    }
+
+    /**
+     * Get the sensor values
+     * @return Latest sensor frame after the tick
+     */
+    public SensorFrame getSensorFrame() {
+        return _sensorFrame;
+    }
+
+    /**
+     * Get the camera image
+     * @return Camera image or null if the camera was not read
+     */
+    public CameraImage getCameraImage() {
+        return _cameraImage;
+    }
+
+    /**
+     * Get the simulation time of the values, only known in the synchronous mode
+     * @return Simulation time in s or NaN if unknown
+     */
+    public double getSimulationTime() {
+        return _simulationTime;
+    }
+}
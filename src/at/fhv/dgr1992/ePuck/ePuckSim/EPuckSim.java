@@ -0,0 +1,547 @@
+package at.fhv.dgr1992.ePuck.ePuckSim;
+
+import at.fhv.dgr1992.differentialWheels.*;
+import at.fhv.dgr1992.ePuck.EPuck;
+import at.fhv.dgr1992.ePuck.ePuckVRep.exceptions.SynchrounusModeNotActivatedException;
+import at.fhv.dgr1992.exceptions.CameraNotEnabledException;
+import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
+import at.fhv.dgr1992.exceptions.SensorNotEnabledException;
+import at.fhv.dgr1992.exceptions.VelocityLimitException;
+
+/**
+ * The class "EPuckSim" simulates the kinematics and the sensors of an ePuck inside the JVM. It can be used instead of
+ * EPuckVRep to run controllers without VRep and faster than real time.
+ * <p>
+ * In asynchronous mode the simulation follows the wall clock multiplied by the time scale. In synchronous mode the
+ * simulation only advances with stepsim, like VRep in synchronous mode.
+ */
+public class EPuckSim extends EPuck {
+
+    private static double MAXVEL = (120 * Math.PI / 180);
+    /**
+     * Radius of the robot body in meter
+     */
+    private static final double BODY_RADIUS = 0.037;
+    /**
+     * Max distance the proximity sensors can detect in meter
+     */
+    private static final double PROXIMITY_RANGE = 0.05;
+    /**
+     * Directions of the proximity sensors relative to the heading: left, left front, front left, front right, right front, right, back right, back left
+     */
+    private static final double[] PROXIMITY_ANGLES = new double[]{Math.toRadians(90), Math.toRadians(45), Math.toRadians(10), Math.toRadians(-10), Math.toRadians(-45), Math.toRadians(-90), Math.toRadians(-150), Math.toRadians(150)};
+    /**
+     * Distance of the ground sensors in front of the center and between each other in meter
+     */
+    private static final double GROUND_SENSOR_OFFSET = 0.03;
+    private static final double GROUND_SENSOR_SPACING = 0.01;
+    private static final double CAMERA_FIELD_OF_VIEW = Math.toRadians(45);
+    private static final double CAMERA_HEIGHT = 0.03;
+    private static final double CAMERA_RANGE = 10;
+    private static final double GRAVITY = 9.81;
+    private static final double COLLISION_HYSTERESIS = 0.002;
+    /**
+     * time in s
+     */
+    private static final double INTEGRATION_STEP = 0.005;
+
+    private final Object lockSim = new Object();
+
+    private SimWorld _world;
+    private boolean _synchronous;
+    private double _timeScale;
+    /**
+     * time in s, guarded by lockSim
+     */
+    private double _timeStep;
+    private long _lastWallClock;
+
+    //Simulated state of the robot, guarded by lockSim
+    private double _x;
+    private double _y;
+    private double _theta;
+    private double _leftWheelAngle;
+    private double _rightWheelAngle;
+    private double _linearVelocity;
+    private double _forwardAcceleration;
+    private double _lateralAcceleration;
+    private double _simulationTime;
+    private boolean _colliding;
+    private int _collisionCount;
+
+    /**
+     * Creates a new simulated ePuck with a max velocity of maxVel = (120 * Math.PI / 180).
+     *
+     * @param robotName   Name of the robot.
+     * @param world       World the robot drives in.
+     * @param x           Start position on the x-axis in meter.
+     * @param y           Start position on the y-axis in meter.
+     * @param theta       Start orientation in radians.
+     * @param synchronous Set to true to control the simulation in single steps.
+     */
+    public EPuckSim(String robotName, SimWorld world, double x, double y, double theta, boolean synchronous) {
+        this(robotName, world, x, y, theta, MAXVEL, synchronous);
+    }
+
+    /**
+     * Creates a new simulated ePuck.
+     *
+     * @param robotName   Name of the robot.
+     * @param world       World the robot drives in.
+     * @param x           Start position on the x-axis in meter.
+     * @param y           Start position on the y-axis in meter.
+     * @param theta       Start orientation in radians.
+     * @param maxVelocity Maximum velocity that the ePuck can drive.
+     * @param synchronous Set to true to control the simulation in single steps.
+     */
+    public EPuckSim(String robotName, SimWorld world, double x, double y, double theta, double maxVelocity, boolean synchronous) {
+        super(robotName, maxVelocity, 64, 64);
+        _world = world;
+        _synchronous = synchronous;
+        _timeScale = 1.0;
+        _timeStep = 0.05;
+        _x = x;
+        _y = y;
+        _theta = theta;
+    }
+
+    //region connect and disconnect
+
+    /**
+     * "Connects" to the simulation, the simulated time starts running in asynchronous mode.
+     *
+     * @return always true
+     */
+    @Override
+    public boolean connect() {
+        synchronized (lockSim) {
+            _lastWallClock = System.nanoTime();
+            _connected = true;
+        }
+        initRobotModel();
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        synchronized (lockSim) {
+            _connected = false;
+        }
+    }
+
+    /**
+     * Wheel diameter and wheel distance are the values of the ePuck, nothing to initialise.
+     */
+    @Override
+    protected void initRobotModel() {
+    }
+    //endregion
+
+    //region Simulation
+
+    /**
+     * Set how fast the simulation runs in asynchronous mode compared to the wall clock.
+     *
+     * @param timeScale 1 = real time, 10 = ten times faster than real time
+     */
+    public void setTimeScale(double timeScale) {
+        synchronized (lockSim) {
+            advanceToWallClock();
+            _timeScale = timeScale;
+        }
+    }
+
+    /**
+     * Set the simulated time of one step in synchronous mode. Default is 0.05s like in VRep.
+     *
+     * @param timeStep time in s
+     */
+    public void setTimeStep(double timeStep) {
+        synchronized (lockSim) {
+            _timeStep = timeStep;
+        }
+    }
+
+    /**
+     * Same as EPuckVRep.startsim(): starts the simulation in synchronous mode and performs one step.
+     *
+     * @throws SynchrounusModeNotActivatedException
+     */
+    public void startsim() throws SynchrounusModeNotActivatedException {
+        if (!_synchronous) {
+            throw new SynchrounusModeNotActivatedException("Startsim requires the synchronous mode to have been set in the constructor");
+        }
+        stepsim(1);
+    }
+
+    /**
+     * Perform the specified number of steps. Requires the instance to be created in synchronous mode.
+     *
+     * @param steps number of steps to simulate
+     * @throws SynchrounusModeNotActivatedException
+     */
+    public void stepsim(int steps) throws SynchrounusModeNotActivatedException {
+        if (!_synchronous) {
+            throw new SynchrounusModeNotActivatedException("Stepsim requires the synchronous mode to have been set in the constructor.");
+        }
+        synchronized (lockSim) {
+            advance(steps * _timeStep);
+        }
+    }
+
+    /**
+     * Get the simulated time since the start.
+     *
+     * @return time in s
+     */
+    public double getSimulationTime() {
+        synchronized (lockSim) {
+            advanceToWallClock();
+            return _simulationTime;
+        }
+    }
+
+    /**
+     * Get how often the robot bumped into a wall or a box.
+     *
+     * @return number of collisions
+     */
+    public int getCollisionCount() {
+        synchronized (lockSim) {
+            return _collisionCount;
+        }
+    }
+
+    /**
+     * Get the simulated pose, e.g. to evaluate an episode. Unlike getPose() the pose sensor doesn't have to be enabled
+     * and no sensor frame is published.
+     *
+     * @return Pose of the robot
+     */
+    public Pose getGroundTruthPose() {
+        synchronized (lockSim) {
+            advanceToWallClock();
+            return new Pose(new double[]{_x, _y, _theta});
+        }
+    }
+
+    /**
+     * Place the robot at a new position, e.g. to start a new episode.
+     *
+     * @param x     Position on the x-axis in meter.
+     * @param y     Position on the y-axis in meter.
+     * @param theta Orientation in radians.
+     */
+    public void setPose(double x, double y, double theta) {
+        synchronized (lockSim) {
+            advanceToWallClock();
+            _x = x;
+            _y = y;
+            _theta = theta;
+            _linearVelocity = 0;
+            _colliding = false;
+        }
+    }
+
+    public SimWorld getWorld() {
+        return _world;
+    }
+
+    /**
+     * In asynchronous mode advance the simulation by the wall clock time passed since the last call.
+     * Has to be called while holding lockSim.
+     */
+    private void advanceToWallClock() {
+        long now = System.nanoTime();
+        if (!_synchronous && _connected) {
+            advance((now - _lastWallClock) / 1e9 * _timeScale);
+        }
+        _lastWallClock = now;
+    }
+
+    /**
+     * Integrate the differential drive kinematics. Has to be called while holding lockSim.
+     *
+     * @param duration time in s
+     */
+    private void advance(double duration) {
+        double wheelRadius = _wheelDiameter / 2;
+        double leftSpeed = Math.max(Math.min(_motorSpeed.getLeft(), _maxVel), -_maxVel);
+        double rightSpeed = Math.max(Math.min(_motorSpeed.getRight(), _maxVel), -_maxVel);
+        double velocity = (leftSpeed + rightSpeed) * wheelRadius / 2;
+        double angularVelocity = (rightSpeed - leftSpeed) * wheelRadius / _wheelDistance;
+
+        while (duration > 0) {
+            double dt = Math.min(INTEGRATION_STEP, duration);
+            duration -= dt;
+
+            double midTheta = _theta + angularVelocity * dt / 2;
+            double newX = _x + velocity * Math.cos(midTheta) * dt;
+            double newY = _y + velocity * Math.sin(midTheta) * dt;
+            double actualVelocity = velocity;
+
+            if (_world.collides(newX, newY, BODY_RADIUS)) {
+                //The robot is blocked, it can only turn on the spot
+                if (!_colliding) {
+                    _collisionCount++;
+                }
+                _colliding = true;
+                actualVelocity = 0;
+            } else {
+                //A new collision is only counted once the robot moved away from the obstacle
+                if (_colliding && !_world.collides(newX, newY, BODY_RADIUS + COLLISION_HYSTERESIS)) {
+                    _colliding = false;
+                }
+                _x = newX;
+                _y = newY;
+            }
+
+            _theta = normalizeAngle(_theta + angularVelocity * dt);
+            _leftWheelAngle += leftSpeed * dt;
+            _rightWheelAngle += rightSpeed * dt;
+            _forwardAcceleration = (actualVelocity - _linearVelocity) / dt;
+            _lateralAcceleration = actualVelocity * angularVelocity;
+            _linearVelocity = actualVelocity;
+            _simulationTime += dt;
+        }
+    }
+
+    private static double normalizeAngle(double angle) {
+        while (angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        }
+        while (angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+    //endregion
+
+    //region Updating sensors and camera
+
+    @Override
+    protected double[] refreshProximitySensorValues() throws SensorNotEnabledException {
+        if (!_proximitySensorEnabled) {
+            throw new SensorNotEnabledException("Proximity sensor is not enabled");
+        }
+        synchronized (lockSim) {
+            advanceToWallClock();
+            return simulateProximitySensors();
+        }
+    }
+
+    @Override
+    protected double[] refreshLightSensorValues() throws SensorNotEnabledException {
+        if (!_lightSensorsEnabled) {
+            throw new SensorNotEnabledException("Light sensor is not enabled");
+        }
+        //There are no light sources in the simulated world
+        return simulateLightSensors();
+    }
+
+    @Override
+    protected double[] refreshGroundSensorValues() throws SensorNotEnabledException {
+        if (!_groundSensorsEnabled) {
+            throw new SensorNotEnabledException("Grounds sensor is not enabled");
+        }
+        return simulateGroundSensors();
+    }
+
+    @Override
+    protected Acceleration refreshAccelerometerValues() throws SensorNotEnabledException {
+        if (!_accelerometerEnabled) {
+            throw new SensorNotEnabledException("Accelerometer is not enabled");
+        }
+        synchronized (lockSim) {
+            advanceToWallClock();
+            return new Acceleration(new double[]{_forwardAcceleration, _lateralAcceleration, GRAVITY});
+        }
+    }
+
+    @Override
+    protected WheelEncode refreshWheelEncodingValues() throws SensorNotEnabledException {
+        if (!_wheelEncodingEnabled) {
+            throw new SensorNotEnabledException("Wheel encoding is not enabled");
+        }
+        synchronized (lockSim) {
+            advanceToWallClock();
+            return new WheelEncode(new double[]{_leftWheelAngle, _rightWheelAngle});
+        }
+    }
+
+    @Override
+    protected Pose refreshPose() throws SensorNotEnabledException {
+        if (!_poseEnabled) {
+            throw new SensorNotEnabledException("Pose is not enabled");
+        }
+        synchronized (lockSim) {
+            advanceToWallClock();
+            return new Pose(new double[]{_x, _y, _theta});
+        }
+    }
+
+    /**
+     * Render the camera image by casting one ray per image column.
+     *
+     * @return Returns the current image of the camera
+     * @throws CameraNotEnabledException
+     */
+    @Override
+    protected CameraImage refreshCameraImage() throws CameraNotEnabledException {
+        if (!_cameraEnabled) {
+            throw new CameraNotEnabledException("Camera is not enabled");
+        }
+
+        CameraImage image = new CameraImage(_imageWidth, _imageHeight);
+        double focalLength = (_imageWidth / 2.0) / Math.tan(CAMERA_FIELD_OF_VIEW / 2);
+        double horizon = (_imageHeight - 1) / 2.0;
+
+        double[] hitDistance = new double[1];
+        synchronized (lockSim) {
+            advanceToWallClock();
+            double cameraX = _x + BODY_RADIUS * Math.cos(_theta);
+            double cameraY = _y + BODY_RADIUS * Math.sin(_theta);
+
+            for (int x = 0; x < _imageWidth; x++) {
+                //Column 0 is on the left side, so the angle is positive (counterclockwise)
+                double columnAngle = Math.atan(((_imageWidth - 1) / 2.0 - x) / focalLength);
+                double rayAngle = _theta + columnAngle;
+                int segment = _world.nearestSegment(cameraX, cameraY, Math.cos(rayAngle), Math.sin(rayAngle), CAMERA_RANGE, hitDistance);
+
+                double top = horizon;
+                double bottom = horizon;
+                int wallColor = 0;
+                if (segment >= 0) {
+                    //Use the distance along the view direction to avoid a fish eye effect
+                    double distance = Math.max(hitDistance[0] * Math.cos(columnAngle), 1e-6);
+                    top = horizon - focalLength * (_world.getWallHeight() - CAMERA_HEIGHT) / distance;
+                    bottom = horizon + focalLength * CAMERA_HEIGHT / distance;
+                    wallColor = _world.getSegmentColor(segment);
+                }
+
+                for (int y = 0; y < _imageHeight; y++) {
+                    int rgb;
+                    if (segment >= 0 && y >= top && y <= bottom) {
+                        rgb = wallColor;
+                    } else if (y < horizon) {
+                        rgb = _world.getSkyColor();
+                    } else {
+                        rgb = _world.getFloorColor();
+                    }
+                    image.setRGB(x, y, rgb);
+                }
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Read all non-camera sensors at once, except for pose.
+     *
+     * @return always true
+     */
+    @Override
+    public boolean senseAllTogether() {
+        //Only the enabled sensors are simulated, groups that are not enabled keep their initial Double.NaN values
+        double[] proximity = null;
+        double[] light = _lightSensorsEnabled ? simulateLightSensors() : null;
+        double[] ground = null;
+        Acceleration acceleration = null;
+        WheelEncode wheelEncode = null;
+        synchronized (lockSim) {
+            advanceToWallClock();
+            if (_proximitySensorEnabled) {
+                proximity = simulateProximitySensors();
+            }
+            if (_groundSensorsEnabled) {
+                ground = simulateGroundSensors();
+            }
+            if (_accelerometerEnabled) {
+                acceleration = new Acceleration(new double[]{_forwardAcceleration, _lateralAcceleration, GRAVITY});
+            }
+            if (_wheelEncodingEnabled) {
+                wheelEncode = new WheelEncode(new double[]{_leftWheelAngle, _rightWheelAngle});
+            }
+        }
+
+        publishSensorFrame(proximity, light, ground, acceleration, wheelEncode, null);
+        return true;
+    }
+
+    /**
+     * Distance from each proximity sensor to the nearest obstacle. Has to be called while holding lockSim.
+     *
+     * @return distances in meter, PROXIMITY_RANGE if nothing is detected, Double.NaN for disabled sensors
+     */
+    private double[] simulateProximitySensors() {
+        int mask = _proximitySensorMask;
+        double[] values = new double[_numProximitySeonsors];
+        for (int i = 0; i < values.length; i++) {
+            if ((mask & (1 << i)) == 0) {
+                //Disabled sensors are not simulated
+                values[i] = Double.NaN;
+                continue;
+            }
+            double angle = _theta + PROXIMITY_ANGLES[i];
+            double sensorX = _x + BODY_RADIUS * Math.cos(angle);
+            double sensorY = _y + BODY_RADIUS * Math.sin(angle);
+            values[i] = _world.castRay(sensorX, sensorY, angle, PROXIMITY_RANGE);
+        }
+        return values;
+    }
+
+    private double[] simulateLightSensors() {
+        int mask = _lightSensorMask;
+        double[] values = new double[_numLightSensors];
+        for (int i = 0; i < values.length; i++) {
+            if ((mask & (1 << i)) == 0) {
+                values[i] = Double.NaN;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The ground sensors look straight down, each returns the intensity of the floor below it. Sensor 0 is the left
+     * one. Takes lockSim itself, so all values belong to the same pose.
+     */
+    private double[] simulateGroundSensors() {
+        double x;
+        double y;
+        double theta;
+        synchronized (lockSim) {
+            advanceToWallClock();
+            x = _x;
+            y = _y;
+            theta = _theta;
+        }
+
+        double[] values = new double[_numGroundSensors];
+        double cos = Math.cos(theta);
+        double sin = Math.sin(theta);
+        double center = (values.length - 1) / 2.0;
+        for (int i = 0; i < values.length; i++) {
+            double lateral = (center - i) * GROUND_SENSOR_SPACING;
+            values[i] = _world.getFloorIntensity(x + GROUND_SENSOR_OFFSET * cos - lateral * sin, y + GROUND_SENSOR_OFFSET * sin + lateral * cos);
+        }
+        return values;
+    }
+    //endregion
+
+    /**
+     * Set the motor speed for the left and right motor. Speeds above the max velocity are limited to the max velocity.
+     *
+     * @param speed speed of the left and right motor
+     * @return always true
+     */
+    @Override
+    public boolean setMotorSpeeds(Speed speed) throws VelocityLimitException, RobotFunctionCallException {
+        synchronized (lockSim) {
+            //Simulate the old speeds until now before changing them
+            advanceToWallClock();
+            _motorSpeed = speed;
+        }
+        return true;
+    }
+}
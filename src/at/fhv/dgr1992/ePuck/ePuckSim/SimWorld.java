@@ -0,0 +1,295 @@
+package at.fhv.dgr1992.ePuck.ePuckSim;
+
+import java.util.Arrays;
+
+/**
+ * Two dimensional world for the EPuckSim. The world consists of coloured wall segments; boxes are stored as four
+ * segments. The floor has a uniform intensity that can be overlaid by rectangular patches, e.g. lines or markings the
+ * ground sensors detect. All values are in meter and the colours are rgb ints with 8 bits per channel.
+ * <p>
+ * Queries don't modify the world, so several robots can share one world once it is built.
+ */
+public class SimWorld {
+
+    /**
+     * Height of all walls and boxes in meter
+     */
+    private double _wallHeight;
+    private int _floorColor;
+    private int _skyColor;
+    private double _floorIntensity;
+
+    private int _numSegments;
+    private double[] _x1;
+    private double[] _y1;
+    private double[] _x2;
+    private double[] _y2;
+    private int[] _colors;
+
+    private int _numPatches;
+    private double[] _patchMinX;
+    private double[] _patchMinY;
+    private double[] _patchMaxX;
+    private double[] _patchMaxY;
+    private double[] _patchIntensities;
+
+    /**
+     * Creates an empty world with walls of 0.1m height, a grey floor and a light grey background.
+     */
+    public SimWorld() {
+        _wallHeight = 0.1;
+        _floorColor = 0x808080;
+        _skyColor = 0xc8c8c8;
+        _floorIntensity = 1.0;
+
+        _numSegments = 0;
+        _x1 = new double[16];
+        _y1 = new double[16];
+        _x2 = new double[16];
+        _y2 = new double[16];
+        _colors = new int[16];
+
+        _numPatches = 0;
+        _patchMinX = new double[4];
+        _patchMinY = new double[4];
+        _patchMaxX = new double[4];
+        _patchMaxY = new double[4];
+        _patchIntensities = new double[4];
+    }
+
+    /**
+     * Creates a rectangular arena with its lower left corner at (0,0) and white walls.
+     *
+     * @param width  width of the arena in meter
+     * @param height height of the arena in meter
+     * @return the new world
+     */
+    public static SimWorld rectangularArena(double width, double height) {
+        SimWorld world = new SimWorld();
+        world.addWall(0, 0, width, 0, 0xffffff);
+        world.addWall(width, 0, width, height, 0xffffff);
+        world.addWall(width, height, 0, height, 0xffffff);
+        world.addWall(0, height, 0, 0, 0xffffff);
+        return world;
+    }
+
+    /**
+     * Add a wall segment.
+     *
+     * @param x1    x coordinate of the start point
+     * @param y1    y coordinate of the start point
+     * @param x2    x coordinate of the end point
+     * @param y2    y coordinate of the end point
+     * @param color rgb colour of the wall as seen by the camera
+     */
+    public void addWall(double x1, double y1, double x2, double y2, int color) {
+        if (_numSegments == _x1.length) {
+            int capacity = 2 * _x1.length;
+            _x1 = Arrays.copyOf(_x1, capacity);
+            _y1 = Arrays.copyOf(_y1, capacity);
+            _x2 = Arrays.copyOf(_x2, capacity);
+            _y2 = Arrays.copyOf(_y2, capacity);
+            _colors = Arrays.copyOf(_colors, capacity);
+        }
+        _x1[_numSegments] = x1;
+        _y1[_numSegments] = y1;
+        _x2[_numSegments] = x2;
+        _y2[_numSegments] = y2;
+        _colors[_numSegments] = color;
+        _numSegments++;
+    }
+
+    /**
+     * Add a square box.
+     *
+     * @param centerX x coordinate of the center
+     * @param centerY y coordinate of the center
+     * @param size    length of the sides
+     * @param color   rgb colour of the box
+     */
+    public void addBox(double centerX, double centerY, double size, int color) {
+        double h = size / 2;
+        addWall(centerX - h, centerY - h, centerX + h, centerY - h, color);
+        addWall(centerX + h, centerY - h, centerX + h, centerY + h, color);
+        addWall(centerX + h, centerY + h, centerX - h, centerY + h, color);
+        addWall(centerX - h, centerY + h, centerX - h, centerY - h, color);
+    }
+
+    /**
+     * Add a rectangular patch of the floor with another intensity. A patch covers the patches added before it.
+     *
+     * @param x1        x coordinate of one corner
+     * @param y1        y coordinate of one corner
+     * @param x2        x coordinate of the opposite corner
+     * @param y2        y coordinate of the opposite corner
+     * @param intensity Value the ground sensors return above the patch
+     */
+    public void addFloorPatch(double x1, double y1, double x2, double y2, double intensity) {
+        if (_numPatches == _patchMinX.length) {
+            int capacity = 2 * _patchMinX.length;
+            _patchMinX = Arrays.copyOf(_patchMinX, capacity);
+            _patchMinY = Arrays.copyOf(_patchMinY, capacity);
+            _patchMaxX = Arrays.copyOf(_patchMaxX, capacity);
+            _patchMaxY = Arrays.copyOf(_patchMaxY, capacity);
+            _patchIntensities = Arrays.copyOf(_patchIntensities, capacity);
+        }
+        _patchMinX[_numPatches] = Math.min(x1, x2);
+        _patchMinY[_numPatches] = Math.min(y1, y2);
+        _patchMaxX[_numPatches] = Math.max(x1, x2);
+        _patchMaxY[_numPatches] = Math.max(y1, y2);
+        _patchIntensities[_numPatches] = intensity;
+        _numPatches++;
+    }
+
+    /**
+     * Intensity of the floor at a point, the value a ground sensor above it returns.
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @return Intensity of the topmost patch containing the point, otherwise the intensity of the floor
+     */
+    public double getFloorIntensity(double x, double y) {
+        for (int i = _numPatches - 1; i >= 0; i--) {
+            if (x >= _patchMinX[i] && x <= _patchMaxX[i] && y >= _patchMinY[i] && y <= _patchMaxY[i]) {
+                return _patchIntensities[i];
+            }
+        }
+        return _floorIntensity;
+    }
+
+    /**
+     * Distance from the origin along the given direction to the nearest segment.
+     *
+     * @param x           x coordinate of the origin
+     * @param y           y coordinate of the origin
+     * @param angle       direction of the ray in radians
+     * @param maxDistance max length of the ray
+     * @return distance to the nearest segment or maxDistance if nothing was hit
+     */
+    public double castRay(double x, double y, double angle, double maxDistance) {
+        double[] distance = new double[1];
+        nearestSegment(x, y, Math.cos(angle), Math.sin(angle), maxDistance, distance);
+        return distance[0];
+    }
+
+    /**
+     * Index of the nearest segment hit by the ray.
+     *
+     * @param distance Array the distance to the segment is written to, maxDistance if nothing was hit
+     * @return index of the segment or -1 if nothing was hit
+     */
+    int nearestSegment(double x, double y, double dirX, double dirY, double maxDistance, double[] distance) {
+        int nearest = -1;
+        double nearestDistance = maxDistance;
+        for (int i = 0; i < _numSegments; i++) {
+            double segX = _x2[i] - _x1[i];
+            double segY = _y2[i] - _y1[i];
+            double denominator = dirX * segY - dirY * segX;
+            if (denominator == 0) {
+                //Ray and segment are parallel
+                continue;
+            }
+            double diffX = _x1[i] - x;
+            double diffY = _y1[i] - y;
+            double t = (diffX * segY - diffY * segX) / denominator;
+            double u = (diffX * dirY - diffY * dirX) / denominator;
+            if (t >= 0 && t < nearestDistance && u >= 0 && u <= 1) {
+                nearestDistance = t;
+                nearest = i;
+            }
+        }
+        distance[0] = nearestDistance;
+        return nearest;
+    }
+
+    /**
+     * Check if a circle overlaps any segment.
+     *
+     * @param x      x coordinate of the center
+     * @param y      y coordinate of the center
+     * @param radius radius of the circle
+     * @return true if the circle touches a segment
+     */
+    public boolean collides(double x, double y, double radius) {
+        for (int i = 0; i < _numSegments; i++) {
+            double segX = _x2[i] - _x1[i];
+            double segY = _y2[i] - _y1[i];
+            double lengthSquared = segX * segX + segY * segY;
+            double t = lengthSquared == 0 ? 0 : ((x - _x1[i]) * segX + (y - _y1[i]) * segY) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+            double dx = _x1[i] + t * segX - x;
+            double dy = _y1[i] + t * segY - y;
+            if (dx * dx + dy * dy < radius * radius) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a copy of the world, e.g. for running several robots in separate worlds.
+     *
+     * @return the copy
+     */
+    public SimWorld copy() {
+        SimWorld world = new SimWorld();
+        world._wallHeight = _wallHeight;
+        world._floorColor = _floorColor;
+        world._skyColor = _skyColor;
+        world._floorIntensity = _floorIntensity;
+        world._numSegments = _numSegments;
+        world._x1 = _x1.clone();
+        world._y1 = _y1.clone();
+        world._x2 = _x2.clone();
+        world._y2 = _y2.clone();
+        world._colors = _colors.clone();
+        world._numPatches = _numPatches;
+        world._patchMinX = _patchMinX.clone();
+        world._patchMinY = _patchMinY.clone();
+        world._patchMaxX = _patchMaxX.clone();
+        world._patchMaxY = _patchMaxY.clone();
+        world._patchIntensities = _patchIntensities.clone();
+        return world;
+    }
+
+    int getSegmentColor(int segment) {
+        return _colors[segment];
+    }
+
+    public double getWallHeight() {
+        return _wallHeight;
+    }
+
+    public void setWallHeight(double wallHeight) {
+        _wallHeight = wallHeight;
+    }
+
+    public int getFloorColor() {
+        return _floorColor;
+    }
+
+    public void setFloorColor(int floorColor) {
+        _floorColor = floorColor;
+    }
+
+    public int getSkyColor() {
+        return _skyColor;
+    }
+
+    public void setSkyColor(int skyColor) {
+        _skyColor = skyColor;
+    }
+
+    /**
+     * Value returned by the ground sensors outside of the floor patches.
+     *
+     * @return Intensity of the floor
+     */
+    public double getFloorIntensity() {
+        return _floorIntensity;
+    }
+
+    public void setFloorIntensity(double floorIntensity) {
+        _floorIntensity = floorIntensity;
+    }
+}
@@ -0,0 +1,19 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep;
+
+/**
+ * How the EPuckVRep acquires the camera image from VRep
+ */
+public enum CameraMode {
+    /**
+     * Blocking call of the script function getCameraSensorsForRemote for every frame
+     */
+    ScriptCall,
+    /**
+     * Read the camera signal that VRep streams to the client, a frame fetch does not need a round trip
+     */
+    StreamedSignal,
+    /**
+     * Stream the rgb bytes of the vision sensor with simxGetVisionSensorImage, 3 bytes per pixel instead of 3 floats
+     */
+    VisionSensorImage
+}
@@ -0,0 +1,259 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep;
+
+import at.fhv.dgr1992.ePuck.ePuckVRep.remote.RemoteApiMetrics;
+import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes all calls to the remote API of one robot on a single dispatcher thread, so callers never block each other
+ * on a lock. Commands are queued by priority (see CommandPriority) and in submission order within a priority, so a
+ * motor command does not wait behind a queued camera read.
+ * <p>
+ * A command that is executed or submitted from the dispatcher thread itself, e.g. a nested call inside another
+ * command, runs immediately on that thread. A sequence of calls that has to reach VRep without other commands in
+ * between therefore can be submitted as one command.
+ * <p>
+ * The dispatcher thread is a daemon thread that is started with the first command. After shutdown() the next command
+ * starts a new thread.
+ */
+public class CommandDispatcher {
+
+    /**
+     * A command that is executed on the dispatcher thread
+     *
+     * @param <T> Type of the result
+     */
+    public interface RemoteCommand<T> {
+        /**
+         * Execute the command
+         *
+         * @return Result of the command
+         * @throws RobotFunctionCallException if the command failed
+         */
+        T execute() throws RobotFunctionCallException;
+    }
+
+    private final Object lockDispatcher = new Object();
+    private final String _name;
+    private final RemoteApiMetrics _metrics;
+    private final AtomicLong _sequence;
+    private final AtomicLong _executedCount;
+    private DispatcherThread _thread;
+
+    /**
+     * Constructs a new dispatcher
+     *
+     * @param name    Name of the dispatcher thread, e.g. the robot name
+     * @param metrics Metrics the queue wait of each command is recorded in as lock wait, null to record nothing
+     */
+    public CommandDispatcher(String name, RemoteApiMetrics metrics) {
+        _name = name;
+        _metrics = metrics;
+        _sequence = new AtomicLong();
+        _executedCount = new AtomicLong();
+    }
+
+    /**
+     * Queue a command without waiting for it.
+     *
+     * @param priority Priority of the command
+     * @param command  Command to execute
+     * @param <T>      Type of the result
+     * @return Future that completes with the result of the command, or exceptionally with the exception it threw
+     */
+    public <T> CompletableFuture<T> submit(CommandPriority priority, RemoteCommand<T> command) {
+        if (isDispatcherThread()) {
+            CompletableFuture<T> future = new CompletableFuture<T>();
+            run(command, future);
+            return future;
+        }
+
+        QueuedCommand<T> queued = new QueuedCommand<T>(priority, _sequence.getAndIncrement(), command);
+        synchronized (lockDispatcher) {
+            if (_thread == null) {
+                _thread = new DispatcherThread(this, "CommandDispatcher-" + _name);
+                _thread.start();
+            }
+            _thread._queue.add(queued);
+        }
+        return queued._future;
+    }
+
+    /**
+     * Execute a command and wait for its result.
+     *
+     * @param priority Priority of the command
+     * @param command  Command to execute
+     * @param <T>      Type of the result
+     * @return Result of the command
+     * @throws RobotFunctionCallException if the command failed or waiting was interrupted
+     */
+    public <T> T execute(CommandPriority priority, RemoteCommand<T> command) throws RobotFunctionCallException {
+        if (isDispatcherThread()) {
+            return command.execute();
+        }
+
+        return await(submit(priority, command));
+    }
+
+    /**
+     * Wait for the result of a submitted command.
+     *
+     * @param future Future returned by submit
+     * @param <T>    Type of the result
+     * @return Result of the command
+     * @throws RobotFunctionCallException if the command failed or waiting was interrupted
+     */
+    public static <T> T await(CompletableFuture<T> future) throws RobotFunctionCallException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RobotFunctionCallException("Interrupted while waiting for the remote API", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RobotFunctionCallException) {
+                throw (RobotFunctionCallException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RobotFunctionCallException("Remote API command failed", cause);
+        }
+    }
+
+    /**
+     * @return true if the current thread is the dispatcher thread of this dispatcher
+     */
+    public boolean isDispatcherThread() {
+        Thread current = Thread.currentThread();
+        return current instanceof DispatcherThread && ((DispatcherThread) current)._dispatcher == this;
+    }
+
+    /**
+     * @return Number of commands waiting for execution
+     */
+    public int getQueueLength() {
+        synchronized (lockDispatcher) {
+            return _thread == null ? 0 : _thread._queue.size();
+        }
+    }
+
+    /**
+     * @return Number of commands executed on the dispatcher thread
+     */
+    public long getExecutedCount() {
+        return _executedCount.get();
+    }
+
+    /**
+     * Stop the dispatcher thread. The command that is currently executed is finished, all waiting commands complete
+     * exceptionally.
+     */
+    public void shutdown() {
+        DispatcherThread thread;
+        synchronized (lockDispatcher) {
+            thread = _thread;
+            _thread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+
+        thread._stopped = true;
+        thread.interrupt();
+        ArrayList<QueuedCommand<?>> remaining = new ArrayList<QueuedCommand<?>>();
+        thread._queue.drainTo(remaining);
+        for (QueuedCommand<?> queued : remaining) {
+            queued._future.completeExceptionally(new RobotFunctionCallException("Command dispatcher " + _name + " has been shut down"));
+        }
+    }
+
+    private <T> void run(RemoteCommand<T> command, CompletableFuture<T> future) {
+        try {
+            future.complete(command.execute());
+        } catch (Throwable ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    private void dispatch(QueuedCommand<?> queued) {
+        if (_metrics != null) {
+            //The time in the queue replaces the wait for the API lock
+            _metrics.lockAcquired(queued._enqueueNanos);
+        }
+        queued.run();
+        _executedCount.incrementAndGet();
+    }
+
+    /**
+     * A command waiting in the queue
+     *
+     * @param <T> Type of the result
+     */
+    private class QueuedCommand<T> implements Comparable<QueuedCommand<?>> {
+        private final CommandPriority _priority;
+        private final long _sequenceNumber;
+        private final long _enqueueNanos;
+        private final RemoteCommand<T> _command;
+        private final CompletableFuture<T> _future;
+
+        private QueuedCommand(CommandPriority priority, long sequenceNumber, RemoteCommand<T> command) {
+            _priority = priority;
+            _sequenceNumber = sequenceNumber;
+            _enqueueNanos = System.nanoTime();
+            _command = command;
+            _future = new CompletableFuture<T>();
+        }
+
+        private void run() {
+            if (!_future.isDone()) {
+                CommandDispatcher.this.run(_command, _future);
+            }
+        }
+
+        @Override
+        public int compareTo(QueuedCommand<?> other) {
+            int result = _priority.compareTo(other._priority);
+            if (result == 0) {
+                result = Long.compare(_sequenceNumber, other._sequenceNumber);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Thread that executes the commands of its queue until it is stopped
+     */
+    private static class DispatcherThread extends Thread {
+        private final CommandDispatcher _dispatcher;
+        private final PriorityBlockingQueue<QueuedCommand<?>> _queue;
+        private volatile boolean _stopped;
+
+        private DispatcherThread(CommandDispatcher dispatcher, String name) {
+            super(name);
+            _dispatcher = dispatcher;
+            _queue = new PriorityBlockingQueue<QueuedCommand<?>>();
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!_stopped) {
+                QueuedCommand<?> queued;
+                try {
+                    queued = _queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                _dispatcher.dispatch(queued);
+            }
+        }
+    }
+}
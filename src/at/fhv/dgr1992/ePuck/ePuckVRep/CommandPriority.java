@@ -0,0 +1,28 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep;
+
+/**
+ * Priority of a command in the CommandDispatcher. Commands with a higher priority (declared first) are executed
+ * before waiting commands with a lower priority, commands with the same priority in the order they were submitted.
+ */
+public enum CommandPriority {
+    /**
+     * Connecting, disconnecting and controlling the simulation
+     */
+    Control,
+    /**
+     * Setting the motor speeds
+     */
+    Motor,
+    /**
+     * Reading the sensors and the pose
+     */
+    Sensor,
+    /**
+     * Reading the camera image
+     */
+    Camera,
+    /**
+     * Sampling of metrics and other housekeeping
+     */
+    Background
+}
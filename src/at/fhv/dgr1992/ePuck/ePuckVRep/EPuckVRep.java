@@ -2,6 +2,10 @@ package at.fhv.dgr1992.ePuck.ePuckVRep;
 
 import at.fhv.dgr1992.ePuck.ePuckVRep.exceptions.StepSimNotPossibleException;
 import at.fhv.dgr1992.ePuck.ePuckVRep.exceptions.SynchrounusModeNotActivatedException;
+import at.fhv.dgr1992.ePuck.ePuckVRep.remote.InstrumentedRemoteApiClient;
+import at.fhv.dgr1992.ePuck.ePuckVRep.remote.NativeRemoteApiClient;
+import at.fhv.dgr1992.ePuck.ePuckVRep.remote.RemoteApiClient;
+import at.fhv.dgr1992.ePuck.ePuckVRep.remote.RemoteApiMetrics;
 import at.fhv.dgr1992.exceptions.CameraNotEnabledException;
 import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
 import at.fhv.dgr1992.exceptions.SensorNotEnabledException;
@@ -9,22 +13,45 @@ import at.fhv.dgr1992.exceptions.VelocityLimitException;
 import coppelia.*;
 import at.fhv.dgr1992.differentialWheels.*;
 import at.fhv.dgr1992.ePuck.EPuck;
+import at.fhv.dgr1992.ePuck.RefreshPolicy;
+import at.fhv.dgr1992.ePuck.RefreshScheduler;
+import at.fhv.dgr1992.ePuck.TickResult;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The class "EPuckVRep" encapsulates the ePuck robot in a scene of the VRep simulator for a controller: it represents a proxy of the ePuck for the controller.
  */
 public class EPuckVRep extends EPuck {
 
-    private remoteApi _vrepRemote;
+    private RemoteApiClient _vrepRemote;
+    private RemoteApiMetrics _remoteApiMetrics;
+    private CommandDispatcher _dispatcher;
+    private RefreshScheduler.ScheduledRefresh _metricsSampling;
+    private MotorCommandChannel _motorCommandChannel;
     private int _port;
     private String _ipAddress;
     private boolean _synchronous;
     private int _clientID;
     private String _signalName;
+    private volatile CameraMode _cameraMode;
+    private String _cameraSensorName;
+    private int _cameraSensorHandle;
+    private boolean _cameraSensorStreaming;
+    private String _allSensSignalName;
+    private CharWA _allSensCharWA;
+    private char[] _lastAllSens;
+    private int _lastAllSensChannels;
+    //Decode buffers of senseAllTogether, only accessed on the dispatcher thread
+    private final double[] _proximityBuffer = new double[_numProximitySeonsors];
+    private final double[] _lightBuffer = new double[_numLightSensors];
+    private final double[] _groundBuffer = new double[3];
+    private final double[] _accelerationBuffer = new double[3];
+    private final double[] _wheelEncodingBuffer = new double[2];
     private static double MAXVEL = (120 * Math.PI / 180); //to be verified on real ePuck
 
-    private final Object lockAPI = new Object();
-
     /**
      * Creates a new instance of the EPuckVRep in asynchronous mode and with a max velocity of maxVel = (120 * Math.PI / 180).
      *
@@ -34,7 +61,7 @@ public class EPuckVRep extends EPuck {
      */
     public EPuckVRep(String robotName, String ipAddress, int port) {
         super(robotName, MAXVEL, 64, 64);
-        init(robotName, ipAddress, port, false);
+        init(robotName, ipAddress, port, false, new NativeRemoteApiClient());
     }
 
     /**
@@ -47,7 +74,7 @@ public class EPuckVRep extends EPuck {
      */
     public EPuckVRep(String robotName, String ipAddress, int port, boolean synchronous) {
         super(robotName, MAXVEL, 64, 64);
-        init(robotName, ipAddress, port, synchronous);
+        init(robotName, ipAddress, port, synchronous, new NativeRemoteApiClient());
     }
 
     /**
@@ -61,7 +88,23 @@ public class EPuckVRep extends EPuck {
      */
     public EPuckVRep(String robotName, String ipAddress, int port, double maxVelocity, boolean synchronous) {
         super(robotName, maxVelocity, 64, 64);
-        init(robotName, ipAddress, port, synchronous);
+        init(robotName, ipAddress, port, synchronous, new NativeRemoteApiClient());
+    }
+
+    /**
+     * Creates a new instance of the EPuckVRep that talks to VRep over the given remote API client.
+     * Use a NioRemoteApiClient to run without the native remote API library.
+     *
+     * @param robotName       Name of the robot inside VRep.
+     * @param ipAddress       IP- address of the computer where VRep is running.
+     * @param port            Port the robot is mapped to.
+     * @param maxVelocity     Maximum velocity that the ePuck can drive.
+     * @param synchronous     Set to true to control the simulator in single steps.
+     * @param remoteApiClient Client used for all calls to the remote API.
+     */
+    public EPuckVRep(String robotName, String ipAddress, int port, double maxVelocity, boolean synchronous, RemoteApiClient remoteApiClient) {
+        super(robotName, maxVelocity, 64, 64);
+        init(robotName, ipAddress, port, synchronous, remoteApiClient);
     }
 
     /**
@@ -71,16 +114,27 @@ public class EPuckVRep extends EPuck {
      * @param ipAddress   IP- address of the computer where VRep is running.
      * @param port        Port the robot is mapped to.
      * @param synchronous Set to true to control the simulator in single steps.
+     * @param remoteApiClient Client used for all calls to the remote API.
      */
-    private void init(String robotName, String ipAddress, int port, boolean synchronous) {
+    private void init(String robotName, String ipAddress, int port, boolean synchronous, RemoteApiClient remoteApiClient) {
         _ipAddress = ipAddress;
         _port = port;
         _signalName = "epuck" + port;
         _synchronous = false;
         _clientID = -1;
         _robotName = robotName;
-        _vrepRemote = new remoteApi();
+        _remoteApiMetrics = new RemoteApiMetrics(robotName);
+        _vrepRemote = new InstrumentedRemoteApiClient(remoteApiClient, _remoteApiMetrics);
+        _dispatcher = new CommandDispatcher(robotName, _remoteApiMetrics);
         _synchronous = synchronous;
+        _cameraMode = CameraMode.ScriptCall;
+        _cameraSensorName = robotName + "_camera";
+        _cameraSensorHandle = -1;
+        _cameraSensorStreaming = false;
+        _allSensSignalName = _signalName + "_allSens";
+        _allSensCharWA = new CharWA(0);
+        _lastAllSens = new char[0];
+        _lastAllSensChannels = 0;
     }
 
     //region connect and disconnect
@@ -93,29 +147,36 @@ public class EPuckVRep extends EPuck {
      */
     @Override
     public boolean connect() throws RobotFunctionCallException {
-        _clientID = _vrepRemote.simxStart(_ipAddress, _port, true, true, 5000, 5);
+        _clientID = _dispatcher.execute(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                return _vrepRemote.simxStart(_ipAddress, _port, true, true, 5000, 5);
+            }
+        });
 
         if (_clientID != -1) {
             System.out.println("Connected to remote API server of Vrep with clientID: " + _clientID);
             _connected = true;
 
             //Trigger all sensors and the camera
-            CharWA str = new CharWA("");
-            //simxGetStringSignal requires a signal value, as _allSens and _camera doesn't need a value just send an empty string
-            synchronized (lockAPI) {
-                _vrepRemote.simxGetStringSignal(_clientID, _signalName + "_allSens", str, _vrepRemote.simx_opmode_streaming);
-                _vrepRemote.simxGetStringSignal(_clientID, _signalName + "_camera", str, _vrepRemote.simx_opmode_streaming);
-            }
+            final CharWA str = new CharWA("");
 
             //Set the velocity to 0
             FloatWA myfloat = new FloatWA(2);
             myfloat.getArray()[0] = (float) 0.0;
             myfloat.getArray()[1] = (float) 0.0;
             //From the FloatWA we generate the CharWA
-            str = new CharWA(myfloat.getCharArrayFromArray().toString());
-            synchronized (lockAPI) {
-                _vrepRemote.simxGetStringSignal(_clientID, _signalName + "_velocities", str, _vrepRemote.simx_opmode_streaming);
-            }
+            final CharWA velocities = new CharWA(myfloat.getCharArrayFromArray().toString());
+            _dispatcher.execute(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Void>() {
+                @Override
+                public Void execute() {
+                    //simxGetStringSignal requires a signal value, as _allSens and _camera doesn't need a value just send an empty string
+                    _vrepRemote.simxGetStringSignal(_clientID, _signalName + "_allSens", str, remoteApi.simx_opmode_streaming);
+                    _vrepRemote.simxGetStringSignal(_clientID, _signalName + "_camera", str, remoteApi.simx_opmode_streaming);
+                    _vrepRemote.simxGetStringSignal(_clientID, _signalName + "_velocities", velocities, remoteApi.simx_opmode_streaming);
+                    return null;
+                }
+            });
 
             //Initialise the robot
             initRobotModel();
@@ -130,11 +191,29 @@ public class EPuckVRep extends EPuck {
      */
     @Override
     public void disconnect() {
+        stopMetricsSampling();
+        if (_motorCommandChannel != null) {
+            try {
+                //Send the last speeds before the connection is closed
+                _motorCommandChannel.flush(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         if (_connected) {
-            synchronized (lockAPI) {
-                _vrepRemote.simxFinish(_clientID);
+            try {
+                _dispatcher.execute(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Void>() {
+                    @Override
+                    public Void execute() {
+                        _vrepRemote.simxFinish(_clientID);
+                        return null;
+                    }
+                });
+            } catch (RobotFunctionCallException e) {
+                e.printStackTrace();
             }
         }
+        _dispatcher.shutdown();
     }
     //endregion
 
@@ -161,13 +240,15 @@ public class EPuckVRep extends EPuck {
         //Array for the result values
         FloatWA outFloat = new FloatWA(1);
 
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            //Get the wheel diameter from from VRep
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "getWheelDiameterForRemote", null, null, null, null, null, outFloat, null, null, _vrepRemote.simx_opmode_blocking);
-        }
+        int returnCode = _dispatcher.execute(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                //Get the wheel diameter from from VRep
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "getWheelDiameterForRemote", null, null, null, null, null, outFloat, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
 
-        if (returnCode == _vrepRemote.simx_return_ok) {
+        if (returnCode == remoteApi.simx_return_ok) {
             _wheelDiameter = outFloat.getArray()[0];
         } else {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
@@ -188,13 +269,15 @@ public class EPuckVRep extends EPuck {
     private void getWheelDistanceForRemote() throws RobotFunctionCallException {
         //Array for the result values
         FloatWA outFloat = new FloatWA(1);
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            //Get the wheel distance from VRep
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "getWheelDistanceForRemote", null, null, null, null, null, outFloat, null, null, _vrepRemote.simx_opmode_blocking);
-        }
+        int returnCode = _dispatcher.execute(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                //Get the wheel distance from VRep
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "getWheelDistanceForRemote", null, null, null, null, null, outFloat, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
 
-        if (returnCode == _vrepRemote.simx_return_ok) {
+        if (returnCode == remoteApi.simx_return_ok) {
             _wheelDistance = outFloat.getArray()[0];
         } else {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
@@ -217,12 +300,14 @@ public class EPuckVRep extends EPuck {
         //Create array for the value to send and set it
         FloatWA inFloat = new FloatWA(1);
         inFloat.getArray()[0] = (float) maxVelocity;
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            //Set the max velocity
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "setMaxVelocityForRemote", null, inFloat, null, null, null, null, null, null, _vrepRemote.simx_opmode_blocking);
-        }
-        if (returnCode != _vrepRemote.simx_return_ok) {
+        int returnCode = _dispatcher.execute(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                //Set the max velocity
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "setMaxVelocityForRemote", null, inFloat, null, null, null, null, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
+        if (returnCode != remoteApi.simx_return_ok) {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
 
             StringBuilder returnCodeDescriptions = new StringBuilder();
@@ -249,13 +334,21 @@ public class EPuckVRep extends EPuck {
             throw new SensorNotEnabledException("Proximity sensor is not enabled");
         }
 
+        //The script always returns all values, the disabled sensors are masked out afterwards
+        int mask = _proximitySensorMask;
         FloatWA outFloat = new FloatWA(_numProximitySeonsors);
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "getProxSensorsForRemote", null, null, null, null, null, outFloat, null, null, _vrepRemote.simx_opmode_blocking);
-        }
-        if (returnCode == _vrepRemote.simx_return_ok) {
-            return floatArrayToDoubleArray(outFloat.getArray());
+        int returnCode = _dispatcher.execute(CommandPriority.Sensor, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "getProxSensorsForRemote", null, null, null, null, null, outFloat, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
+        if (returnCode == remoteApi.simx_return_ok) {
+            float[] floats = outFloat.getArray();
+            if (floats.length != _numProximitySeonsors) {
+                throw new RobotFunctionCallException("Refreshing proximity sensor values failed. Expected " + _numProximitySeonsors + " values but received " + floats.length);
+            }
+            return maskValues(floats, mask);
         } else {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
 
@@ -295,11 +388,13 @@ public class EPuckVRep extends EPuck {
         }
 
         FloatWA outFloat = new FloatWA(_numGroundSensors);
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "getGroundSensorForRemote", null, null, null, null, null, outFloat, null, null, _vrepRemote.simx_opmode_blocking);
-        }
-        if (returnCode == _vrepRemote.simx_return_ok) {
+        int returnCode = _dispatcher.execute(CommandPriority.Sensor, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "getGroundSensorForRemote", null, null, null, null, null, outFloat, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
+        if (returnCode == remoteApi.simx_return_ok) {
             return floatArrayToDoubleArray(outFloat.getArray());
         } else {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
@@ -328,11 +423,13 @@ public class EPuckVRep extends EPuck {
 
         //Accelerometer delivers x,y and z acceleration
         FloatWA outFloat = new FloatWA(3);
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "getAccelerometerForRemote", null, null, null, null, null, outFloat, null, null, _vrepRemote.simx_opmode_blocking);
-        }
-        if (returnCode == _vrepRemote.simx_return_ok) {
+        int returnCode = _dispatcher.execute(CommandPriority.Sensor, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "getAccelerometerForRemote", null, null, null, null, null, outFloat, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
+        if (returnCode == remoteApi.simx_return_ok) {
             return new Acceleration(new double[]{outFloat.getArray()[0], outFloat.getArray()[1], outFloat.getArray()[2]});
         } else {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
@@ -360,11 +457,13 @@ public class EPuckVRep extends EPuck {
 
         //Wheel encoding delivers left and right value
         FloatWA outFloat = new FloatWA(2);
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "getWheelEncodingSensorForRemote", null, null, null, null, null, outFloat, null, null, _vrepRemote.simx_opmode_blocking);
-        }
-        if (returnCode == _vrepRemote.simx_return_ok) {
+        int returnCode = _dispatcher.execute(CommandPriority.Sensor, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "getWheelEncodingSensorForRemote", null, null, null, null, null, outFloat, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
+        if (returnCode == remoteApi.simx_return_ok) {
             return new WheelEncode(new double[]{outFloat.getArray()[0], outFloat.getArray()[1]});
         } else {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
@@ -392,12 +491,14 @@ public class EPuckVRep extends EPuck {
 
         //Pose returns x-position,y-position and rotation around z axis
         FloatWA outFloat = new FloatWA(3);
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            //Request Pose
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "getPoseForRemote", null, null, null, null, null, outFloat, null, null, _vrepRemote.simx_opmode_blocking);
-        }
-        if (returnCode == _vrepRemote.simx_return_ok) {
+        int returnCode = _dispatcher.execute(CommandPriority.Sensor, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                //Request Pose
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "getPoseForRemote", null, null, null, null, null, outFloat, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
+        if (returnCode == remoteApi.simx_return_ok) {
             float[] floats = outFloat.getArray();
             Pose pose = new Pose(floatArrayToDoubleArray(floats));
             return pose;
@@ -425,32 +526,130 @@ public class EPuckVRep extends EPuck {
         if (!_cameraEnabled) {
             throw new CameraNotEnabledException("Camera is not enabled");
         }
+        return readCameraImage();
+    }
+
+    /**
+     * Get the camera image from VRep in the current camera mode
+     *
+     * @return Returns the current image of the camera
+     * @throws RobotFunctionCallException
+     */
+    private CameraImage readCameraImage() throws RobotFunctionCallException {
+        if (_cameraMode == CameraMode.StreamedSignal) {
+            return refreshCameraImageFromSignal();
+        } else if (_cameraMode == CameraMode.VisionSensorImage) {
+            return refreshCameraImageFromVisionSensor();
+        }
 
         //Array size: resolutionX*resolutionY*3
         FloatWA outFloat = new FloatWA(_imageWidth * _imageHeight * 3);
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            //Request the float values
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "getCameraSensorsForRemote", null, null, null, null, null, outFloat, null, null, _vrepRemote.simx_opmode_blocking);
-        }
-        if (returnCode == _vrepRemote.simx_return_ok) {
-            //get the float arry of the return value
-            float[] rgbFloatValues = outFloat.getArray();
-
-            //Create a new image object and set each pixel
-            CameraImage tmpImg = new CameraImage(_imageWidth, _imageHeight);
-            for (int y = 0; y < _imageHeight; y++) {
-                for (int x = 0; x < _imageWidth; x++) {
-                    //The values from V-REP are between 0 and 1 so it is necessary to multiply with 255 to get the correct value
-                    int r = (int) (rgbFloatValues[3 * (y * _imageWidth + x) + 0] * 255);
-                    int g = (int) (rgbFloatValues[3 * (y * _imageWidth + x) + 1] * 255);
-                    int b = (int) (rgbFloatValues[3 * (y * _imageWidth + x) + 2] * 255);
-                    //Set the pixel with the corresponding colour. The image returned from V-REP is up-side-down so and with "(_imageHeight - 1) - y" this is corrected so the image has the correct orientation.
-                    tmpImg.setPixel(x, (_imageHeight - 1) - y, r, g, b);
+        int returnCode = _dispatcher.execute(CommandPriority.Camera, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                //Request the float values
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "getCameraSensorsForRemote", null, null, null, null, null, outFloat, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
+        if (returnCode == remoteApi.simx_return_ok) {
+            return SignalDecoder.imageFromRgbFloats(outFloat.getArray(), _imageWidth, _imageHeight);
+        } else {
+            VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
+
+            StringBuilder returnCodeDescriptions = new StringBuilder();
+            for(VRepReturnCode errorCode: vRepReturnCode){
+                returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
+            }
+            throw new RobotFunctionCallException("Refreshing camera image failed. Return code msg from VRep: " + returnCodeDescriptions);
+        }
+    }
+
+    /**
+     * Get the camera image from the camera signal that is streamed since connect(). Reading the signal is a lookup
+     * in the local input buffer of the remote API, so no round trip to VRep is needed.
+     *
+     * @return Returns the latest streamed image or the current image if no frame has been received yet.
+     * @throws RobotFunctionCallException
+     */
+    private CameraImage refreshCameraImageFromSignal() throws RobotFunctionCallException {
+        CharWA inCharWA = new CharWA(1);
+        int returnCode = _dispatcher.execute(CommandPriority.Camera, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                return _vrepRemote.simxGetStringSignal(_clientID, _signalName + "_camera", inCharWA, remoteApi.simx_opmode_buffer);
+            }
+        });
+
+        if (returnCode == remoteApi.simx_return_ok) {
+            FloatWA floatWA = new FloatWA(1);
+            floatWA.initArrayFromCharArray(inCharWA.getArray());
+            float[] rgbFloatValues = floatWA.getArray();
+            if (rgbFloatValues.length < _imageWidth * _imageHeight * 3) {
+                throw new RobotFunctionCallException("Refreshing camera image from signal failed. Expected " + (_imageWidth * _imageHeight * 3) + " values but received " + rgbFloatValues.length);
+            }
+            return SignalDecoder.imageFromRgbFloats(rgbFloatValues, _imageWidth, _imageHeight);
+        } else if (returnCode == remoteApi.simx_return_novalue_flag) {
+            //Nothing streamed yet
+            return _cameraImage;
+        } else {
+            VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
+
+            StringBuilder returnCodeDescriptions = new StringBuilder();
+            for(VRepReturnCode errorCode: vRepReturnCode){
+                returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
+            }
+            throw new RobotFunctionCallException("Refreshing camera image from signal failed. Return code msg from VRep: " + returnCodeDescriptions);
+        }
+    }
+
+    /**
+     * Get the camera image as rgb bytes of the vision sensor. The first call resolves the handle of the vision sensor
+     * and starts streaming, all following calls read the latest image from the local input buffer.
+     *
+     * @return Returns the latest streamed image or the current image if no frame has been received yet.
+     * @throws RobotFunctionCallException
+     */
+    private CameraImage refreshCameraImageFromVisionSensor() throws RobotFunctionCallException {
+        IntWA resolution = new IntWA(2);
+        CharWA image = new CharWA(_imageWidth * _imageHeight * 3);
+        //The state of the vision sensor is only accessed on the dispatcher thread
+        int returnCode = _dispatcher.execute(CommandPriority.Camera, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() throws RobotFunctionCallException {
+                if (_cameraSensorHandle == -1) {
+                    IntW handle = new IntW(-1);
+                    int returnCode = _vrepRemote.simxGetObjectHandle(_clientID, _cameraSensorName, handle, remoteApi.simx_opmode_blocking);
+                    if (returnCode != remoteApi.simx_return_ok) {
+                        VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
+
+                        StringBuilder returnCodeDescriptions = new StringBuilder();
+                        for(VRepReturnCode errorCode: vRepReturnCode){
+                            returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
+                        }
+                        throw new RobotFunctionCallException("Getting handle of vision sensor " + _cameraSensorName + " failed. Return code msg from VRep: " + returnCodeDescriptions);
+                    }
+                    _cameraSensorHandle = handle.getValue();
                 }
+
+                int operationMode = _cameraSensorStreaming ? remoteApi.simx_opmode_buffer : remoteApi.simx_opmode_streaming;
+                int returnCode = _vrepRemote.simxGetVisionSensorImage(_clientID, _cameraSensorHandle, resolution, image, 0, operationMode);
+                _cameraSensorStreaming = true;
+                return returnCode;
+            }
+        });
+
+        if (returnCode == remoteApi.simx_return_ok) {
+            int width = resolution.getArray()[0];
+            int height = resolution.getArray()[1];
+            char[] rgbValues = image.getArray();
+            if (width != _imageWidth || height != _imageHeight || rgbValues.length < width * height * 3) {
+                throw new RobotFunctionCallException("Refreshing camera image from vision sensor failed. Expected " + _imageWidth + "x" + _imageHeight + " but received " + width + "x" + height);
             }
 
-            return tmpImg;
+            return SignalDecoder.imageFromRgbBytes(rgbValues, _imageWidth, _imageHeight);
+        } else if (returnCode == remoteApi.simx_return_novalue_flag) {
+            //Nothing streamed yet
+            return _cameraImage;
         } else {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
 
@@ -458,10 +657,46 @@ public class EPuckVRep extends EPuck {
             for(VRepReturnCode errorCode: vRepReturnCode){
                 returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
             }
-            throw new RobotFunctionCallException("Refreshing camera image failed. Return code msg from VRep: " + returnCodeDescriptions);
+            throw new RobotFunctionCallException("Refreshing camera image from vision sensor failed. Return code msg from VRep: " + returnCodeDescriptions);
         }
     }
 
+    /**
+     * Set how the camera image is acquired from VRep. Default is CameraMode.ScriptCall.
+     *
+     * @param cameraMode the new camera mode
+     */
+    public void setCameraMode(CameraMode cameraMode) {
+        _cameraMode = cameraMode;
+    }
+
+    /**
+     * Set the name of the vision sensor used by CameraMode.VisionSensorImage. Default is the robot name + "_camera".
+     *
+     * @param cameraSensorName name of the vision sensor inside VRep
+     */
+    public void setCameraSensorName(final String cameraSensorName) {
+        //The state of the vision sensor is only accessed on the dispatcher thread, so the change is queued as well
+        _dispatcher.submit(CommandPriority.Camera, new CommandDispatcher.RemoteCommand<Void>() {
+            @Override
+            public Void execute() {
+                _cameraSensorName = cameraSensorName;
+                _cameraSensorHandle = -1;
+                _cameraSensorStreaming = false;
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Get how the camera image is acquired from VRep.
+     *
+     * @return the current camera mode
+     */
+    public CameraMode getCameraMode() {
+        return _cameraMode;
+    }
+
     /**
      * Sets the VRep parameter image cycle
      *
@@ -474,12 +709,14 @@ public class EPuckVRep extends EPuck {
         //Create a int array and assign the imageCycle value
         IntWA outInt = new IntWA(1);
         outInt.getArray()[0] = imageCycle;
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "setImageCycleForRemote", outInt, null, null, null, null, null, null, null, _vrepRemote.simx_opmode_blocking);
-        }
+        int returnCode = _dispatcher.execute(CommandPriority.Camera, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "setImageCycleForRemote", outInt, null, null, null, null, null, null, null, remoteApi.simx_opmode_blocking);
+            }
+        });
         //Check if successful
-        if (returnCode == _vrepRemote.simx_return_ok) {
+        if (returnCode == remoteApi.simx_return_ok) {
             return true;
         } else {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
@@ -495,96 +732,150 @@ public class EPuckVRep extends EPuck {
 
     /**
      * Read all non-camera sensors in one signal call, except for pose.
+     * The signal is received into a reused buffer and only decoded and published if it differs from the last
+     * received signal, so polling faster than the simulation produces new values skips decoding and publishing.
+     * The values are decoded into reused buffers as well. A new signal allocates the published frame and a copy of
+     * each sensor group whose values changed, groups with unchanged values share the arrays of the previous frame.
+     * The hand-off of the call to the dispatcher thread still allocates a few small objects on every call.
+     * The signal always carries the values of all sensors, but only the enabled ones are decoded, see
+     * enableProximitySensors(int[]) and enableLightSensors(int[]). Disabled sensors are Double.NaN.
      *
      * @return true if reading the values was successful.
      * @throws RobotFunctionCallException
      */
     public boolean senseAllTogether() throws RobotFunctionCallException {
-
-        //Create the array for the return values
-        CharWA inCharWA = new CharWA(1);
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            returnCode = _vrepRemote.simxGetStringSignal(_clientID, _signalName + "_allSens", inCharWA, _vrepRemote.simx_opmode_buffer);
-        }
-        //Check if successful
-        if (returnCode == _vrepRemote.simx_return_ok) {
-            double[] values = getDoubleValuesFromCharWA(inCharWA);
-
-            //Get all the needed values
-            synchronized (_proximitySensorValues) {
-                _proximitySensorValues = getValuesOfArray(values, 0, 7);
-            }
-            synchronized (_lightSensorValues) {
-                _lightSensorValues = getValuesOfArray(values, 8, 15);
-            }
-            synchronized (_groundSensorValues) {
-                _groundSensorValues = getValuesOfArray(values, 16, 18);
-            }
-            synchronized (_accelerometerValues) {
-                _accelerometerValues = new Acceleration(getValuesOfArray(values, 19, 21));
-            }
-            synchronized (_wheelEncodeValues) {
-                _wheelEncodeValues = new WheelEncode(getValuesOfArray(values, 22, 23));
+        //The receive buffer and the last signal are only accessed on the dispatcher thread
+        int returnCode = _dispatcher.execute(CommandPriority.Sensor, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                int returnCode = _vrepRemote.simxGetStringSignal(_clientID, _allSensSignalName, _allSensCharWA, remoteApi.simx_opmode_buffer);
+
+                //Check if successful
+                if (returnCode == remoteApi.simx_return_ok) {
+                    char[] chars = _allSensCharWA.getArray();
+                    int channels = getEnabledAllSensChannels();
+                    if (channels == _lastAllSensChannels && Arrays.equals(chars, _lastAllSens)) {
+                        //No new values since the last call
+                        return returnCode;
+                    }
+                    if (_lastAllSens.length != chars.length) {
+                        _lastAllSens = new char[chars.length];
+                    }
+                    System.arraycopy(chars, 0, _lastAllSens, 0, chars.length);
+                    _lastAllSensChannels = channels;
+
+                    //Decode only the enabled values and publish them as one frame. Groups that are not enabled are
+                    //not published and keep their initial Double.NaN values, a group cannot be disabled once enabled
+                    SensorFrame current = getSensorFrame();
+                    double[] proximity = null;
+                    if (_proximitySensorEnabled) {
+                        SignalDecoder.decodeMaskedFloats(chars, 0, _proximitySensorMask, _proximityBuffer);
+                        proximity = changedValues(_proximityBuffer, current.getProximitySensorValues());
+                    }
+                    double[] light = null;
+                    if (_lightSensorsEnabled) {
+                        SignalDecoder.decodeMaskedFloats(chars, 8, _lightSensorMask, _lightBuffer);
+                        light = changedValues(_lightBuffer, current.getLightSensorValues());
+                    }
+                    double[] ground = null;
+                    if (_groundSensorsEnabled) {
+                        SignalDecoder.decodeFloats(chars, 16, _groundBuffer);
+                        ground = changedValues(_groundBuffer, current.getGroundSensorValues());
+                    }
+                    Acceleration acceleration = null;
+                    if (_accelerometerEnabled) {
+                        SignalDecoder.decodeFloats(chars, 19, _accelerationBuffer);
+                        acceleration = current.getAccelerometerValues();
+                        if (acceleration == null || !(sameValue(_accelerationBuffer[0], acceleration.getX()) && sameValue(_accelerationBuffer[1], acceleration.getY()) && sameValue(_accelerationBuffer[2], acceleration.getZ()))) {
+                            acceleration = new Acceleration(_accelerationBuffer.clone());
+                        }
+                    }
+                    WheelEncode wheelEncoding = null;
+                    if (_wheelEncodingEnabled) {
+                        SignalDecoder.decodeFloats(chars, 22, _wheelEncodingBuffer);
+                        wheelEncoding = current.getWheelEncodingValues();
+                        if (wheelEncoding == null || !(sameValue(_wheelEncodingBuffer[0], wheelEncoding.getLeft()) && sameValue(_wheelEncodingBuffer[1], wheelEncoding.getRight()))) {
+                            wheelEncoding = new WheelEncode(_wheelEncodingBuffer.clone());
+                        }
+                    }
+                    publishSensorFrame(proximity, light, ground, acceleration, wheelEncoding, null);
+                }
+                return returnCode;
             }
-
+        });
+        if (returnCode == remoteApi.simx_return_ok) {
             return true;
-        } else {
-            VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
+        }
 
-            StringBuilder returnCodeDescriptions = new StringBuilder();
-            for(VRepReturnCode errorCode: vRepReturnCode){
-                returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
-            }
-            throw new RobotFunctionCallException("fastSensingOverSignal failed. Return code msg from VRep: " + returnCodeDescriptions);
+        VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
+
+        StringBuilder returnCodeDescriptions = new StringBuilder();
+        for(VRepReturnCode errorCode: vRepReturnCode){
+            returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
         }
+        throw new RobotFunctionCallException("fastSensingOverSignal failed. Return code msg from VRep: " + returnCodeDescriptions);
     }
 
     /**
-     * Convert the float[] to a double[]
+     * Values for a new frame: the array of the current frame if the decoded values are the same, otherwise a copy of
+     * the decode buffer.
+     */
+    private static double[] changedValues(double[] decoded, double[] current) {
+        return Arrays.equals(decoded, current) ? current : decoded.clone();
+    }
+
+    private static boolean sameValue(double decoded, double current) {
+        return Double.doubleToLongBits(decoded) == Double.doubleToLongBits(current);
+    }
+
+    /**
+     * Get the channels of the all sensors signal that are decoded: bits 0-7 proximity sensors, bits 8-15 light
+     * sensors, bit 16 ground sensors, bit 17 accelerometer and bit 18 wheel encoding.
      *
-     * @param floatArray
-     * @return
+     * @return bitmask of the enabled channels
      */
-    private double[] floatArrayToDoubleArray(float[] floatArray) {
-        double[] doubleArray = new double[floatArray.length];
-        for (int i = 0; i < floatArray.length; i++) {
-            doubleArray[i] = (double) floatArray[i];
+    private int getEnabledAllSensChannels() {
+        int channels = (getProximitySensorMask() & 0xff) | ((getLightSensorMask() & 0xff) << 8);
+        if (_groundSensorsEnabled) {
+            channels |= 1 << 16;
         }
-        return doubleArray;
+        if (_accelerometerEnabled) {
+            channels |= 1 << 17;
+        }
+        if (_wheelEncodingEnabled) {
+            channels |= 1 << 18;
+        }
+        return channels;
     }
 
     /**
-     * Extracts the double values from the CharWA
+     * Convert the values returned by a script to doubles, the values of the sensors that are not in the mask are
+     * Double.NaN.
      *
-     * @param valuesCharWA
-     * @return
+     * @param floats values of all sensors returned by the script
+     * @param mask   bitmask of the enabled sensors
+     * @return Array with one value per sensor
      */
-    private double[] getDoubleValuesFromCharWA(CharWA valuesCharWA) {
-        FloatWA floatWA = new FloatWA(1);
-        floatWA.initArrayFromCharArray(valuesCharWA.getArray());
-        float[] values = floatWA.getArray();
-        return floatArrayToDoubleArray(values);
+    private static double[] maskValues(float[] floats, int mask) {
+        double[] values = new double[floats.length];
+        for (int i = 0; i < floats.length; i++) {
+            values[i] = (mask & (1 << i)) != 0 ? floats[i] : Double.NaN;
+        }
+        return values;
     }
 
     /**
-     * Gets a specific range of values from the array
+     * Convert the float[] to a double[]
      *
-     * @param values
-     * @param startIndex Index of the first element that needs to be extracted
-     * @param endIndex   Index of the last element that needs to be extracted
-     * @return Array with the extracted values
+     * @param floatArray
+     * @return
      */
-    private double[] getValuesOfArray(double[] values, int startIndex, int endIndex) {
-        //Array to store the values
-        double[] seperatedValues = new double[endIndex - startIndex + 1];
-
-        //Get the values
-        for (int i = startIndex; i <= endIndex; i++) {
-            seperatedValues[i - startIndex] = values[i];
+    private double[] floatArrayToDoubleArray(float[] floatArray) {
+        double[] doubleArray = new double[floatArray.length];
+        for (int i = 0; i < floatArray.length; i++) {
+            doubleArray[i] = (double) floatArray[i];
         }
-
-        return seperatedValues;
+        return doubleArray;
     }
 
     //endregion Updating sensors and camera
@@ -593,71 +884,210 @@ public class EPuckVRep extends EPuck {
 
     /**
      * To be called from a controller when we initialized with synchronous=True. Starts the simulation in synchronous mode to achieve exact simulation independent of the frame rate. One step is performed.
+     * Sensing and camera threads can keep running, their calls are serialized with the steps by the command dispatcher.
      *
      * @throws SynchrounusModeNotActivatedException
      * @throws RobotFunctionCallException
-     * @throws StepSimNotPossibleException
+     * @throws StepSimNotPossibleException not thrown anymore, kept for compatibility
      */
     public void startsim() throws SynchrounusModeNotActivatedException, RobotFunctionCallException, StepSimNotPossibleException {
         if (!_synchronous) {
             throw new SynchrounusModeNotActivatedException("Startsim requires the synchronous mode to have been set in the init method");
         }
-        synchronized (lockAPI) {
-            int returnCode = _vrepRemote.simxStartSimulation(_clientID, _vrepRemote.simx_opmode_blocking);
-            if (returnCode != _vrepRemote.simx_return_ok) {
-                VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
+        _dispatcher.execute(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Void>() {
+            @Override
+            public Void execute() throws RobotFunctionCallException {
+                int returnCode = _vrepRemote.simxStartSimulation(_clientID, remoteApi.simx_opmode_blocking);
+                if (returnCode != remoteApi.simx_return_ok) {
+                    VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
 
-                StringBuilder returnCodeDescriptions = new StringBuilder();
-                for(VRepReturnCode errorCode: vRepReturnCode){
-                    returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
+                    StringBuilder returnCodeDescriptions = new StringBuilder();
+                    for(VRepReturnCode errorCode: vRepReturnCode){
+                        returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
+                    }
+                    throw new RobotFunctionCallException("SimxStartSimulation failed. Return code msg from VRep: " + returnCodeDescriptions);
                 }
-                throw new RobotFunctionCallException("SimxStartSimulation failed. Return code msg from VRep: " + returnCodeDescriptions);
-            }
 
-            returnCode = _vrepRemote.simxSynchronous(_clientID, true);
-            if (returnCode != _vrepRemote.simx_return_ok) {
-                VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
+                returnCode = _vrepRemote.simxSynchronous(_clientID, true);
+                if (returnCode != remoteApi.simx_return_ok) {
+                    VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
 
-                StringBuilder returnCodeDescriptions = new StringBuilder();
-                for(VRepReturnCode errorCode: vRepReturnCode){
-                    returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
+                    StringBuilder returnCodeDescriptions = new StringBuilder();
+                    for(VRepReturnCode errorCode: vRepReturnCode){
+                        returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
+                    }
+                    throw new RobotFunctionCallException("SimxSynchronous failed. Return code msg from VRep: " + returnCodeDescriptions);
                 }
-                throw new RobotFunctionCallException("SimxSynchronous failed. Return code msg from VRep: " + returnCodeDescriptions);
+                triggerSteps(1);
+                return null;
             }
-            stepsim(1);
-        }
+        });
     }
 
     /**
      * Perform the specified number of steps in the simulator. Requires the instance to be initialized in synchronous mode.
+     * Sensing and camera threads can keep running, their calls are serialized with the steps by the command dispatcher.
      *
      * @param steps number of steps to simulate
      * @throws SynchrounusModeNotActivatedException
-     * @throws StepSimNotPossibleException
+     * @throws StepSimNotPossibleException not thrown anymore, kept for compatibility
      * @throws RobotFunctionCallException
      */
-    public void stepsim(int steps) throws SynchrounusModeNotActivatedException, StepSimNotPossibleException, RobotFunctionCallException {
+    public void stepsim(final int steps) throws SynchrounusModeNotActivatedException, StepSimNotPossibleException, RobotFunctionCallException {
         if (!_synchronous) {
             throw new SynchrounusModeNotActivatedException("Startsim requires the synchronous mode to have been set in the init method.");
         }
-        synchronized (lockAPI) {
-            if (_hasOwnCameraThread || _hasOwnSensingThread) {
-                throw new StepSimNotPossibleException("Stepsim is incompatible with sensing or camera threads.");
+        _dispatcher.execute(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Void>() {
+            @Override
+            public Void execute() throws RobotFunctionCallException {
+                triggerSteps(steps);
+                return null;
             }
+        });
+    }
+
+    /**
+     * Create a driver that overlaps the simulation steps with the computation of the controller. Requires the instance
+     * to be initialized in synchronous mode and the simulation to be started with startsim().
+     *
+     * @param stepsPerTick number of simulation steps per control tick
+     * @return new lockstep driver
+     * @throws SynchrounusModeNotActivatedException
+     */
+    public LockstepDriver createLockstepDriver(int stepsPerTick) throws SynchrounusModeNotActivatedException {
+        if (!_synchronous) {
+            throw new SynchrounusModeNotActivatedException("The lockstep driver requires the synchronous mode to have been set in the init method.");
+        }
+        return new LockstepDriver(this, stepsPerTick);
+    }
 
-            int returnCode = 0;
-            for (int i = 0; i < steps; i++) {
-                returnCode = _vrepRemote.simxSynchronousTrigger(_clientID);
-                if (returnCode != _vrepRemote.simx_return_ok) {
+    /**
+     * Trigger simulation steps without waiting for them. The returned future completes when VRep has finished the
+     * steps, which is detected by a ping that VRep only answers after the last triggered step. The trigger and the ping
+     * are one command, so the dispatcher executes no other command until the steps have finished.
+     *
+     * @param steps number of steps to simulate
+     * @return Future of the simulation time in ms after the steps, taken from the header of the reply
+     */
+    CompletableFuture<Integer> submitSteps(final int steps) {
+        return _dispatcher.submit(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() throws RobotFunctionCallException {
+                triggerSteps(steps);
+                int returnCode = _vrepRemote.simxGetPingTime(_clientID, new IntW(0));
+                if (returnCode != remoteApi.simx_return_ok) {
                     VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
 
                     StringBuilder returnCodeDescriptions = new StringBuilder();
                     for(VRepReturnCode errorCode: vRepReturnCode){
                         returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
                     }
-                    throw new RobotFunctionCallException("Triggering single simulation step(SimxSynchronousTrigger) failed. Return code msg from VRep: " + returnCodeDescriptions);
+                    throw new RobotFunctionCallException("Waiting for the simulation step(SimxGetPingTime) failed. Return code msg from VRep: " + returnCodeDescriptions);
                 }
+                return _vrepRemote.simxGetLastCmdTime(_clientID);
+            }
+        });
+    }
+
+    /**
+     * Get the simulation time from the header of the last reply of VRep.
+     *
+     * @return simulation time in ms
+     * @throws RobotFunctionCallException
+     */
+    int readLastCommandTime() throws RobotFunctionCallException {
+        return _dispatcher.execute(CommandPriority.Control, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                return _vrepRemote.simxGetLastCmdTime(_clientID);
             }
+        });
+    }
+
+    /**
+     * Trigger the simulation steps. Has to be called on the dispatcher thread.
+     *
+     * @param steps number of steps to simulate
+     * @throws RobotFunctionCallException
+     */
+    private void triggerSteps(int steps) throws RobotFunctionCallException {
+        int returnCode = 0;
+        for (int i = 0; i < steps; i++) {
+            returnCode = _vrepRemote.simxSynchronousTrigger(_clientID);
+            if (returnCode != remoteApi.simx_return_ok) {
+                VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
+
+                StringBuilder returnCodeDescriptions = new StringBuilder();
+                for(VRepReturnCode errorCode: vRepReturnCode){
+                    returnCodeDescriptions.append(errorCode.getDetailDescription() + " ");
+                }
+                throw new RobotFunctionCallException("Triggering single simulation step(SimxSynchronousTrigger) failed. Return code msg from VRep: " + returnCodeDescriptions);
+            }
+        }
+    }
+    //endregion
+
+    //region Metrics
+
+    /**
+     * Get the latency metrics of all remote API calls of this robot. Register them with registerMBean() to expose them
+     * over JMX.
+     *
+     * @return Remote API metrics
+     */
+    public RemoteApiMetrics getRemoteApiMetrics() {
+        return _remoteApiMetrics;
+    }
+
+    /**
+     * Periodically sample the ping time and the time of the last command and optionally print the metrics.
+     * The sampling runs on the refresh scheduler of the robot.
+     *
+     * @param periodMs   time between two samples in ms
+     * @param dumpStream stream the metrics are printed to after every sample, null to only sample
+     */
+    public synchronized void startMetricsSampling(long periodMs, final PrintStream dumpStream) {
+        stopMetricsSampling();
+        _metricsSampling = _refreshScheduler.create(new Runnable() {
+            @Override
+            public void run() {
+                if (!_connected) {
+                    return;
+                }
+                final IntW pingTime = new IntW(0);
+                int returnCode;
+                try {
+                    returnCode = _dispatcher.execute(CommandPriority.Background, new CommandDispatcher.RemoteCommand<Integer>() {
+                        @Override
+                        public Integer execute() {
+                            int returnCode = _vrepRemote.simxGetPingTime(_clientID, pingTime);
+                            _remoteApiMetrics.sampleLastCmdTime(_vrepRemote.simxGetLastCmdTime(_clientID));
+                            return returnCode;
+                        }
+                    });
+                } catch (RobotFunctionCallException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if (returnCode == remoteApi.simx_return_ok) {
+                    _remoteApiMetrics.samplePingTime(pingTime.getValue());
+                }
+
+                if (dumpStream != null) {
+                    dumpStream.print(_remoteApiMetrics.dump());
+                }
+            }
+        }, periodMs, RefreshPolicy.FixedDelay);
+        _metricsSampling.start();
+    }
+
+    /**
+     * Stop sampling the ping time and printing the metrics.
+     */
+    public synchronized void stopMetricsSampling() {
+        if (_metricsSampling != null) {
+            _metricsSampling.stop();
+            _metricsSampling = null;
         }
     }
     //endregion
@@ -678,11 +1108,100 @@ public class EPuckVRep extends EPuck {
    //         throw new VelocityLimitException("velocity: " + speed.getLeft() + ", " + speed.getLeft() +"-" + _maxVel + " => velocity <= " + _maxVel);
   //      }
 
-        //Store the new motor speeds
-        if (speed.getLeft() != _motorSpeed.getLeft() || speed.getRight() != _motorSpeed.getRight()) {
-            _motorSpeed = speed;
+        if (_motorCommandChannel != null) {
+            //The speed is set past the channel
+            _motorCommandChannel.invalidate();
+        }
+        sendMotorSpeeds(speed, remoteApi.simx_opmode_blocking);
+        return true;
+    }
+
+    /**
+     * Execute one control tick: send the motor speeds, read all sensors together and optionally the camera image.
+     * The motor speeds are sent with simx_opmode_oneshot without waiting for the reply and the sensor values are read
+     * from the buffer of the streamed signal, so neither needs a round trip. Only the camera image in
+     * CameraMode.ScriptCall waits for VRep. The sensor values are the last ones VRep streamed, they do not yet reflect
+     * the speeds sent in the same tick.
+     *
+     * @param speed      Speed of the left and right motor, null to keep the current speeds
+     * @param readCamera true to read the camera image as well
+     * @return Sensor values and camera image of the tick
+     * @throws RobotFunctionCallException
+     * @throws CameraNotEnabledException
+     */
+    @Override
+    public TickResult tick(final Speed speed, final boolean readCamera) throws RobotFunctionCallException, CameraNotEnabledException {
+        if (readCamera && !_cameraEnabled) {
+            throw new CameraNotEnabledException("Camera is not enabled");
         }
 
+        if (speed != null && _motorCommandChannel != null) {
+            //The speed is set past the channel
+            _motorCommandChannel.invalidate();
+        }
+
+        //The whole tick is one command, so no other command gets between the motor speeds and the sensor values
+        CameraImage image = _dispatcher.execute(CommandPriority.Motor, new CommandDispatcher.RemoteCommand<CameraImage>() {
+            @Override
+            public CameraImage execute() throws RobotFunctionCallException {
+                if (speed != null) {
+                    sendMotorSpeeds(speed, remoteApi.simx_opmode_oneshot);
+                }
+
+                senseAllTogether();
+                if (readCamera) {
+                    CameraImage image = readCameraImage();
+                    setCameraImage(image);
+                    return image;
+                }
+                return null;
+            }
+        });
+        return new TickResult(getSensorFrame(), image);
+    }
+
+    /**
+     * Get the dispatcher that executes all remote API calls of this robot. Commands submitted to it are executed in
+     * order of their priority together with the calls of the robot itself.
+     *
+     * @return Command dispatcher of the robot
+     */
+    public CommandDispatcher getCommandDispatcher() {
+        return _dispatcher;
+    }
+
+    /**
+     * The load of another thread queues its remote calls on the dispatcher, so the dispatcher thread itself must
+     * never wait for it.
+     */
+    @Override
+    protected boolean canWaitForSharedLoad() {
+        return !_dispatcher.isDispatcherThread();
+    }
+
+    /**
+     * Get the non-blocking channel for the motor speeds. The channel sends on the worker executor of the refresh scheduler.
+     *
+     * @return Motor command channel of the robot
+     */
+    public synchronized MotorCommandChannel getMotorCommandChannel() {
+        if (_motorCommandChannel == null) {
+            _motorCommandChannel = new MotorCommandChannel(this, _refreshScheduler.getWorkerExecutor());
+        }
+        return _motorCommandChannel;
+    }
+
+    /**
+     * Send the motor speeds to VRep
+     *
+     * @param speed         Speed of the left and right motor, limited to the max velocity
+     * @param operationMode simx_opmode_blocking to wait until VRep has applied the speeds, simx_opmode_oneshot to only send them
+     * @throws RobotFunctionCallException
+     */
+    void sendMotorSpeeds(Speed speed, int operationMode) throws RobotFunctionCallException {
+        //Store the new motor speeds
+        _motorSpeed = speed;
+
         //setVelocitiesForRemote float[] --> [0]= left , [1] = right
         FloatWA speedFloatWA = new FloatWA(2);
         float[] speedFloats = speedFloatWA.getArray();
@@ -692,15 +1211,19 @@ public class EPuckVRep extends EPuck {
         speedFloats[0] =  Math.max(Math.min((float)speedFloats[0], (float)_maxVel), (float)-_maxVel);
         speedFloats[1] =  Math.max(Math.min((float)speedFloats[1], (float)_maxVel), (float)-_maxVel);
 
-        int returnCode = 0;
-        synchronized (lockAPI) {
-            //Send command to VRep
-            returnCode = _vrepRemote.simxCallScriptFunction(_clientID, _robotName, _vrepRemote.sim_scripttype_childscript, "setVelocitiesForRemote", null, speedFloatWA, null, null, null, null, null, null, _vrepRemote.simx_opmode_blocking);
+        int returnCode = _dispatcher.execute(CommandPriority.Motor, new CommandDispatcher.RemoteCommand<Integer>() {
+            @Override
+            public Integer execute() {
+                //Send command to VRep
+                return _vrepRemote.simxCallScriptFunction(_clientID, _robotName, remoteApi.sim_scripttype_childscript, "setVelocitiesForRemote", null, speedFloatWA, null, null, null, null, null, null, operationMode);
+            }
+        });
+        //A oneshot command doesn't wait for the reply, so no value is the expected result
+        if (operationMode == remoteApi.simx_opmode_oneshot) {
+            returnCode &= ~remoteApi.simx_return_novalue_flag;
         }
         //Check if successful
-        if (returnCode == _vrepRemote.simx_return_ok) {
-            return true;
-        } else {
+        if (returnCode != remoteApi.simx_return_ok) {
             VRepReturnCode[] vRepReturnCode = VRepReturnCode.defineReturnCode(returnCode);
 
             StringBuilder returnCodeDescriptions = new StringBuilder();
@@ -709,6 +1232,5 @@ public class EPuckVRep extends EPuck {
             }
             throw new RobotFunctionCallException("setMotorSpeeds left=" + speed.getLeft() + " right=" + speed.getRight() + " failed. Return code msg from VRep: " + returnCodeDescriptions);
         }
-
     }
 }
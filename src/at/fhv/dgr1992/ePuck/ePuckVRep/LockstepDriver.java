@@ -0,0 +1,126 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep;
+
+import at.fhv.dgr1992.differentialWheels.Speed;
+import at.fhv.dgr1992.ePuck.TickResult;
+import at.fhv.dgr1992.exceptions.CameraNotEnabledException;
+import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Drives a controller in lockstep with the simulation in synchronous mode, but overlaps the simulation of the next
+ * step with the computation of the controller. Instead of sense, compute, act, step one after the other every call of
+ * next() waits for the running step, reads the values of this step, sends the motor speeds and already triggers the
+ * next step before it returns the values to the controller.
+ * <p>
+ * The speeds that the controller computed from the values of step k are sent with the call of next() after step
+ * k + 1 has finished and are therefore applied from step k + 2 on, one step later than without overlapping. Every
+ * result is tagged with the simulation time from the header of the reply of VRep.
+ * <p>
+ * A triggered step is one command on the command dispatcher of the robot: the trigger and a blocking ping that VRep
+ * only answers after the step. The dispatcher executes one command at a time, so while a step is simulated every
+ * other call to the robot waits for it, including the calls of sensing and camera threads, the motor command channel
+ * and AsyncEPuck. Only the computation of the controller overlaps with the step. The sensor values only change with
+ * a step in synchronous mode, so the waiting calls do not miss any values.
+ * <p>
+ * A driver is used by one controller thread. Sensing and camera threads of the robot can keep running.
+ */
+public class LockstepDriver {
+    private final EPuckVRep _ePuck;
+    private final int _stepsPerTick;
+    private CompletableFuture<Integer> _runningStep;
+    private long _tickCount;
+    private long _startTime;
+    private double _startSimulationTime;
+    private double _simulationTime;
+
+    /**
+     * Constructs a new driver, created by EPuckVRep.createLockstepDriver.
+     *
+     * @param ePuck        Robot in synchronous mode
+     * @param stepsPerTick number of simulation steps per control tick
+     */
+    LockstepDriver(EPuckVRep ePuck, int stepsPerTick) {
+        if (stepsPerTick <= 0) {
+            throw new IllegalArgumentException("Steps per tick must be positive");
+        }
+        _ePuck = ePuck;
+        _stepsPerTick = stepsPerTick;
+        _simulationTime = Double.NaN;
+    }
+
+    /**
+     * Wait for the running step, read the sensor values (and the camera image) of it, send the motor speeds and
+     * trigger the next step.
+     *
+     * @param speed      Speed of the left and right motor, null to keep the current speeds
+     * @param readCamera true to read the camera image as well
+     * @return Values of the finished step, tagged with its simulation time
+     * @throws RobotFunctionCallException
+     * @throws CameraNotEnabledException
+     */
+    public TickResult next(Speed speed, boolean readCamera) throws RobotFunctionCallException, CameraNotEnabledException {
+        if (_runningStep != null) {
+            CompletableFuture<Integer> runningStep = _runningStep;
+            _runningStep = null;
+            _simulationTime = CommandDispatcher.await(runningStep) / 1000.0;
+        } else {
+            //No step is running on the first call, the values are those of the current state of the simulation
+            _simulationTime = _ePuck.readLastCommandTime() / 1000.0;
+            _startTime = System.nanoTime();
+            _startSimulationTime = _simulationTime;
+        }
+
+        TickResult tick = _ePuck.tick(speed, readCamera);
+        _runningStep = _ePuck.submitSteps(_stepsPerTick);
+        _tickCount++;
+        return new TickResult(tick.getSensorFrame(), tick.getCameraImage(), _simulationTime);
+    }
+
+    /**
+     * Wait until the running step has finished, e.g. before stopping the simulation.
+     *
+     * @throws RobotFunctionCallException
+     */
+    public void finish() throws RobotFunctionCallException {
+        if (_runningStep != null) {
+            CompletableFuture<Integer> runningStep = _runningStep;
+            _runningStep = null;
+            _simulationTime = CommandDispatcher.await(runningStep) / 1000.0;
+        }
+    }
+
+    /**
+     * @return number of simulation steps per control tick
+     */
+    public int getStepsPerTick() {
+        return _stepsPerTick;
+    }
+
+    /**
+     * @return number of ticks since the driver was created
+     */
+    public long getTickCount() {
+        return _tickCount;
+    }
+
+    /**
+     * @return simulation time in s of the last returned values, NaN before the first tick
+     */
+    public double getSimulationTime() {
+        return _simulationTime;
+    }
+
+    /**
+     * Throughput of the lockstep: simulated seconds per wall clock second since the first tick.
+     *
+     * @return simulated seconds per second, 0 before the second tick
+     */
+    public double getRealTimeFactor() {
+        long elapsed = System.nanoTime() - _startTime;
+        if (_tickCount < 2 || elapsed <= 0) {
+            return 0;
+        }
+        return (_simulationTime - _startSimulationTime) / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,236 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep;
+
+import at.fhv.dgr1992.differentialWheels.Speed;
+import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
+import coppelia.remoteApi;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking channel for the motor speeds of an EPuckVRep. Speeds are sent on an executor thread, the caller never
+ * waits for a round trip to VRep:
+ * <ul>
+ * <li>A speed that equals the last sent speed is dropped.</li>
+ * <li>Speeds that are submitted while the previous one is still being sent are collapsed, only the newest is sent.</li>
+ * <li>Without acknowledgement the speed is sent with simx_opmode_oneshot (fire and forget). If an acknowledgement is
+ * requested the speed is sent blocking on the executor thread and the future completes when VRep has applied it.</li>
+ * </ul>
+ * A failure of a fire and forget send is thrown by the next call of send.
+ */
+public class MotorCommandChannel {
+    private final Object lockChannel = new Object();
+    private final EPuckVRep _ePuck;
+    private final Executor _executor;
+    private final Runnable _drainTask;
+    private Speed _pending;
+    private ArrayList<CompletableFuture<Speed>> _pendingAcks;
+    private ArrayList<CompletableFuture<Speed>> _sendingAcks;
+    private boolean _draining;
+    private Speed _lastSent;
+    private RobotFunctionCallException _lastError;
+    private long _submittedCount;
+    private long _sentCount;
+    private long _droppedCount;
+    private long _coalescedCount;
+
+    /**
+     * Constructs a new channel
+     *
+     * @param ePuck    Robot the speeds are sent to
+     * @param executor Executor that sends the speeds
+     */
+    public MotorCommandChannel(EPuckVRep ePuck, Executor executor) {
+        _ePuck = ePuck;
+        _executor = executor;
+        _pendingAcks = new ArrayList<CompletableFuture<Speed>>();
+        _sendingAcks = new ArrayList<CompletableFuture<Speed>>();
+        _drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Send the speed without waiting for VRep.
+     *
+     * @param speed Speed of the left and right motor
+     * @throws RobotFunctionCallException if a previous send failed
+     */
+    public void send(Speed speed) throws RobotFunctionCallException {
+        RobotFunctionCallException lastError;
+        synchronized (lockChannel) {
+            lastError = _lastError;
+            _lastError = null;
+        }
+        if (lastError != null) {
+            throw lastError;
+        }
+        submit(speed, null);
+    }
+
+    /**
+     * Send the speed and get notified when VRep has applied it.
+     *
+     * @param speed Speed of the left and right motor
+     * @return Future that completes with the applied speed, or exceptionally with a RobotFunctionCallException. If the
+     * speed was replaced by a newer one before it was sent, the future completes with the newer speed.
+     */
+    public CompletableFuture<Speed> sendAcknowledged(Speed speed) {
+        CompletableFuture<Speed> ack = new CompletableFuture<Speed>();
+        submit(speed, ack);
+        return ack;
+    }
+
+    /**
+     * Wait until all submitted speeds have been sent.
+     *
+     * @param timeoutMs maximum time to wait in ms
+     * @return true if everything was sent, false if timed out
+     * @throws InterruptedException
+     */
+    public boolean flush(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lockChannel) {
+            while (_draining) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lockChannel.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget the last sent speed, so the next speed is sent even if it is equal. Required if the speed was set on
+     * another way, e.g. with EPuckVRep.setMotorSpeeds.
+     */
+    public void invalidate() {
+        synchronized (lockChannel) {
+            _lastSent = null;
+        }
+    }
+
+    /**
+     * @return Number of submitted speeds
+     */
+    public long getSubmittedCount() {
+        synchronized (lockChannel) {
+            return _submittedCount;
+        }
+    }
+
+    /**
+     * @return Number of speeds that were sent to VRep
+     */
+    public long getSentCount() {
+        synchronized (lockChannel) {
+            return _sentCount;
+        }
+    }
+
+    /**
+     * @return Number of speeds that were dropped because they were equal to the last sent speed
+     */
+    public long getDroppedCount() {
+        synchronized (lockChannel) {
+            return _droppedCount;
+        }
+    }
+
+    /**
+     * @return Number of speeds that were replaced by a newer speed before they were sent
+     */
+    public long getCoalescedCount() {
+        synchronized (lockChannel) {
+            return _coalescedCount;
+        }
+    }
+
+    private void submit(Speed speed, CompletableFuture<Speed> ack) {
+        synchronized (lockChannel) {
+            _submittedCount++;
+            if (!_draining && isEqual(speed, _lastSent)) {
+                _droppedCount++;
+                if (ack != null) {
+                    ack.complete(_lastSent);
+                }
+                return;
+            }
+
+            if (_pending != null) {
+                _coalescedCount++;
+            }
+            _pending = speed;
+            if (ack != null) {
+                _pendingAcks.add(ack);
+            }
+            if (!_draining) {
+                _draining = true;
+                _executor.execute(_drainTask);
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Speed speed;
+            ArrayList<CompletableFuture<Speed>> acks;
+            synchronized (lockChannel) {
+                if (_pending == null) {
+                    _draining = false;
+                    lockChannel.notifyAll();
+                    return;
+                }
+                speed = _pending;
+                _pending = null;
+                if (_pendingAcks.isEmpty() && isEqual(speed, _lastSent)) {
+                    _droppedCount++;
+                    continue;
+                }
+
+                //Swap the lists, so the acks that arrive while sending are collected in the other one
+                acks = _pendingAcks;
+                _pendingAcks = _sendingAcks;
+                _sendingAcks = acks;
+            }
+
+            try {
+                int operationMode = acks.isEmpty() ? remoteApi.simx_opmode_oneshot : remoteApi.simx_opmode_blocking;
+                _ePuck.sendMotorSpeeds(speed, operationMode);
+                synchronized (lockChannel) {
+                    _lastSent = speed;
+                    _sentCount++;
+                }
+                for (CompletableFuture<Speed> ack : acks) {
+                    ack.complete(speed);
+                }
+            } catch (RobotFunctionCallException ex) {
+                synchronized (lockChannel) {
+                    _lastSent = null;
+                    if (acks.isEmpty()) {
+                        _lastError = ex;
+                    }
+                }
+                for (CompletableFuture<Speed> ack : acks) {
+                    ack.completeExceptionally(ex);
+                }
+            } catch (RuntimeException ex) {
+                for (CompletableFuture<Speed> ack : acks) {
+                    ack.completeExceptionally(ex);
+                }
+                ex.printStackTrace();
+            }
+            acks.clear();
+        }
+    }
+
+    private static boolean isEqual(Speed a, Speed b) {
+        return a != null && b != null && a.getLeft() == b.getLeft() && a.getRight() == b.getRight();
+    }
+}
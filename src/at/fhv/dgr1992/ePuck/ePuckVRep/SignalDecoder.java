@@ -0,0 +1,121 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep;
+
+import at.fhv.dgr1992.differentialWheels.CameraImage;
+
+/**
+ * Decodes the values VRep sends to an EPuckVRep: the floats packed into the chars of string signals and the rgb values
+ * of the camera. The methods don't access the remote API, so they can be measured without VRep.
+ */
+public final class SignalDecoder {
+
+    private SignalDecoder() {
+    }
+
+    /**
+     * Decode a range of little endian floats packed into a char array, 4 chars per float (same layout as
+     * FloatWA.initArrayFromCharArray) straight into a double array.
+     *
+     * @param chars      packed float values, one byte per char
+     * @param startIndex index of the first float that needs to be extracted
+     * @param count      number of floats to extract
+     * @return Array with the extracted values
+     */
+    public static double[] decodeFloats(char[] chars, int startIndex, int count) {
+        double[] values = new double[count];
+        decodeFloats(chars, startIndex, values);
+        return values;
+    }
+
+    /**
+     * Decode values.length floats into an existing array.
+     *
+     * @param chars      packed float values, one byte per char
+     * @param startIndex index of the first float that needs to be extracted
+     * @param values     Array the values are written to
+     */
+    public static void decodeFloats(char[] chars, int startIndex, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = decodeFloat(chars, startIndex + i);
+        }
+    }
+
+    /**
+     * Decode the floats of the sensors in the mask, the values of the other sensors are Double.NaN.
+     *
+     * @param chars      packed float values, one byte per char
+     * @param startIndex index of the float of the first sensor
+     * @param numSensors number of sensors
+     * @param mask       bitmask of the sensors to decode
+     * @return Array with one value per sensor
+     */
+    public static double[] decodeMaskedFloats(char[] chars, int startIndex, int numSensors, int mask) {
+        double[] values = new double[numSensors];
+        decodeMaskedFloats(chars, startIndex, mask, values);
+        return values;
+    }
+
+    /**
+     * Decode the floats of the sensors in the mask into an existing array with one value per sensor, the values of
+     * the other sensors are Double.NaN.
+     *
+     * @param chars      packed float values, one byte per char
+     * @param startIndex index of the float of the first sensor
+     * @param mask       bitmask of the sensors to decode
+     * @param values     Array the values are written to
+     */
+    public static void decodeMaskedFloats(char[] chars, int startIndex, int mask, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (mask & (1 << i)) != 0 ? decodeFloat(chars, startIndex + i) : Double.NaN;
+        }
+    }
+
+    /**
+     * Creates a camera image from rgb floats of VRep.
+     *
+     * @param rgbFloatValues r, g and b value of each pixel between 0 and 1, starting with the bottom row
+     * @param width          Width of the image
+     * @param height         Height of the image
+     * @return the image
+     */
+    public static CameraImage imageFromRgbFloats(float[] rgbFloatValues, int width, int height) {
+        CameraImage image = new CameraImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = 3 * (y * width + x);
+                //The values from V-REP are between 0 and 1 so it is necessary to multiply with 255 to get the correct value
+                int r = (int) (rgbFloatValues[index] * 255);
+                int g = (int) (rgbFloatValues[index + 1] * 255);
+                int b = (int) (rgbFloatValues[index + 2] * 255);
+                //The image returned from V-REP is up-side-down
+                image.setPixel(x, (height - 1) - y, r, g, b);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Creates a camera image from the rgb bytes of a vision sensor.
+     *
+     * @param rgbValues r, g and b byte of each pixel, one byte per char, starting with the bottom row
+     * @param width     Width of the image
+     * @param height    Height of the image
+     * @return the image
+     */
+    public static CameraImage imageFromRgbBytes(char[] rgbValues, int width, int height) {
+        CameraImage image = new CameraImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = 3 * (y * width + x);
+                //The image returned from V-REP is up-side-down
+                image.setPixel(x, (height - 1) - y, rgbValues[index] & 255, rgbValues[index + 1] & 255, rgbValues[index + 2] & 255);
+            }
+        }
+        return image;
+    }
+
+    private static double decodeFloat(char[] chars, int index) {
+        int offset = 4 * index;
+        int bits = ((chars[offset + 3] & 0xff) << 24) | ((chars[offset + 2] & 0xff) << 16) | ((chars[offset + 1] & 0xff) << 8) | (chars[offset] & 0xff);
+        return Float.intBitsToFloat(bits);
+    }
+}
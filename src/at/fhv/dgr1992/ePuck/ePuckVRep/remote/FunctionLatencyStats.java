@@ -0,0 +1,100 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep.remote;
+
+/**
+ * Snapshot of the latency statistics of one remote function. All times are in microseconds.
+ */
+public class FunctionLatencyStats {
+    private final String _category;
+    private final String _name;
+    private final long _count;
+    private final long _errorCount;
+    private final long _noValueCount;
+    private final int _lastReturnCode;
+    private final double _wireMean;
+    private final double _wireP50;
+    private final double _wireP99;
+    private final double _wireMax;
+    private final double _lockWaitMean;
+    private final double _lockWaitP99;
+    private final double _lockWaitMax;
+
+    FunctionLatencyStats(String category, String name, long count, long errorCount, long noValueCount, int lastReturnCode, double wireMean, double wireP50, double wireP99, double wireMax, double lockWaitMean, double lockWaitP99, double lockWaitMax) {
+        _category = category;
+        _name = name;
+        _count = count;
+        _errorCount = errorCount;
+        _noValueCount = noValueCount;
+        _lastReturnCode = lastReturnCode;
+        _wireMean = wireMean;
+        _wireP50 = wireP50;
+        _wireP99 = wireP99;
+        _wireMax = wireMax;
+        _lockWaitMean = lockWaitMean;
+        _lockWaitP99 = lockWaitP99;
+        _lockWaitMax = lockWaitMax;
+    }
+
+    /**
+     * @return Kind of the call: script, getSignal, setSignal or simx
+     */
+    public String getCategory() {
+        return _category;
+    }
+
+    /**
+     * @return Script function name, signal name or simx function name
+     */
+    public String getName() {
+        return _name;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * @return Number of calls that returned an error flag, novalue is not counted as error
+     */
+    public long getErrorCount() {
+        return _errorCount;
+    }
+
+    /**
+     * @return Number of calls that returned simx_return_novalue_flag
+     */
+    public long getNoValueCount() {
+        return _noValueCount;
+    }
+
+    public int getLastReturnCode() {
+        return _lastReturnCode;
+    }
+
+    public double getWireMean() {
+        return _wireMean;
+    }
+
+    public double getWireP50() {
+        return _wireP50;
+    }
+
+    public double getWireP99() {
+        return _wireP99;
+    }
+
+    public double getWireMax() {
+        return _wireMax;
+    }
+
+    public double getLockWaitMean() {
+        return _lockWaitMean;
+    }
+
+    public double getLockWaitP99() {
+        return _lockWaitP99;
+    }
+
+    public double getLockWaitMax() {
+        return _lockWaitMax;
+    }
+}
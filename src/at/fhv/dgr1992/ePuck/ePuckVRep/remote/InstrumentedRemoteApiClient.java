@@ -0,0 +1,146 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep.remote;
+
+import coppelia.CharWA;
+import coppelia.FloatWA;
+import coppelia.IntW;
+import coppelia.IntWA;
+import coppelia.StringWA;
+import coppelia.remoteApi;
+
+/**
+ * Remote API client that measures the duration and the return code of every call of another client and records them
+ * in RemoteApiMetrics. Script calls are recorded by function name, signal reads and writes by signal name.
+ */
+public class InstrumentedRemoteApiClient implements RemoteApiClient {
+
+    private RemoteApiClient _client;
+    private RemoteApiMetrics _metrics;
+
+    /**
+     * Constructs a new client
+     *
+     * @param client  Client that executes the calls
+     * @param metrics Metrics the calls are recorded in
+     */
+    public InstrumentedRemoteApiClient(RemoteApiClient client, RemoteApiMetrics metrics) {
+        _client = client;
+        _metrics = metrics;
+    }
+
+    public RemoteApiMetrics getMetrics() {
+        return _metrics;
+    }
+
+    @Override
+    public int simxStart(String connectionAddress, int connectionPort, boolean waitUntilConnected, boolean doNotReconnectOnceDisconnected, int timeOutInMs, int commThreadCycleInMs) {
+        long start = System.nanoTime();
+        int clientID = _client.simxStart(connectionAddress, connectionPort, waitUntilConnected, doNotReconnectOnceDisconnected, timeOutInMs, commThreadCycleInMs);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxStart", System.nanoTime() - start, clientID == -1 ? remoteApi.simx_return_initialize_error_flag : remoteApi.simx_return_ok);
+        return clientID;
+    }
+
+    @Override
+    public void simxFinish(int clientID) {
+        long start = System.nanoTime();
+        _client.simxFinish(clientID);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxFinish", System.nanoTime() - start, remoteApi.simx_return_ok);
+    }
+
+    @Override
+    public int simxGetConnectionId(int clientID) {
+        return _client.simxGetConnectionId(clientID);
+    }
+
+    @Override
+    public int simxGetObjectHandle(int clientID, String objectName, IntW handle, int operationMode) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxGetObjectHandle(clientID, objectName, handle, operationMode);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxGetObjectHandle", System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxGetVisionSensorImage(int clientID, int sensorHandle, IntWA resolution, CharWA image, int options, int operationMode) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxGetVisionSensorImage(clientID, sensorHandle, resolution, image, options, operationMode);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxGetVisionSensorImage", System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxCallScriptFunction(int clientID, String scriptDescription, int options, String functionName, IntWA inInts, FloatWA inFloats, StringWA inStrings, CharWA inBuffer, IntWA outInts, FloatWA outFloats, StringWA outStrings, CharWA outBuffer, int operationMode) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxCallScriptFunction(clientID, scriptDescription, options, functionName, inInts, inFloats, inStrings, inBuffer, outInts, outFloats, outStrings, outBuffer, operationMode);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SCRIPT, functionName, System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxGetStringSignal(int clientID, String signalName, CharWA signalValue, int operationMode) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxGetStringSignal(clientID, signalName, signalValue, operationMode);
+        _metrics.record(RemoteApiMetrics.CATEGORY_GET_SIGNAL, signalName, System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxSetStringSignal(int clientID, String signalName, CharWA signalValue, int operationMode) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxSetStringSignal(clientID, signalName, signalValue, operationMode);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SET_SIGNAL, signalName, System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxStartSimulation(int clientID, int operationMode) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxStartSimulation(clientID, operationMode);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxStartSimulation", System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxStopSimulation(int clientID, int operationMode) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxStopSimulation(clientID, operationMode);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxStopSimulation", System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxSynchronous(int clientID, boolean enable) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxSynchronous(clientID, enable);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxSynchronous", System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxSynchronousTrigger(int clientID) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxSynchronousTrigger(clientID);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxSynchronousTrigger", System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxGetPingTime(int clientID, IntW pingTime) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxGetPingTime(clientID, pingTime);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxGetPingTime", System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxPauseCommunication(int clientID, boolean enable) {
+        long start = System.nanoTime();
+        int returnCode = _client.simxPauseCommunication(clientID, enable);
+        _metrics.record(RemoteApiMetrics.CATEGORY_SIMX, "simxPauseCommunication", System.nanoTime() - start, returnCode);
+        return returnCode;
+    }
+
+    @Override
+    public int simxGetLastCmdTime(int clientID) {
+        return _client.simxGetLastCmdTime(clientID);
+    }
+}
@@ -0,0 +1,93 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep.remote;
+
+import coppelia.*;
+
+/**
+ * Remote API client that delegates to the native remoteApiJava library of VRep (coppelia.remoteApi).
+ */
+public class NativeRemoteApiClient implements RemoteApiClient {
+
+    private remoteApi _vrepRemote;
+
+    /**
+     * Creates a new client. The native library is extracted and loaded with the first instance.
+     */
+    public NativeRemoteApiClient() {
+        _vrepRemote = new remoteApi();
+    }
+
+    @Override
+    public int simxStart(String connectionAddress, int connectionPort, boolean waitUntilConnected, boolean doNotReconnectOnceDisconnected, int timeOutInMs, int commThreadCycleInMs) {
+        return _vrepRemote.simxStart(connectionAddress, connectionPort, waitUntilConnected, doNotReconnectOnceDisconnected, timeOutInMs, commThreadCycleInMs);
+    }
+
+    @Override
+    public void simxFinish(int clientID) {
+        _vrepRemote.simxFinish(clientID);
+    }
+
+    @Override
+    public int simxGetConnectionId(int clientID) {
+        return _vrepRemote.simxGetConnectionId(clientID);
+    }
+
+    @Override
+    public int simxGetObjectHandle(int clientID, String objectName, IntW handle, int operationMode) {
+        return _vrepRemote.simxGetObjectHandle(clientID, objectName, handle, operationMode);
+    }
+
+    @Override
+    public int simxGetVisionSensorImage(int clientID, int sensorHandle, IntWA resolution, CharWA image, int options, int operationMode) {
+        return _vrepRemote.simxGetVisionSensorImage(clientID, sensorHandle, resolution, image, options, operationMode);
+    }
+
+    @Override
+    public int simxCallScriptFunction(int clientID, String scriptDescription, int options, String functionName, IntWA inInts, FloatWA inFloats, StringWA inStrings, CharWA inBuffer, IntWA outInts, FloatWA outFloats, StringWA outStrings, CharWA outBuffer, int operationMode) {
+        return _vrepRemote.simxCallScriptFunction(clientID, scriptDescription, options, functionName, inInts, inFloats, inStrings, inBuffer, outInts, outFloats, outStrings, outBuffer, operationMode);
+    }
+
+    @Override
+    public int simxGetStringSignal(int clientID, String signalName, CharWA signalValue, int operationMode) {
+        return _vrepRemote.simxGetStringSignal(clientID, signalName, signalValue, operationMode);
+    }
+
+    @Override
+    public int simxSetStringSignal(int clientID, String signalName, CharWA signalValue, int operationMode) {
+        return _vrepRemote.simxSetStringSignal(clientID, signalName, signalValue, operationMode);
+    }
+
+    @Override
+    public int simxStartSimulation(int clientID, int operationMode) {
+        return _vrepRemote.simxStartSimulation(clientID, operationMode);
+    }
+
+    @Override
+    public int simxStopSimulation(int clientID, int operationMode) {
+        return _vrepRemote.simxStopSimulation(clientID, operationMode);
+    }
+
+    @Override
+    public int simxSynchronous(int clientID, boolean enable) {
+        return _vrepRemote.simxSynchronous(clientID, enable);
+    }
+
+    @Override
+    public int simxSynchronousTrigger(int clientID) {
+        return _vrepRemote.simxSynchronousTrigger(clientID);
+    }
+
+    @Override
+    public int simxGetPingTime(int clientID, IntW pingTime) {
+        return _vrepRemote.simxGetPingTime(clientID, pingTime);
+    }
+
+    @Override
+    public int simxPauseCommunication(int clientID, boolean enable) {
+        return _vrepRemote.simxPauseCommunication(clientID, enable);
+    }
+
+    @Override
+    public int simxGetLastCmdTime(int clientID) {
+        return _vrepRemote.simxGetLastCmdTime(clientID);
+    }
+}
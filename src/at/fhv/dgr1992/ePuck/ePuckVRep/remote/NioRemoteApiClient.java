@@ -0,0 +1,900 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep.remote;
+
+import coppelia.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pure Java implementation of the legacy remote API client. It speaks the simx wire protocol directly over a
+ * non-blocking SocketChannel, so no native library has to be loaded and no JNI call is needed per command.
+ * <p>
+ * Like the native client every connection has its own communication thread. It sends all queued commands as one
+ * message every commThreadCycleInMs (or immediately for blocking commands) and stores the replies in an inbox
+ * from which simx_opmode_buffer calls are served.
+ * <p>
+ * The messages are the same as the ones of the native client, NioRemoteApiClientWireTest checks them against messages
+ * recorded from the native library. Like the native client the crc field of the message header is written as 0 and
+ * not checked in replies.
+ * <p>
+ * Split operation modes are not supported and return simx_return_illegal_opmode_flag.
+ */
+public class NioRemoteApiClient implements RemoteApiClient {
+
+    /**
+     * Max size of a socket packet including the packet header
+     */
+    private static final int SOCKET_MAX_PACKET_SIZE = 1300;
+    /**
+     * Packet header: [1 (ushort)][data size (ushort)][packets left (ushort)]
+     */
+    private static final int SOCKET_HEADER_SIZE = 6;
+    /**
+     * time in ms
+     */
+    private static final int REPLY_WAIT_TIMEOUT_IN_MS = 5000;
+
+    private final Map<Integer, Connection> _connections = new ConcurrentHashMap<Integer, Connection>();
+    private final AtomicInteger _nextClientID = new AtomicInteger(0);
+
+    //region connect and disconnect
+
+    @Override
+    public int simxStart(String connectionAddress, int connectionPort, boolean waitUntilConnected, boolean doNotReconnectOnceDisconnected, int timeOutInMs, int commThreadCycleInMs) {
+        int clientID = _nextClientID.getAndIncrement();
+        Connection connection = new Connection(clientID, new InetSocketAddress(connectionAddress, connectionPort), doNotReconnectOnceDisconnected, Math.abs(timeOutInMs), Math.max(1, commThreadCycleInMs));
+
+        boolean connected = connection.open();
+        if (!connected && (waitUntilConnected || doNotReconnectOnceDisconnected)) {
+            return -1;
+        }
+
+        _connections.put(clientID, connection);
+        connection.start();
+        return clientID;
+    }
+
+    @Override
+    public void simxFinish(int clientID) {
+        if (clientID == -1) {
+            for (Connection connection : _connections.values()) {
+                connection.finish();
+            }
+            _connections.clear();
+        } else {
+            Connection connection = _connections.remove(clientID);
+            if (connection != null) {
+                connection.finish();
+            }
+        }
+    }
+
+    @Override
+    public int simxGetConnectionId(int clientID) {
+        Connection connection = _connections.get(clientID);
+        if (connection == null) {
+            return -1;
+        }
+        synchronized (connection._lock) {
+            return connection._connected ? clientID : -1;
+        }
+    }
+    //endregion
+
+    //region simx functions
+
+    @Override
+    public int simxGetObjectHandle(int clientID, String objectName, final IntW handle, int operationMode) {
+        return execute(clientID, SimxCommand.GET_OBJECT_HANDLE, stringIdentification(objectName), null, operationMode, true, new ReplyDecoder() {
+            @Override
+            public void decode(byte[] data, int offset, int length) {
+                if (length >= 4) {
+                    handle.setValue(ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN).getInt());
+                }
+            }
+        });
+    }
+
+    @Override
+    public int simxGetVisionSensorImage(int clientID, int sensorHandle, final IntWA resolution, final CharWA image, int options, int operationMode) {
+        //Bit 0 of the options selects a greyscale image
+        int command = (options & 1) != 0 ? SimxCommand.GET_VISION_SENSOR_IMAGE_BW : SimxCommand.GET_VISION_SENSOR_IMAGE_RGB;
+        return execute(clientID, command, intIdentification(sensorHandle), null, operationMode, true, new ReplyDecoder() {
+            @Override
+            public void decode(byte[] data, int offset, int length) {
+                //Reply: [resolution x][resolution y][pixel bytes]
+                if (length < 8) {
+                    return;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+                int[] resolutionValues = resolution.getLength() == 2 ? resolution.getArray() : resolution.getNewArray(2);
+                resolutionValues[0] = buffer.getInt();
+                resolutionValues[1] = buffer.getInt();
+
+                int size = length - 8;
+                char[] pixels = image.getLength() == size ? image.getArray() : image.getNewArray(size);
+                for (int i = 0; i < size; i++) {
+                    pixels[i] = (char) (data[offset + 8 + i] & 0xff);
+                }
+            }
+        });
+    }
+
+    @Override
+    public int simxCallScriptFunction(int clientID, String scriptDescription, int options, String functionName, IntWA inInts, FloatWA inFloats, StringWA inStrings, CharWA inBuffer, final IntWA outInts, final FloatWA outFloats, final StringWA outStrings, final CharWA outBuffer, int operationMode) {
+        //Identification: [options][scriptDescription\0][functionName\0]
+        byte[] script = scriptDescription.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] function = functionName.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer identification = ByteBuffer.allocate(4 + script.length + 1 + function.length + 1).order(ByteOrder.LITTLE_ENDIAN);
+        identification.putInt(options).put(script).put((byte) 0).put(function).put((byte) 0);
+
+        byte[] pureData = null;
+        if ((operationMode & SimxCommand.OPMODE_MASK) != remoteApi.simx_opmode_buffer) {
+            pureData = encodeScriptArguments(inInts, inFloats, inStrings, inBuffer);
+        }
+
+        //Every call is executed, so a call must not replace a queued call of the same function
+        return execute(clientID, SimxCommand.CALL_SCRIPT_FUNCTION, identification.array(), pureData, operationMode, false, new ReplyDecoder() {
+            @Override
+            public void decode(byte[] data, int offset, int length) {
+                decodeScriptResults(data, offset, length, outInts, outFloats, outStrings, outBuffer);
+            }
+        });
+    }
+
+    @Override
+    public int simxGetStringSignal(int clientID, String signalName, final CharWA signalValue, int operationMode) {
+        return execute(clientID, SimxCommand.GET_STRING_SIGNAL, stringIdentification(signalName), null, operationMode, true, new ReplyDecoder() {
+            @Override
+            public void decode(byte[] data, int offset, int length) {
+                char[] chars = signalValue.getArray();
+                if (chars.length != length) {
+                    chars = signalValue.getNewArray(length);
+                }
+                for (int i = 0; i < length; i++) {
+                    chars[i] = (char) (data[offset + i] & 0xff);
+                }
+            }
+        });
+    }
+
+    @Override
+    public int simxSetStringSignal(int clientID, String signalName, CharWA signalValue, int operationMode) {
+        char[] chars = signalValue.getArray();
+        byte[] pureData = new byte[chars.length];
+        for (int i = 0; i < chars.length; i++) {
+            pureData[i] = (byte) chars[i];
+        }
+        return execute(clientID, SimxCommand.SET_STRING_SIGNAL, stringIdentification(signalName), pureData, operationMode, true, null);
+    }
+
+    @Override
+    public int simxStartSimulation(int clientID, int operationMode) {
+        return execute(clientID, SimxCommand.START_PAUSE_STOP_SIMULATION, intIdentification(SimxCommand.SIMULATION_START), null, operationMode, true, null);
+    }
+
+    @Override
+    public int simxStopSimulation(int clientID, int operationMode) {
+        return execute(clientID, SimxCommand.START_PAUSE_STOP_SIMULATION, intIdentification(SimxCommand.SIMULATION_STOP), null, operationMode, true, null);
+    }
+
+    @Override
+    public int simxSynchronous(int clientID, boolean enable) {
+        int command = enable ? SimxCommand.SYNCHRONOUS_ENABLE : SimxCommand.SYNCHRONOUS_DISABLE;
+        return execute(clientID, command, new byte[0], null, remoteApi.simx_opmode_blocking, true, null);
+    }
+
+    @Override
+    public int simxSynchronousTrigger(int clientID) {
+        return execute(clientID, SimxCommand.SYNCHRONOUS_NEXT, new byte[0], null, remoteApi.simx_opmode_blocking, true, null);
+    }
+
+    @Override
+    public int simxGetPingTime(int clientID, IntW pingTime) {
+        //Same as the native client: measure a blocking round trip of a cheap command
+        long start = System.nanoTime();
+        int returnCode = execute(clientID, SimxCommand.GET_INTEGER_PARAMETER, intIdentification(remoteApi.sim_intparam_program_version), null, remoteApi.simx_opmode_blocking, true, null);
+        pingTime.setValue((int) ((System.nanoTime() - start) / 1000000));
+        return returnCode;
+    }
+
+    @Override
+    public int simxPauseCommunication(int clientID, boolean enable) {
+        Connection connection = _connections.get(clientID);
+        if (connection == null) {
+            return remoteApi.simx_return_initialize_error_flag;
+        }
+        synchronized (connection._lock) {
+            connection._paused = enable;
+            if (!enable) {
+                //Send everything that was queued while paused
+                connection.requestFlush();
+            }
+        }
+        return remoteApi.simx_return_ok;
+    }
+
+    @Override
+    public int simxGetLastCmdTime(int clientID) {
+        Connection connection = _connections.get(clientID);
+        if (connection == null) {
+            return 0;
+        }
+        synchronized (connection._lock) {
+            return connection._lastCmdTime;
+        }
+    }
+    //endregion
+
+    //region command execution
+
+    /**
+     * Queue a command for the communication thread and read the reply according to the operation mode.
+     *
+     * @param clientID       ID returned by simxStart
+     * @param command        Command code without operation mode
+     * @param identification Data that identifies the command (e.g. the signal name). Replies are stored per command and identification.
+     * @param pureData       Data sent with the command, may be null
+     * @param operationMode  Operation mode of the command
+     * @param overwritable   true if the command replaces a queued command with the same identification
+     * @param decoder        Reads the pure data of the reply, may be null
+     * @return Return code as defined in coppelia.remoteApi
+     */
+    private int execute(int clientID, int command, byte[] identification, byte[] pureData, int operationMode, boolean overwritable, ReplyDecoder decoder) {
+        Connection connection = _connections.get(clientID);
+        if (connection == null) {
+            return remoteApi.simx_return_initialize_error_flag;
+        }
+
+        int opMode = operationMode & SimxCommand.OPMODE_MASK;
+        CommandKey key = new CommandKey(command, identification, identification.length);
+
+        synchronized (connection._lock) {
+            if (opMode == remoteApi.simx_opmode_remove) {
+                connection._inbox.remove(key);
+                return remoteApi.simx_return_ok;
+            }
+            if (opMode == remoteApi.simx_opmode_buffer) {
+                return readReply(connection._inbox.get(key), decoder);
+            }
+            if (opMode == remoteApi.simx_opmode_oneshot_split || opMode == remoteApi.simx_opmode_streaming_split) {
+                return remoteApi.simx_return_illegal_opmode_flag;
+            }
+
+            OutCommand outCommand = new OutCommand(key, operationMode, pureData, overwritable);
+            if (opMode == remoteApi.simx_opmode_blocking || opMode == remoteApi.simx_opmode_discontinue) {
+                connection._inbox.remove(key);
+            }
+            connection.queue(outCommand);
+
+            if (opMode == remoteApi.simx_opmode_discontinue) {
+                connection.requestFlush();
+                return remoteApi.simx_return_ok;
+            }
+            if (opMode != remoteApi.simx_opmode_blocking) {
+                return readReply(connection._inbox.get(key), decoder);
+            }
+
+            connection.requestFlush();
+            long deadline = System.currentTimeMillis() + REPLY_WAIT_TIMEOUT_IN_MS;
+            while (true) {
+                Reply reply = connection._inbox.get(key);
+                if (reply != null && outCommand._sent && reply._messageID - outCommand._sentInMessage >= 0) {
+                    return readReply(reply, decoder);
+                }
+                if (!connection._running) {
+                    return remoteApi.simx_return_local_error_flag;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return remoteApi.simx_return_timeout_flag;
+                }
+                try {
+                    connection._lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return remoteApi.simx_return_local_error_flag;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode a reply from the inbox. Has to be called while holding the lock of the connection.
+     */
+    private int readReply(Reply reply, ReplyDecoder decoder) {
+        if (reply == null) {
+            return remoteApi.simx_return_novalue_flag;
+        }
+        if ((reply._status & SimxCommand.STATUS_ERROR) != 0) {
+            return remoteApi.simx_return_remote_error_flag;
+        }
+        if (decoder != null) {
+            decoder.decode(reply._data, reply._pureOffset, reply._length - reply._pureOffset);
+        }
+        return remoteApi.simx_return_ok;
+    }
+
+    private static byte[] stringIdentification(String value) {
+        byte[] chars = value.getBytes(StandardCharsets.ISO_8859_1);
+        return Arrays.copyOf(chars, chars.length + 1);
+    }
+
+    private static byte[] intIdentification(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+
+    /**
+     * Encode the input arguments of a script function: [intCount][floatCount][stringCount][bufferSize][ints][floats][strings\0][buffer]
+     */
+    private static byte[] encodeScriptArguments(IntWA inInts, FloatWA inFloats, StringWA inStrings, CharWA inBuffer) {
+        int[] ints = inInts == null ? new int[0] : inInts.getArray();
+        float[] floats = inFloats == null ? new float[0] : inFloats.getArray();
+        String[] strings = inStrings == null ? new String[0] : inStrings.getArray();
+        char[] buffer = inBuffer == null ? new char[0] : inBuffer.getArray();
+
+        int stringSize = 0;
+        for (String s : strings) {
+            stringSize += (s == null ? 0 : s.length()) + 1;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(16 + 4 * ints.length + 4 * floats.length + stringSize + buffer.length).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(ints.length).putInt(floats.length).putInt(strings.length).putInt(buffer.length);
+        for (int i : ints) {
+            data.putInt(i);
+        }
+        for (float f : floats) {
+            data.putFloat(f);
+        }
+        for (String s : strings) {
+            if (s != null) {
+                data.put(s.getBytes(StandardCharsets.ISO_8859_1));
+            }
+            data.put((byte) 0);
+        }
+        for (char c : buffer) {
+            data.put((byte) c);
+        }
+        return data.array();
+    }
+
+    /**
+     * Decode the results of a script function, same layout as the input arguments.
+     */
+    private static void decodeScriptResults(byte[] bytes, int offset, int length, IntWA outInts, FloatWA outFloats, StringWA outStrings, CharWA outBuffer) {
+        if (length < 16) {
+            return;
+        }
+        ByteBuffer data = ByteBuffer.wrap(bytes, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        int intCount = data.getInt();
+        int floatCount = data.getInt();
+        int stringCount = data.getInt();
+        int bufferSize = data.getInt();
+
+        int[] ints = outInts == null ? null : (outInts.getLength() == intCount ? outInts.getArray() : outInts.getNewArray(intCount));
+        for (int i = 0; i < intCount; i++) {
+            int value = data.getInt();
+            if (ints != null) {
+                ints[i] = value;
+            }
+        }
+
+        float[] floats = outFloats == null ? null : (outFloats.getLength() == floatCount ? outFloats.getArray() : outFloats.getNewArray(floatCount));
+        for (int i = 0; i < floatCount; i++) {
+            float value = data.getFloat();
+            if (floats != null) {
+                floats[i] = value;
+            }
+        }
+
+        String[] strings = outStrings == null ? null : outStrings.getNewArray(stringCount);
+        for (int i = 0; i < stringCount; i++) {
+            int start = data.position();
+            while (data.get() != 0) {
+                //Skip to the terminating zero
+            }
+            if (strings != null) {
+                strings[i] = new String(bytes, start, data.position() - start - 1, StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        if (outBuffer != null) {
+            char[] chars = outBuffer.getLength() == bufferSize ? outBuffer.getArray() : outBuffer.getNewArray(bufferSize);
+            for (int i = 0; i < bufferSize; i++) {
+                chars[i] = (char) (data.get() & 0xff);
+            }
+        }
+    }
+    //endregion
+
+    /**
+     * Reads the pure data of a reply while the inbox is locked.
+     */
+    private interface ReplyDecoder {
+        void decode(byte[] data, int offset, int length);
+    }
+
+    /**
+     * Command code plus identification data. Replies and queued commands are stored per key.
+     */
+    private static final class CommandKey {
+        private int _command;
+        private byte[] _identification;
+        private int _length;
+        private int _hash;
+
+        CommandKey(int command, byte[] identification, int length) {
+            set(command, identification, length);
+        }
+
+        void set(int command, byte[] identification, int length) {
+            _command = command;
+            _identification = identification;
+            _length = length;
+            int hash = _command;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + identification[i];
+            }
+            _hash = hash;
+        }
+
+        CommandKey copy() {
+            return new CommandKey(_command, Arrays.copyOf(_identification, _length), _length);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CommandKey)) {
+                return false;
+            }
+            CommandKey other = (CommandKey) obj;
+            if (other._command != _command || other._length != _length || other._hash != _hash) {
+                return false;
+            }
+            for (int i = 0; i < _length; i++) {
+                if (other._identification[i] != _identification[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class OutCommand {
+        private final CommandKey _key;
+        private final int _operationMode;
+        private final byte[] _pureData;
+        private final boolean _overwritable;
+        private boolean _sent;
+        /**
+         * ID of the message that carried the command, valid once sent
+         */
+        private int _sentInMessage;
+
+        OutCommand(CommandKey key, int operationMode, byte[] pureData, boolean overwritable) {
+            _key = key;
+            _operationMode = operationMode;
+            _pureData = pureData == null ? new byte[0] : pureData;
+            _overwritable = overwritable;
+        }
+
+        int size() {
+            return remoteApi.SIMX_SUBHEADER_SIZE + _key._length + _pureData.length;
+        }
+    }
+
+    /**
+     * Last reply received for a command. The data array is reused for every new reply of the same command.
+     */
+    private static final class Reply {
+        private byte[] _data = new byte[64];
+        private int _length;
+        private int _pureOffset;
+        private int _status;
+        private int _simTime;
+        private int _messageID;
+    }
+
+    /**
+     * A connection to one remote API server together with its communication thread.
+     */
+    private static final class Connection implements Runnable {
+        private final int _clientID;
+        private final InetSocketAddress _address;
+        private final boolean _doNotReconnect;
+        private final int _timeOut;
+        private final int _cycleTime;
+
+        private final Object _lock = new Object();
+        private final ArrayList<OutCommand> _outbox = new ArrayList<OutCommand>();
+        private final HashMap<CommandKey, Reply> _inbox = new HashMap<CommandKey, Reply>();
+        private final CommandKey _probeKey = new CommandKey(0, new byte[0], 0);
+        private byte[] _probeIdentification = new byte[256];
+
+        private final ByteBuffer _packetHeader = ByteBuffer.allocateDirect(SOCKET_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer _outMessage = ByteBuffer.allocateDirect(4096).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer _inMessage = ByteBuffer.allocateDirect(65536).order(ByteOrder.LITTLE_ENDIAN);
+
+        private SocketChannel _channel;
+        private Selector _selector;
+        private Thread _thread;
+        private final long _startTime = System.currentTimeMillis();
+
+        private volatile boolean _running;
+        //Guarded by _lock
+        private boolean _connected;
+        private boolean _flushRequested;
+        private boolean _paused;
+        private int _messageID = -1;
+        private int _lastCmdTime;
+
+        Connection(int clientID, InetSocketAddress address, boolean doNotReconnect, int timeOut, int cycleTime) {
+            _clientID = clientID;
+            _address = address;
+            _doNotReconnect = doNotReconnect;
+            _timeOut = timeOut;
+            _cycleTime = cycleTime;
+        }
+
+        void start() {
+            _running = true;
+            _thread = new Thread(this, "simx-" + _clientID + "-" + _address);
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+
+        void finish() {
+            synchronized (_lock) {
+                _running = false;
+                _lock.notifyAll();
+            }
+            if (_thread != null && _thread != Thread.currentThread()) {
+                try {
+                    _thread.join(_timeOut + _cycleTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            close();
+        }
+
+        /**
+         * Queue a command for the next message. An overwritable command replaces an overwritable command with the same
+         * identification that was not sent yet. Has to be called while holding the lock.
+         */
+        void queue(OutCommand command) {
+            if (command._overwritable) {
+                for (int i = 0; i < _outbox.size(); i++) {
+                    OutCommand queued = _outbox.get(i);
+                    if (queued._overwritable && queued._key.equals(command._key)) {
+                        _outbox.set(i, command);
+                        return;
+                    }
+                }
+            }
+            _outbox.add(command);
+        }
+
+        /**
+         * Wake the communication thread so that queued commands are sent without waiting for the next cycle.
+         * Has to be called while holding the lock.
+         */
+        void requestFlush() {
+            _flushRequested = true;
+            _lock.notifyAll();
+        }
+
+        /**
+         * Open the socket channel and wait until connected.
+         *
+         * @return true if connected
+         */
+        boolean open() {
+            try {
+                _selector = Selector.open();
+                _channel = SocketChannel.open();
+                _channel.configureBlocking(false);
+                _channel.socket().setTcpNoDelay(true);
+                SelectionKey key = _channel.register(_selector, SelectionKey.OP_CONNECT);
+                if (!_channel.connect(_address)) {
+                    if (_selector.select(_timeOut) == 0) {
+                        throw new SocketTimeoutException("Connecting to " + _address + " timed out");
+                    }
+                    _channel.finishConnect();
+                }
+                key.interestOps(0);
+                _selector.selectedKeys().clear();
+                synchronized (_lock) {
+                    _connected = true;
+                }
+                return true;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        private void close() {
+            synchronized (_lock) {
+                _connected = false;
+                _lock.notifyAll();
+            }
+            try {
+                if (_channel != null) {
+                    _channel.close();
+                }
+                if (_selector != null) {
+                    _selector.close();
+                }
+            } catch (IOException e) {
+                //Nothing left to do
+            }
+        }
+
+        @Override
+        public void run() {
+            while (_running) {
+                try {
+                    if (!isConnected()) {
+                        if (_doNotReconnect) {
+                            break;
+                        }
+                        Thread.sleep(_cycleTime);
+                        open();
+                        continue;
+                    }
+
+                    waitForNextCycle();
+                    if (!_running) {
+                        break;
+                    }
+
+                    buildMessage();
+                    writeMessage();
+                    readMessage();
+                    handleMessage();
+                } catch (IOException e) {
+                    close();
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            synchronized (_lock) {
+                _running = false;
+                _lock.notifyAll();
+            }
+            close();
+        }
+
+        private boolean isConnected() {
+            synchronized (_lock) {
+                return _connected;
+            }
+        }
+
+        private void waitForNextCycle() throws InterruptedException {
+            synchronized (_lock) {
+                long deadline = System.currentTimeMillis() + _cycleTime;
+                long remaining = _cycleTime;
+                while (_running && (_paused || (!_flushRequested && remaining > 0))) {
+                    //While paused nothing is sent, not even the cyclic message
+                    _lock.wait(_paused ? _cycleTime : remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                _flushRequested = false;
+            }
+        }
+
+        /**
+         * Write all queued commands into the out message. An empty message is sent as well to receive the replies of streaming commands.
+         */
+        private void buildMessage() {
+            synchronized (_lock) {
+                int size = remoteApi.SIMX_HEADER_SIZE;
+                for (OutCommand command : _outbox) {
+                    size += command.size();
+                }
+                if (_outMessage.capacity() < size) {
+                    _outMessage = ByteBuffer.allocateDirect(Math.max(size, 2 * _outMessage.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+                }
+
+                _messageID++;
+
+                _outMessage.clear();
+                _outMessage.position(remoteApi.SIMX_HEADER_SIZE);
+                for (OutCommand command : _outbox) {
+                    int start = _outMessage.position();
+                    int commandSize = command.size();
+                    _outMessage.putInt(start + remoteApi.simx_cmdheaderoffset_mem_size, commandSize);
+                    _outMessage.putInt(start + remoteApi.simx_cmdheaderoffset_full_mem_size, commandSize);
+                    _outMessage.putShort(start + remoteApi.simx_cmdheaderoffset_pdata_offset0, (short) command._key._length);
+                    _outMessage.putInt(start + remoteApi.simx_cmdheaderoffset_pdata_offset1, 0);
+                    _outMessage.putInt(start + remoteApi.simx_cmdheaderoffset_cmd, command._key._command | (command._operationMode & SimxCommand.OPMODE_MASK));
+                    //For streaming commands the lower bits of the operation mode are the delay between two replies
+                    _outMessage.putShort(start + remoteApi.simx_cmdheaderoffset_delay_or_split, (short) (command._operationMode & SimxCommand.CMD_MASK));
+                    _outMessage.putInt(start + remoteApi.simx_cmdheaderoffset_sim_time, 0);
+                    _outMessage.put(start + remoteApi.simx_cmdheaderoffset_status, (byte) (command._overwritable ? 0 : SimxCommand.STATUS_CANNOT_BE_OVERWRITTEN));
+                    _outMessage.put(start + remoteApi.simx_cmdheaderoffset_reserved, (byte) 0);
+                    _outMessage.position(start + remoteApi.SIMX_SUBHEADER_SIZE);
+                    _outMessage.put(command._key._identification, 0, command._key._length);
+                    _outMessage.put(command._pureData);
+                    command._sent = true;
+                    command._sentInMessage = _messageID;
+                }
+                //Streaming commands are stored on the server side, so every command only needs to be sent once
+                _outbox.clear();
+
+                _outMessage.put(remoteApi.simx_headeroffset_version, (byte) SimxCommand.SIMX_VERSION);
+                _outMessage.putInt(remoteApi.simx_headeroffset_message_id, _messageID);
+                _outMessage.putInt(remoteApi.simx_headeroffset_client_time, (int) (System.currentTimeMillis() - _startTime));
+                _outMessage.putInt(remoteApi.simx_headeroffset_server_time, 0);
+                _outMessage.putShort(remoteApi.simx_headeroffset_scene_id, (short) 0);
+                _outMessage.put(remoteApi.simx_headeroffset_server_state, (byte) 0);
+                _outMessage.putShort(remoteApi.simx_headeroffset_crc, (short) 0);
+                _outMessage.flip();
+            }
+        }
+
+        /**
+         * Send the out message split into socket packets.
+         */
+        private void writeMessage() throws IOException {
+            int total = _outMessage.limit();
+            int maxData = SOCKET_MAX_PACKET_SIZE - SOCKET_HEADER_SIZE;
+            int packets = (total + maxData - 1) / maxData;
+            int offset = 0;
+            for (int packetsLeft = packets - 1; packetsLeft >= 0; packetsLeft--) {
+                int size = Math.min(maxData, total - offset);
+
+                _packetHeader.clear();
+                _packetHeader.putShort((short) 1).putShort((short) size).putShort((short) packetsLeft);
+                _packetHeader.flip();
+                writeFully(_packetHeader);
+
+                _outMessage.limit(total);
+                _outMessage.position(offset);
+                _outMessage.limit(offset + size);
+                writeFully(_outMessage);
+                offset += size;
+            }
+            _outMessage.limit(total);
+        }
+
+        /**
+         * Receive all socket packets of the reply into the in message.
+         */
+        private void readMessage() throws IOException {
+            _inMessage.clear();
+            int packetsLeft;
+            do {
+                _packetHeader.clear();
+                readFully(_packetHeader);
+                if (_packetHeader.getShort(0) != 1) {
+                    throw new IOException("Invalid packet header received from " + _address);
+                }
+                int size = _packetHeader.getShort(2) & 0xffff;
+                packetsLeft = _packetHeader.getShort(4) & 0xffff;
+
+                int end = _inMessage.position() + size;
+                if (_inMessage.capacity() < end) {
+                    ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(end, 2 * _inMessage.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+                    _inMessage.flip();
+                    larger.put(_inMessage);
+                    _inMessage = larger;
+                }
+                _inMessage.limit(end);
+                readFully(_inMessage);
+                _inMessage.limit(_inMessage.capacity());
+            } while (packetsLeft > 0);
+            _inMessage.flip();
+        }
+
+        /**
+         * Store the replies of the in message in the inbox and wake up waiting callers.
+         */
+        private void handleMessage() {
+            int size = _inMessage.limit();
+            if (size < remoteApi.SIMX_HEADER_SIZE) {
+                return;
+            }
+
+            synchronized (_lock) {
+                int messageID = _inMessage.getInt(remoteApi.simx_headeroffset_message_id);
+                int offset = remoteApi.SIMX_HEADER_SIZE;
+                while (offset + remoteApi.SIMX_SUBHEADER_SIZE <= size) {
+                    int commandSize = _inMessage.getInt(offset + remoteApi.simx_cmdheaderoffset_mem_size);
+                    if (commandSize < remoteApi.SIMX_SUBHEADER_SIZE || offset + commandSize > size) {
+                        break;
+                    }
+                    int command = _inMessage.getInt(offset + remoteApi.simx_cmdheaderoffset_cmd) & SimxCommand.CMD_MASK;
+                    int identificationLength = _inMessage.getShort(offset + remoteApi.simx_cmdheaderoffset_pdata_offset0) & 0xffff;
+                    int dataStart = offset + remoteApi.SIMX_SUBHEADER_SIZE;
+                    int dataLength = commandSize - remoteApi.SIMX_SUBHEADER_SIZE;
+                    identificationLength = Math.min(identificationLength, dataLength);
+
+                    //Look up the reply without allocating a new key
+                    if (_probeIdentification.length < identificationLength) {
+                        _probeIdentification = new byte[identificationLength];
+                    }
+                    _inMessage.position(dataStart);
+                    _inMessage.get(_probeIdentification, 0, identificationLength);
+                    _probeKey.set(command, _probeIdentification, identificationLength);
+                    Reply reply = _inbox.get(_probeKey);
+                    if (reply == null) {
+                        reply = new Reply();
+                        _inbox.put(_probeKey.copy(), reply);
+                    }
+
+                    if (reply._data.length < dataLength) {
+                        reply._data = new byte[dataLength];
+                    }
+                    _inMessage.position(dataStart);
+                    _inMessage.get(reply._data, 0, dataLength);
+                    reply._length = dataLength;
+                    reply._pureOffset = identificationLength;
+                    reply._status = _inMessage.get(offset + remoteApi.simx_cmdheaderoffset_status);
+                    reply._simTime = _inMessage.getInt(offset + remoteApi.simx_cmdheaderoffset_sim_time);
+                    reply._messageID = messageID;
+                    _lastCmdTime = reply._simTime;
+
+                    offset += commandSize;
+                }
+                _lock.notifyAll();
+            }
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (_channel.write(buffer) == 0) {
+                    awaitReady(SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = _channel.read(buffer);
+                if (read < 0) {
+                    throw new EOFException("Connection to " + _address + " closed by the server");
+                }
+                if (read == 0) {
+                    awaitReady(SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        private void awaitReady(int operation) throws IOException {
+            SelectionKey key = _channel.keyFor(_selector);
+            key.interestOps(operation);
+            try {
+                if (_selector.select(REPLY_WAIT_TIMEOUT_IN_MS) == 0) {
+                    throw new SocketTimeoutException("No data from " + _address + " within " + REPLY_WAIT_TIMEOUT_IN_MS + " ms");
+                }
+            } finally {
+                _selector.selectedKeys().clear();
+                key.interestOps(0);
+            }
+        }
+    }
+}
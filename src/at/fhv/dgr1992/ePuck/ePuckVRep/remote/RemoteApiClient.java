@@ -0,0 +1,77 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep.remote;
+
+import coppelia.CharWA;
+import coppelia.FloatWA;
+import coppelia.IntW;
+import coppelia.IntWA;
+import coppelia.StringWA;
+
+/**
+ * Subset of the legacy remote API (simx functions) that is used to control the ePuck in VRep.
+ * The signatures, return codes and operation modes are the same as in coppelia.remoteApi so both the native
+ * library and the pure Java implementation can be used interchangeably.
+ */
+public interface RemoteApiClient {
+
+    /**
+     * Starts the communication thread with the remote API server.
+     *
+     * @param connectionAddress              IP- address of the computer where VRep is running.
+     * @param connectionPort                 Port of the remote API server.
+     * @param waitUntilConnected             If true the function blocks until connected or timed out.
+     * @param doNotReconnectOnceDisconnected If true the communication thread will not try to reconnect.
+     * @param timeOutInMs                    Connection timeout in ms.
+     * @param commThreadCycleInMs            How often data packets are sent back and forth.
+     * @return The client ID or -1 if the connection failed.
+     */
+    int simxStart(String connectionAddress, int connectionPort, boolean waitUntilConnected, boolean doNotReconnectOnceDisconnected, int timeOutInMs, int commThreadCycleInMs);
+
+    /**
+     * Ends the communication thread. Use -1 to end all running communication threads.
+     *
+     * @param clientID ID returned by simxStart
+     */
+    void simxFinish(int clientID);
+
+    /**
+     * @param clientID ID returned by simxStart
+     * @return The connection ID or -1 if the client is not connected.
+     */
+    int simxGetConnectionId(int clientID);
+
+    int simxGetObjectHandle(int clientID, String objectName, IntW handle, int operationMode);
+
+    int simxGetVisionSensorImage(int clientID, int sensorHandle, IntWA resolution, CharWA image, int options, int operationMode);
+
+    int simxCallScriptFunction(int clientID, String scriptDescription, int options, String functionName, IntWA inInts, FloatWA inFloats, StringWA inStrings, CharWA inBuffer, IntWA outInts, FloatWA outFloats, StringWA outStrings, CharWA outBuffer, int operationMode);
+
+    int simxGetStringSignal(int clientID, String signalName, CharWA signalValue, int operationMode);
+
+    int simxSetStringSignal(int clientID, String signalName, CharWA signalValue, int operationMode);
+
+    int simxStartSimulation(int clientID, int operationMode);
+
+    int simxStopSimulation(int clientID, int operationMode);
+
+    int simxSynchronous(int clientID, boolean enable);
+
+    int simxSynchronousTrigger(int clientID);
+
+    int simxGetPingTime(int clientID, IntW pingTime);
+
+    /**
+     * Pause or resume the communication thread. Commands that are queued while paused are sent together in one
+     * message when the communication is resumed.
+     *
+     * @param clientID ID returned by simxStart
+     * @param enable   true to pause, false to resume
+     * @return Return code as defined in coppelia.remoteApi
+     */
+    int simxPauseCommunication(int clientID, boolean enable);
+
+    /**
+     * @param clientID ID returned by simxStart
+     * @return Simulation time in ms of the last command that was fetched from the server.
+     */
+    int simxGetLastCmdTime(int clientID);
+}
@@ -0,0 +1,244 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep.remote;
+
+import at.fhv.dgr1992.ePuck.metrics.LatencyHistogram;
+import coppelia.remoteApi;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency metrics of the remote API calls of one robot. For every script function, signal and simx function the time
+ * on the wire (the call of the remote API client) and the time waiting for the API (lock or dispatcher queue) are
+ * recorded separately.
+ * Additionally the ping time and the time of the last command can be sampled.
+ */
+public class RemoteApiMetrics implements RemoteApiMetricsMXBean {
+    static final String CATEGORY_SCRIPT = "script";
+    static final String CATEGORY_GET_SIGNAL = "getSignal";
+    static final String CATEGORY_SET_SIGNAL = "setSignal";
+    static final String CATEGORY_SIMX = "simx";
+
+    private final String _name;
+    private final ConcurrentHashMap<String, FunctionMetrics> _scriptFunctions;
+    private final ConcurrentHashMap<String, FunctionMetrics> _getSignals;
+    private final ConcurrentHashMap<String, FunctionMetrics> _setSignals;
+    private final ConcurrentHashMap<String, FunctionMetrics> _simxFunctions;
+    private final LatencyHistogram _pingTimes;
+    private volatile int _pingTime;
+    private volatile int _lastCmdTime;
+    private volatile long _pendingLockWait;
+    private ObjectName _objectName;
+
+    /**
+     * Constructs new metrics
+     *
+     * @param name Name used in the dump and for the JMX registration, e.g. the robot name
+     */
+    public RemoteApiMetrics(String name) {
+        _name = name;
+        _scriptFunctions = new ConcurrentHashMap<String, FunctionMetrics>();
+        _getSignals = new ConcurrentHashMap<String, FunctionMetrics>();
+        _setSignals = new ConcurrentHashMap<String, FunctionMetrics>();
+        _simxFunctions = new ConcurrentHashMap<String, FunctionMetrics>();
+        _pingTimes = new LatencyHistogram();
+        _pingTime = -1;
+        _lastCmdTime = -1;
+        _pendingLockWait = -1;
+    }
+
+    /**
+     * Has to be called as first statement after the API lock has been acquired or a command has been taken from the
+     * queue of the command dispatcher. The wait time is assigned to the next remote call.
+     *
+     * @param lockRequestedNanos System.nanoTime() before the lock was requested or the command was queued
+     */
+    public void lockAcquired(long lockRequestedNanos) {
+        _pendingLockWait = System.nanoTime() - lockRequestedNanos;
+    }
+
+    /**
+     * Record one call of the remote API
+     *
+     * @param category   Kind of the call
+     * @param name       Name of the called function or signal
+     * @param wireNanos  Duration of the call in ns
+     * @param returnCode Return code of the call
+     */
+    void record(String category, String name, long wireNanos, int returnCode) {
+        FunctionMetrics metrics = getFunctionMetrics(category, name);
+        metrics._wire.record(wireNanos);
+
+        long lockWait = _pendingLockWait;
+        if (lockWait >= 0) {
+            metrics._lockWait.record(lockWait);
+            _pendingLockWait = -1;
+        }
+
+        metrics._lastReturnCode = returnCode;
+        if ((returnCode & remoteApi.simx_return_novalue_flag) != 0) {
+            metrics._noValueCount.incrementAndGet();
+        }
+        if ((returnCode & ~remoteApi.simx_return_novalue_flag) != 0) {
+            metrics._errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Store a sampled ping time
+     *
+     * @param pingTime ping time in ms
+     */
+    public void samplePingTime(int pingTime) {
+        _pingTime = pingTime;
+        _pingTimes.record(TimeUnit.MILLISECONDS.toNanos(pingTime));
+    }
+
+    /**
+     * Store a sampled time of the last command
+     *
+     * @param lastCmdTime simulation time in ms
+     */
+    public void sampleLastCmdTime(int lastCmdTime) {
+        _lastCmdTime = lastCmdTime;
+    }
+
+    @Override
+    public List<FunctionLatencyStats> getFunctionStats() {
+        List<FunctionLatencyStats> stats = new ArrayList<FunctionLatencyStats>();
+        addStats(stats, CATEGORY_SCRIPT, _scriptFunctions);
+        addStats(stats, CATEGORY_GET_SIGNAL, _getSignals);
+        addStats(stats, CATEGORY_SET_SIGNAL, _setSignals);
+        addStats(stats, CATEGORY_SIMX, _simxFunctions);
+        return stats;
+    }
+
+    @Override
+    public int getPingTime() {
+        return _pingTime;
+    }
+
+    @Override
+    public double getPingTimeP99() {
+        return _pingTimes.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public int getLastCmdTime() {
+        return _lastCmdTime;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Remote API metrics of ").append(_name)
+                .append(" (ping ").append(_pingTime).append(" ms, p99 ").append(String.format("%.1f", getPingTimeP99()))
+                .append(" ms, last cmd time ").append(_lastCmdTime).append(" ms)\n");
+        builder.append(String.format("%-10s %-34s %8s %6s %7s %10s %10s %10s %10s %10s %10s%n",
+                "category", "name", "count", "errors", "novalue", "wire mean", "wire p50", "wire p99", "wire max", "lock mean", "lock p99"));
+        for (FunctionLatencyStats stats : getFunctionStats()) {
+            builder.append(String.format("%-10s %-34s %8d %6d %7d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    stats.getCategory(), stats.getName(), stats.getCount(), stats.getErrorCount(), stats.getNoValueCount(),
+                    stats.getWireMean(), stats.getWireP50(), stats.getWireP99(), stats.getWireMax(),
+                    stats.getLockWaitMean(), stats.getLockWaitP99()));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void reset() {
+        resetAll(_scriptFunctions);
+        resetAll(_getSignals);
+        resetAll(_setSignals);
+        resetAll(_simxFunctions);
+        _pingTimes.reset();
+    }
+
+    /**
+     * Register the metrics at the platform MBean server as at.fhv.dgr1992.ePuck:type=RemoteApiMetrics,name=(name)
+     *
+     * @throws JMException if the registration failed, e.g. because the name is already registered
+     */
+    public synchronized void registerMBean() throws JMException {
+        if (_objectName == null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("at.fhv.dgr1992.ePuck:type=RemoteApiMetrics,name=" + ObjectName.quote(_name));
+            server.registerMBean(this, objectName);
+            _objectName = objectName;
+        }
+    }
+
+    /**
+     * Remove the registration at the platform MBean server
+     *
+     * @throws JMException if the unregistration failed
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (_objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+            _objectName = null;
+        }
+    }
+
+    private FunctionMetrics getFunctionMetrics(String category, String name) {
+        ConcurrentHashMap<String, FunctionMetrics> functions;
+        if (CATEGORY_SCRIPT.equals(category)) {
+            functions = _scriptFunctions;
+        } else if (CATEGORY_GET_SIGNAL.equals(category)) {
+            functions = _getSignals;
+        } else if (CATEGORY_SET_SIGNAL.equals(category)) {
+            functions = _setSignals;
+        } else {
+            functions = _simxFunctions;
+        }
+
+        FunctionMetrics metrics = functions.get(name);
+        if (metrics == null) {
+            FunctionMetrics created = new FunctionMetrics();
+            metrics = functions.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    private static void addStats(List<FunctionLatencyStats> stats, String category, ConcurrentHashMap<String, FunctionMetrics> functions) {
+        List<String> names = new ArrayList<String>(functions.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            FunctionMetrics metrics = functions.get(name);
+            stats.add(new FunctionLatencyStats(category, name, metrics._wire.getCount(), metrics._errorCount.get(), metrics._noValueCount.get(), metrics._lastReturnCode,
+                    metrics._wire.getMean() / 1e3, metrics._wire.getPercentile(50) / 1e3, metrics._wire.getPercentile(99) / 1e3, metrics._wire.getMax() / 1e3,
+                    metrics._lockWait.getMean() / 1e3, metrics._lockWait.getPercentile(99) / 1e3, metrics._lockWait.getMax() / 1e3));
+        }
+    }
+
+    private static void resetAll(Map<String, FunctionMetrics> functions) {
+        for (FunctionMetrics metrics : functions.values()) {
+            metrics._wire.reset();
+            metrics._lockWait.reset();
+            metrics._errorCount.set(0);
+            metrics._noValueCount.set(0);
+        }
+    }
+
+    /**
+     * Recorded values of one function
+     */
+    private static class FunctionMetrics {
+        private final LatencyHistogram _wire = new LatencyHistogram();
+        private final LatencyHistogram _lockWait = new LatencyHistogram();
+        private final AtomicLong _errorCount = new AtomicLong();
+        private final AtomicLong _noValueCount = new AtomicLong();
+        private volatile int _lastReturnCode;
+    }
+}
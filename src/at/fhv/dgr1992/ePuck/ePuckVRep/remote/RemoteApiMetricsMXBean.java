@@ -0,0 +1,39 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep.remote;
+
+import java.util.List;
+
+/**
+ * JMX view of the remote API metrics of one robot
+ */
+public interface RemoteApiMetricsMXBean {
+
+    /**
+     * @return Latency statistics of every remote function that was called
+     */
+    List<FunctionLatencyStats> getFunctionStats();
+
+    /**
+     * @return Last sampled ping time in ms, -1 if not sampled yet
+     */
+    int getPingTime();
+
+    /**
+     * @return 99th percentile of the sampled ping times in ms
+     */
+    double getPingTimeP99();
+
+    /**
+     * @return Last sampled simulation time of the last command in ms, -1 if not sampled yet
+     */
+    int getLastCmdTime();
+
+    /**
+     * @return All metrics as text
+     */
+    String dump();
+
+    /**
+     * Remove all recorded values
+     */
+    void reset();
+}
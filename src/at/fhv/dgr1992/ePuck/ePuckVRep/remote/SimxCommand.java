@@ -0,0 +1,60 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep.remote;
+
+/**
+ * Command codes of the legacy remote API wire protocol (see extApiInternal.h of the VRep remote API).
+ * The command is combined with the operation mode in the simx_cmdheaderoffset_cmd field of each command header.
+ * <p>
+ * The codes and header values were taken from messages recorded from the native remoteApiJava library shipped in
+ * vRepApiLibraries, NioRemoteApiClientWireTest replays these recordings.
+ */
+final class SimxCommand {
+
+    static final int CMD_MASK = 0x00ffff;
+    static final int OPMODE_MASK = 0xff0000;
+
+    /**
+     * Version of the remote API protocol that is written into every message header.
+     */
+    static final int SIMX_VERSION = 10;
+
+    //Commands without identification data
+    static final int NULL_START = 0x0000;
+    static final int SYNCHRONOUS_ENABLE = NULL_START + 1;
+    static final int SYNCHRONOUS_DISABLE = NULL_START + 2;
+    static final int SYNCHRONOUS_NEXT = NULL_START + 3;
+
+    //Commands identified by one int
+    static final int INT_START = 0x1000;
+    static final int GET_VISION_SENSOR_IMAGE_BW = INT_START + 3;
+    static final int GET_VISION_SENSOR_IMAGE_RGB = INT_START + 4;
+    static final int START_PAUSE_STOP_SIMULATION = INT_START + 7;
+    static final int GET_INTEGER_PARAMETER = INT_START + 33;
+
+    //Commands identified by one string
+    static final int STRING_START = 0x3000;
+    static final int GET_OBJECT_HANDLE = STRING_START + 1;
+    static final int GET_STRING_SIGNAL = STRING_START + 18;
+    static final int SET_STRING_SIGNAL = STRING_START + 21;
+
+    //Commands identified by an int and two strings
+    static final int SCRIPT_STRING_START = 0x3400;
+    static final int CALL_SCRIPT_FUNCTION = SCRIPT_STRING_START + 1;
+
+    //Arguments of START_PAUSE_STOP_SIMULATION
+    static final int SIMULATION_START = 0;
+    static final int SIMULATION_STOP = 2;
+
+    /**
+     * Status bit set by the server if the command failed on the server side.
+     */
+    static final int STATUS_ERROR = 1;
+
+    /**
+     * Status bit set by the client if the command must not be replaced by a newer command with the same
+     * identification (the native client sets it for script function calls).
+     */
+    static final int STATUS_CANNOT_BE_OVERWRITTEN = 1;
+
+    private SimxCommand() {
+    }
+}
@@ -0,0 +1,127 @@
+package at.fhv.dgr1992.ePuck.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of durations in ns with log-linear buckets (like a HdrHistogram): every power of two is split
+ * into 32 linear buckets, so a recorded value is off by at most ~3%. Recording does not lock and does not allocate.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int MAX_SHIFT = 40;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + MAX_SHIFT * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray _counts;
+    private final AtomicLong _count;
+    private final AtomicLong _sum;
+    private final AtomicLong _max;
+
+    /**
+     * Constructs a new empty histogram
+     */
+    public LatencyHistogram() {
+        _counts = new AtomicLongArray(BUCKET_COUNT);
+        _count = new AtomicLong();
+        _sum = new AtomicLong();
+        _max = new AtomicLong();
+    }
+
+    /**
+     * Record one duration
+     *
+     * @param nanos duration in ns, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        _counts.incrementAndGet(bucketIndex(nanos));
+        _count.incrementAndGet();
+        _sum.addAndGet(nanos);
+
+        long max = _max.get();
+        while (nanos > max && !_max.compareAndSet(max, nanos)) {
+            max = _max.get();
+        }
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    public long getCount() {
+        return _count.get();
+    }
+
+    /**
+     * @return Mean of the recorded values in ns, 0 if empty
+     */
+    public double getMean() {
+        long count = _count.get();
+        return count == 0 ? 0 : (double) _sum.get() / count;
+    }
+
+    /**
+     * @return Largest recorded value in ns
+     */
+    public long getMax() {
+        return _max.get();
+    }
+
+    /**
+     * Get the value below which the given share of the recorded values lie.
+     *
+     * @param percentile Percentile between 0 and 100
+     * @return Value in ns, 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long count = _count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += _counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), _max.get());
+            }
+        }
+        return _max.get();
+    }
+
+    /**
+     * Remove all recorded values. Values recorded concurrently to the reset may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            _counts.set(i, 0);
+        }
+        _count.set(0);
+        _sum.set(0);
+        _max.set(0);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        if (shift > MAX_SHIFT) {
+            return BUCKET_COUNT - 1;
+        }
+        int top = (int) (value >> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (top - SUB_BUCKET_HALF);
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long top = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -4,4 +4,8 @@ public class RobotFunctionCallException extends Exception{
     public RobotFunctionCallException(String msg){
         super(msg);
     }
+
+    public RobotFunctionCallException(String msg, Throwable cause){
+        super(msg, cause);
+    }
 }
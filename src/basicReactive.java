@@ -10,7 +10,7 @@ import at.fhv.dgr1992.ePuck.ePuckVRep.exceptions.SynchrounusModeNotActivatedExce
 import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
 import at.fhv.dgr1992.exceptions.SensorNotEnabledException;
 import at.fhv.dgr1992.exceptions.VelocityLimitException;
-import org.apache.commons.math3.linear.*;
+import at.fhv.dgr1992.differentialWheels.BraitenbergEngine;
 import java.util.Arrays;
 
 
@@ -20,10 +20,19 @@ public class basicReactive {
     double maxVel = 120.0 * java.lang.Math.PI / 180.0;  // 4/3 of a full wheel turn
     double noDetectionDistance = 0.05;
 
-    //the next three declarations are just example code, not used in this behavior
+    //the next declarations are just example code, not used in this behavior
+    //speeds = proportionalMatrix * first four proximity values + baseVelocity, e.g. engine.evaluate(epuck.getSensorFrame(), speeds)
     double[][] proportionalMatrixData = new double[][]{{0, 0, 0, 0},{0, 0, 0, 0}};
-    RealMatrix proportionalMatrix = MatrixUtils.createRealMatrix(proportionalMatrixData);
     double[] baseVelocity = new double[]{maxVel / 6.0, maxVel / 6.0};
+    BraitenbergEngine engine = createEngine();
+    double[] speeds = new double[2];
+
+    BraitenbergEngine createEngine() {
+        BraitenbergEngine engine = new BraitenbergEngine(4, 0);
+        engine.setWeights(proportionalMatrixData);
+        engine.setBias(baseVelocity[0], baseVelocity[1]);
+        return engine;
+    }
 
 
 
@@ -8,7 +8,8 @@ import solution.common.DoorController;
  */
 public class BangBangDoorController extends DoorController {
 
-    private void startBehavior() {
+    @Override
+    protected void startBehavior() {
         startEPuck();
         epuck.enableCamera();
         boolean doorFound = false;
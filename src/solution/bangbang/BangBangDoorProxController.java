@@ -1,6 +1,10 @@
 package solution.bangbang;
 
 import at.fhv.dgr1992.differentialWheels.CameraImage;
+import at.fhv.dgr1992.differentialWheels.Sensor;
+import at.fhv.dgr1992.differentialWheels.SensorEvent;
+import at.fhv.dgr1992.differentialWheels.SensorEventListener;
+import at.fhv.dgr1992.differentialWheels.SensorTrigger;
 import solution.common.DoorController;
 
 /**
@@ -8,33 +12,62 @@ import solution.common.DoorController;
  */
 public class BangBangDoorProxController extends DoorController {
 
-    private void startBehavior() {
+    private volatile boolean doorReached = false;
+    private SensorTrigger leftTrigger;
+    private SensorTrigger rightTrigger;
+
+    /**
+     * Watches the distance to the door, the proximity sensors are refreshed in the background. The triggers only mark
+     * the door as reached, the loop of startBehavior stops the robot.
+     */
+    private void watchDoorDistance() {
+        SensorEventListener reached = new SensorEventListener() {
+            @Override
+            public void sensorEvent(SensorEvent event) {
+                doorReached = true;
+            }
+        };
+        leftTrigger = SensorTrigger.below(Sensor.Proximity, FRONT_LEFT, 0.05, 0.005);
+        rightTrigger = SensorTrigger.below(Sensor.Proximity, FRONT_RIGHT, 0.05, 0.005);
+        epuck.registerSensorTrigger(leftTrigger, reached);
+        epuck.registerSensorTrigger(rightTrigger, reached);
+        epuck.setSensorCycleTime(20);
+        epuck.createSensingThread();
+    }
+
+    /**
+     * Stops watching the distance to the door
+     */
+    private void unwatchDoorDistance() {
+        epuck.stopSensingThread();
+        if (leftTrigger != null) {
+            epuck.unregisterSensorTrigger(leftTrigger);
+            epuck.unregisterSensorTrigger(rightTrigger);
+        }
+    }
+
+    @Override
+    protected void startBehavior() {
         startEPuck();
         epuck.enableCamera();
         boolean doorFound = false;
-        boolean keepGoing = true;
-        while (epuck.isConnected() && keepGoing) {
+        while (epuck.isConnected() && !doorReached) {
             try {
                 CameraImage image = epuck.getCameraImage();
                 // Finds the door if it isn't already in the robot's field of view
-                if (!doorFound)
+                if (!doorFound) {
                     doorFound = findDoor(image);
+                    if (doorFound)
+                        watchDoorDistance();
+                }
 
 
                 if (doorFound) {
                     // Calculates the center of the door
                     int center = getCenter(image);
 
-                    // Stops the robot right before crashing into the door
-                    epuck.senseAllTogether();
-                    double[] distVector = epuck.getProximitySensorValues();
-                    if (distVector[FRONT_LEFT] < 0.05 || distVector[FRONT_RIGHT] < 0.05) {
-                        stopDriving();
-                        keepGoing = false;
-                    }
-
                     // Steers the robot depending on the door's center-position
-                    if (keepGoing) {
+                    if (!doorReached) {
                         if (center < 31)
                             turnLeft();
                         else if (center > 33)
@@ -49,6 +82,15 @@ public class BangBangDoorProxController extends DoorController {
                 epuck.disconnect();
             }
         }
+
+        unwatchDoorDistance();
+        if (doorReached) {
+            try {
+                stopDriving();
+            } catch (Exception e) {
+                epuck.disconnect();
+            }
+        }
     }
 
 
@@ -7,7 +7,8 @@ import solution.common.PushController;
  */
 public class BangBangPushController extends PushController {
 
-    private void startBehavior() {
+    @Override
+    protected void startBehavior() {
         startEPuck();
         epuck.enableCamera();
         boolean puckFound = false;
@@ -7,8 +7,15 @@ import solution.common.BasicRobot;
  */
 public class BangBangWallFollowController extends BasicRobot {
 
-    private void startBehavior() {
+    @Override
+    protected void startBehavior() {
         startEPuck();
+        try {
+            // Only the sensors on the left side and in the front are used
+            epuck.enableProximitySensors(new int[]{LEFT, LEFT_FRONT, FRONT_LEFT, FRONT_RIGHT});
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
         boolean wallFound = false;
         boolean positioned = false;
         boolean repositioned;
@@ -0,0 +1,321 @@
+package solution.batch;
+
+import at.fhv.dgr1992.ePuck.EPuck;
+import at.fhv.dgr1992.ePuck.ePuckSim.EPuckSim;
+import at.fhv.dgr1992.ePuck.ePuckSim.SimWorld;
+import solution.common.BasicRobot;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many episodes of a controller in parallel. Every episode gets its own robot backend from the experiment and is
+ * ended when the experiment reports the task as done, when a budget is used up or when the controller returns.
+ * Ending an episode disconnects its robot, which ends the loop of the controllers.
+ */
+public class BatchRunner {
+
+    /**
+     * Interval in ms the episodes are checked for completion and budgets
+     */
+    private static final long CHECK_INTERVAL = 10;
+
+    private final Experiment _experiment;
+    private final int _parallelism;
+    private long _timeBudget;
+    private double _simulationTimeBudget;
+    private long _tickBudget;
+
+    /**
+     * Constructs a new runner
+     *
+     * @param experiment  Setup of the episodes
+     * @param parallelism Number of episodes that run at the same time
+     */
+    public BatchRunner(Experiment experiment, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        _experiment = experiment;
+        _parallelism = parallelism;
+    }
+
+    /**
+     * @param timeBudget Wall clock time in ms after which an episode is ended, 0 for no budget
+     */
+    public void setTimeBudget(long timeBudget) {
+        _timeBudget = timeBudget;
+    }
+
+    /**
+     * @param simulationTimeBudget Simulated time in s after which an episode with an EPuckSim is ended, 0 for no budget
+     */
+    public void setSimulationTimeBudget(double simulationTimeBudget) {
+        _simulationTimeBudget = simulationTimeBudget;
+    }
+
+    /**
+     * @param tickBudget Number of ticks (sensor frames and camera images) after which an episode is ended, 0 for no budget
+     */
+    public void setTickBudget(long tickBudget) {
+        _tickBudget = tickBudget;
+    }
+
+    /**
+     * Run the episodes and wait until all have ended.
+     *
+     * @param episodes Number of episodes
+     * @param baseSeed Seed of the first episode, episode i gets baseSeed + i
+     * @return Results ordered by episode
+     * @throws InterruptedException if interrupted while waiting for the episodes
+     */
+    public List<EpisodeResult> run(int episodes, long baseSeed) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(_parallelism, new ThreadFactory() {
+            private int _count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Episode-" + _count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EpisodeMonitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<EpisodeResult>> futures = new ArrayList<Future<EpisodeResult>>(episodes);
+            for (int i = 0; i < episodes; i++) {
+                futures.add(pool.submit(new EpisodeTask(i, baseSeed + i, monitor)));
+            }
+
+            List<EpisodeResult> results = new ArrayList<EpisodeResult>(episodes);
+            for (int i = 0; i < episodes; i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new EpisodeResult(i, baseSeed + i, EpisodeResult.Outcome.Failed, 0, 0, 0, -1, String.valueOf(e.getCause())));
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+            monitor.shutdownNow();
+        }
+    }
+
+    /**
+     * Write one line per episode and a summary of all episodes.
+     *
+     * @param results Results of the episodes
+     * @param out     Stream the table is written to
+     */
+    public static void writeSummary(List<EpisodeResult> results, PrintStream out) {
+        out.println(String.format(Locale.ROOT, "%7s %20s %-18s %9s %9s %8s %9s %10s", "episode", "seed", "outcome", "time[s]", "wall[ms]", "ticks", "ticks/s", "collisions"));
+        int completed = 0;
+        double[] completionTimes = new double[results.size()];
+        long collisions = 0;
+        double ticksPerSecond = 0;
+        for (EpisodeResult result : results) {
+            out.println(String.format(Locale.ROOT, "%7d %20d %-18s %9.2f %9d %8d %9.1f %10d", result.getEpisode(), result.getSeed(), result.getOutcome(), result.getCompletionTime(), result.getWallTime(), result.getTicks(), result.getTicksPerSecond(), result.getCollisions()));
+            if (result.getError() != null) {
+                out.println("        " + result.getError());
+            }
+            if (result.getOutcome() == EpisodeResult.Outcome.Completed) {
+                completionTimes[completed++] = result.getCompletionTime();
+            }
+            collisions += Math.max(result.getCollisions(), 0);
+            ticksPerSecond += result.getTicksPerSecond();
+        }
+
+        int count = Math.max(results.size(), 1);
+        out.println(String.format(Locale.ROOT, "completed %d of %d episodes", completed, results.size()));
+        if (completed > 0) {
+            Arrays.sort(completionTimes, 0, completed);
+            double sum = 0;
+            for (int i = 0; i < completed; i++) {
+                sum += completionTimes[i];
+            }
+            out.println(String.format(Locale.ROOT, "completion time [s]: mean %.2f, median %.2f, min %.2f, max %.2f", sum / completed, completionTimes[completed / 2], completionTimes[0], completionTimes[completed - 1]));
+        }
+        out.println(String.format(Locale.ROOT, "collisions per episode: %.2f, ticks/s per episode: %.1f", (double) collisions / count, ticksPerSecond / count));
+    }
+
+    /**
+     * Runs one episode on a thread of the pool
+     */
+    private class EpisodeTask implements Callable<EpisodeResult> {
+        private final int _episode;
+        private final long _seed;
+        private final ScheduledExecutorService _monitor;
+        private volatile EpisodeResult.Outcome _outcome;
+        private volatile double _completionTime;
+        private volatile boolean _started;
+        private long _startTime;
+
+        private EpisodeTask(int episode, long seed, ScheduledExecutorService monitor) {
+            _episode = episode;
+            _seed = seed;
+            _monitor = monitor;
+        }
+
+        @Override
+        public EpisodeResult call() {
+            EPuck robot = null;
+            ScheduledFuture<?> check = null;
+            _startTime = System.nanoTime();
+            try {
+                robot = _experiment.createRobot(_episode, _seed);
+                BasicRobot controller = _experiment.createController(_episode);
+
+                final EPuck episodeRobot = robot;
+                check = _monitor.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        check(episodeRobot);
+                    }
+                }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+
+                controller.run(robot);
+
+                if (_outcome == null) {
+                    _completionTime = elapsedTime(robot);
+                    _outcome = _experiment.isComplete(robot) ? EpisodeResult.Outcome.Completed : EpisodeResult.Outcome.Stopped;
+                }
+                return result(robot, null);
+            } catch (Exception e) {
+                _outcome = EpisodeResult.Outcome.Failed;
+                return result(robot, e.toString());
+            } finally {
+                if (check != null) {
+                    check.cancel(false);
+                }
+                if (robot != null) {
+                    robot.stopSensingThread();
+                    robot.disconnect();
+                }
+            }
+        }
+
+        /**
+         * Called periodically on the monitor thread
+         */
+        private void check(EPuck robot) {
+            if (_outcome != null) {
+                return;
+            }
+            //The controller connects the robot, a budget only runs once the episode has started
+            if (!_started) {
+                _started = robot.isConnected();
+                if (!_started) {
+                    return;
+                }
+            }
+
+            EpisodeResult.Outcome outcome = null;
+            try {
+                if (_experiment.isComplete(robot)) {
+                    outcome = EpisodeResult.Outcome.Completed;
+                } else if (_tickBudget > 0 && ticks(robot) >= _tickBudget) {
+                    outcome = EpisodeResult.Outcome.TickBudgetExceeded;
+                } else if (_timeBudget > 0 && System.nanoTime() - _startTime >= TimeUnit.MILLISECONDS.toNanos(_timeBudget)) {
+                    outcome = EpisodeResult.Outcome.TimeBudgetExceeded;
+                } else if (_simulationTimeBudget > 0 && robot instanceof EPuckSim && ((EPuckSim) robot).getSimulationTime() >= _simulationTimeBudget) {
+                    outcome = EpisodeResult.Outcome.TimeBudgetExceeded;
+                }
+            } catch (Exception e) {
+                outcome = EpisodeResult.Outcome.Failed;
+            }
+
+            if (outcome != null) {
+                _completionTime = elapsedTime(robot);
+                _outcome = outcome;
+                robot.disconnect();
+            }
+        }
+
+        private double elapsedTime(EPuck robot) {
+            if (robot instanceof EPuckSim) {
+                return ((EPuckSim) robot).getSimulationTime();
+            }
+            return (System.nanoTime() - _startTime) / 1e9;
+        }
+
+        /**
+         * Every sensor frame the robot published and every camera image it read is a tick of the controller
+         */
+        private long ticks(EPuck robot) {
+            return robot.getSensorFrame().getSequence() + robot.getCameraImageCount();
+        }
+
+        private EpisodeResult result(EPuck robot, String error) {
+            long wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _startTime);
+            long ticks = robot != null ? ticks(robot) : 0;
+            int collisions = robot instanceof EPuckSim ? ((EPuckSim) robot).getCollisionCount() : -1;
+            return new EpisodeResult(_episode, _seed, _outcome, _completionTime, wallTime, ticks, collisions, error);
+        }
+    }
+
+    /**
+     * Drives a door controller towards a blue door in a 1m x 1m arena from random start poses, the episode is
+     * completed when the robot reaches the door.
+     * Arguments: controller class (default solution.bangbang.BangBangDoorController), episodes (100), parallelism
+     * (number of cores), time scale of the simulation (10)
+     */
+    public static void main(String[] args) throws Exception {
+        final String controllerClass = args.length > 0 ? args[0] : "solution.bangbang.BangBangDoorController";
+        int episodes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final double timeScale = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+
+        final SimWorld world = SimWorld.rectangularArena(1, 1);
+        world.addWall(0.4, 0.999, 0.6, 0.999, 0x0000ff);
+
+        BatchRunner runner = new BatchRunner(new Experiment() {
+            @Override
+            public EPuck createRobot(int episode, long seed) {
+                Random random = new Random(seed);
+                EPuckSim robot = new EPuckSim("ePuck" + episode, world.copy(), 0.2 + random.nextDouble() * 0.6, 0.1 + random.nextDouble() * 0.4, (random.nextDouble() * 2 - 1) * Math.PI, false);
+                robot.setTimeScale(timeScale);
+                return robot;
+            }
+
+            @Override
+            public BasicRobot createController(int episode) throws Exception {
+                return (BasicRobot) Class.forName(controllerClass).getDeclaredConstructor().newInstance();
+            }
+
+            @Override
+            public boolean isComplete(EPuck robot) {
+                double dx = ((EPuckSim) robot).getGroundTruthPose().getX() - 0.5;
+                double dy = ((EPuckSim) robot).getGroundTruthPose().getY() - 1;
+                return Math.sqrt(dx * dx + dy * dy) < 0.1;
+            }
+        }, parallelism);
+        runner.setSimulationTimeBudget(120);
+
+        long start = System.currentTimeMillis();
+        List<EpisodeResult> results = runner.run(episodes, 1);
+        writeSummary(results, System.out);
+        System.out.println("total wall clock time " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,119 @@
+package solution.batch;
+
+/**
+ * Metrics of one episode of a BatchRunner
+ */
+public class EpisodeResult {
+
+    /**
+     * How an episode ended
+     */
+    public enum Outcome {
+        /**
+         * The experiment reported the task as done
+         */
+        Completed,
+        /**
+         * The wall clock or simulation time budget was used up
+         */
+        TimeBudgetExceeded,
+        /**
+         * The tick budget was used up
+         */
+        TickBudgetExceeded,
+        /**
+         * The controller returned without completing the task
+         */
+        Stopped,
+        /**
+         * The episode threw an exception
+         */
+        Failed
+    }
+
+    private final int _episode;
+    private final long _seed;
+    private final Outcome _outcome;
+    private final double _completionTime;
+    private final long _wallTime;
+    private final long _ticks;
+    private final int _collisions;
+    private final String _error;
+
+    /**
+     * Constructs a new result
+     *
+     * @param episode        Number of the episode
+     * @param seed           Seed of the episode
+     * @param outcome        How the episode ended
+     * @param completionTime Time in s until the episode ended, simulated time for an EPuckSim
+     * @param wallTime       Wall clock time of the episode in ms
+     * @param ticks          Number of sensor frames the robot published and camera images it read
+     * @param collisions     Number of collisions, -1 if the backend doesn't count them
+     * @param error          Message of the exception if the episode failed, otherwise null
+     */
+    public EpisodeResult(int episode, long seed, Outcome outcome, double completionTime, long wallTime, long ticks, int collisions, String error) {
+        _episode = episode;
+        _seed = seed;
+        _outcome = outcome;
+        _completionTime = completionTime;
+        _wallTime = wallTime;
+        _ticks = ticks;
+        _collisions = collisions;
+        _error = error;
+    }
+
+    public int getEpisode() {
+        return _episode;
+    }
+
+    public long getSeed() {
+        return _seed;
+    }
+
+    public Outcome getOutcome() {
+        return _outcome;
+    }
+
+    /**
+     * @return Time in s until the episode ended, simulated time for an EPuckSim
+     */
+    public double getCompletionTime() {
+        return _completionTime;
+    }
+
+    /**
+     * @return Wall clock time of the episode in ms
+     */
+    public long getWallTime() {
+        return _wallTime;
+    }
+
+    /**
+     * @return Number of sensor frames the robot published and camera images it read
+     */
+    public long getTicks() {
+        return _ticks;
+    }
+
+    /**
+     * @return Ticks per second of wall clock time
+     */
+    public double getTicksPerSecond() {
+        return _wallTime > 0 ? _ticks * 1000.0 / _wallTime : 0;
+    }
+
+    /**
+     * @return Number of collisions, -1 if the backend doesn't count them
+     */
+    public int getCollisions() {
+        return _collisions;
+    }
+
+    /**
+     * @return Message of the exception if the episode failed, otherwise null
+     */
+    public String getError() {
+        return _error;
+    }
+}
@@ -0,0 +1,40 @@
+package solution.batch;
+
+import at.fhv.dgr1992.ePuck.EPuck;
+import solution.common.BasicRobot;
+
+/**
+ * Setup of the episodes a BatchRunner executes. Every episode gets its own robot backend and controller, so the
+ * methods are called concurrently for different episodes.
+ */
+public interface Experiment {
+
+    /**
+     * Create the robot of an episode, e.g. an EPuckSim in a world derived from the seed or an EPuckVRep that
+     * connects to a separate simulator port per episode. The robot is connected by the controller.
+     *
+     * @param episode Number of the episode, starting at 0
+     * @param seed    Seed of the episode
+     * @return Robot backend of the episode
+     * @throws Exception if the robot could not be created
+     */
+    EPuck createRobot(int episode, long seed) throws Exception;
+
+    /**
+     * Create the controller of an episode
+     *
+     * @param episode Number of the episode, starting at 0
+     * @return Controller that drives the robot
+     * @throws Exception if the controller could not be created
+     */
+    BasicRobot createController(int episode) throws Exception;
+
+    /**
+     * Check whether the task of the episode is done, called periodically while the episode runs.
+     *
+     * @param robot Robot of the episode
+     * @return true to end the episode as completed
+     * @throws Exception if the robot could not be queried
+     */
+    boolean isComplete(EPuck robot) throws Exception;
+}
@@ -1,14 +1,19 @@
 package solution.common;
 
 import at.fhv.dgr1992.differentialWheels.Speed;
+import at.fhv.dgr1992.ePuck.ControlLoop;
+import at.fhv.dgr1992.ePuck.EPuck;
+import at.fhv.dgr1992.ePuck.SheddableWork;
 import at.fhv.dgr1992.ePuck.ePuckVRep.EPuckVRep;
 import at.fhv.dgr1992.exceptions.RobotFunctionCallException;
 import at.fhv.dgr1992.exceptions.VelocityLimitException;
 
+import java.util.concurrent.ExecutionException;
+
 /**
  * Basic robot functions class every controller derives from
  */
-public class BasicRobot {
+public abstract class BasicRobot {
     protected final double MIN_SPEED = 0; // min. motor speed
     protected final double MAX_SPEED = 120 * Math.PI / 180; // max. motor speed
 
@@ -22,14 +27,34 @@ public class BasicRobot {
     protected final int BACK_RIGHT = 6;
     protected final int BACK_LEFT = 7;
 
-    protected EPuckVRep epuck; // robot
+    protected EPuck epuck; // robot
+    private boolean useMotorCommandChannel; // send the speeds without waiting for VRep
+
+    /**
+     * Runs the behavior of the controller with the given robot instead of the ePuck in VRep on 127.0.0.1:19999. Returns
+     * when the behavior ends, e.g. because the robot was disconnected.
+     *
+     * @param robot Robot backend, e.g. an EPuckVRep on another port or an EPuckSim
+     */
+    public void run(EPuck robot) {
+        epuck = robot;
+        startBehavior();
+    }
 
     /**
-     * Starts and connects the robot and enables all sensors
+     * Behavior of the controller, implemented by every controller
+     */
+    protected abstract void startBehavior();
+
+    /**
+     * Starts and connects the robot and enables all sensors. Without a given robot the ePuck in VRep on
+     * 127.0.0.1:19999 is used.
      */
     protected void startEPuck() {
         try {
-            epuck = new EPuckVRep("ePuck", "127.0.0.1", 19999, false);
+            if (epuck == null) {
+                epuck = new EPuckVRep("ePuck", "127.0.0.1", 19999, false);
+            }
             if (!epuck.isConnected()) {
                 epuck.connect();
             }
@@ -41,38 +66,115 @@ public class BasicRobot {
         }
     }
 
+    /**
+     * Runs the behavior at a fixed rate until the robot is disconnected. If the loop stops because the behavior failed
+     * repeatedly the robot is disconnected.
+     *
+     * @param frequency Target frequency in Hz
+     * @param behavior  Behavior executed every tick
+     * @return The stopped loop with its tick, deadline miss and jitter statistics
+     */
+    protected ControlLoop runControlLoop(double frequency, ControlLoop.Behavior behavior) {
+        return runControlLoop(frequency, behavior, null);
+    }
+
+    /**
+     * Runs the behavior at a fixed rate until the robot is disconnected. If the loop stops because the behavior failed
+     * repeatedly the robot is disconnected.
+     *
+     * @param frequency     Target frequency in Hz
+     * @param behavior      Behavior executed every tick
+     * @param sheddingOrder Work in the order it is shed when the loop is overloaded, null for the default order
+     * @return The stopped loop with its tick, deadline miss and jitter statistics
+     */
+    protected ControlLoop runControlLoop(double frequency, ControlLoop.Behavior behavior, SheddableWork[] sheddingOrder) {
+        ControlLoop loop = new ControlLoop(epuck, frequency, behavior);
+        if (sheddingOrder != null) {
+            loop.setSheddingOrder(sheddingOrder);
+        }
+        try {
+            loop.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            epuck.disconnect();
+        }
+        return loop;
+    }
+
+    /**
+     * By default the speeds are set blocking, every call waits until the robot has applied them. Control loops that
+     * set the speeds every tick can send them over the motor command channel of VRep instead, so a tick does not wait
+     * for the round trip. A failed send is then thrown by the next call; stopDriving still waits until the robot has
+     * stopped. Robots other than EPuckVRep always set the speeds directly.
+     *
+     * @param use true to send the speeds over the motor command channel
+     */
+    protected void setUseMotorCommandChannel(boolean use) {
+        useMotorCommandChannel = use;
+    }
+
     /**
      * Robot turns clockwise
      */
     protected void turnRight() throws RobotFunctionCallException, VelocityLimitException {
-        epuck.setMotorSpeeds(new Speed(MAX_SPEED, MIN_SPEED));
+        sendSpeed(new Speed(MAX_SPEED, MIN_SPEED));
     }
 
     /**
      * Robot turns counterclockwise
      */
     protected void turnLeft() throws RobotFunctionCallException, VelocityLimitException {
-        epuck.setMotorSpeeds(new Speed(MIN_SPEED, MAX_SPEED));
+        sendSpeed(new Speed(MIN_SPEED, MAX_SPEED));
     }
 
     /**
      * Robot drives forward
      */
     protected void driveForward() throws RobotFunctionCallException, VelocityLimitException {
-        epuck.setMotorSpeeds(new Speed(MAX_SPEED, MAX_SPEED));
+        sendSpeed(new Speed(MAX_SPEED, MAX_SPEED));
     }
 
     /**
-     * Robot stops driving
+     * Robot stops driving. Returns when the robot has stopped, also if the speeds are sent over the motor command
+     * channel.
      */
     protected void stopDriving() throws RobotFunctionCallException, VelocityLimitException {
-        epuck.setMotorSpeeds(new Speed(MIN_SPEED, MIN_SPEED));
+        Speed stop = new Speed(MIN_SPEED, MIN_SPEED);
+        if (!useMotorCommandChannel || !(epuck instanceof EPuckVRep)) {
+            epuck.setMotorSpeeds(stop);
+            return;
+        }
+
+        //Queued behind the speeds sent before, so no earlier speed can overwrite the stop
+        try {
+            ((EPuckVRep) epuck).getMotorCommandChannel().sendAcknowledged(stop).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RobotFunctionCallException) {
+                throw (RobotFunctionCallException) e.getCause();
+            }
+            throw new RobotFunctionCallException("stopDriving failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RobotFunctionCallException("stopDriving was interrupted", e);
+        }
     }
 
     /**
      * Sets the speed for the wheels
      */
     protected void setSpeeds(double left, double right) throws RobotFunctionCallException, VelocityLimitException {
-        epuck.setMotorSpeeds(new Speed(left, right));
+        sendSpeed(new Speed(left, right));
+    }
+
+    /**
+     * Sets the speed blocking, or sends it over the motor command channel of VRep if enabled with
+     * setUseMotorCommandChannel
+     */
+    private void sendSpeed(Speed speed) throws RobotFunctionCallException, VelocityLimitException {
+        if (useMotorCommandChannel && epuck instanceof EPuckVRep) {
+            ((EPuckVRep) epuck).getMotorCommandChannel().send(speed);
+        } else {
+            epuck.setMotorSpeeds(speed);
+        }
     }
 }
@@ -7,7 +7,7 @@ import at.fhv.dgr1992.exceptions.VelocityLimitException;
 /**
  * Functionalities for all DoorControllers
  */
-public class DoorController extends BasicRobot {
+public abstract class DoorController extends BasicRobot {
 
     /**
      * Turns the robot clockwise until the door is found
@@ -15,7 +15,7 @@ public class DoorController extends BasicRobot {
     protected boolean findDoor(CameraImage image) throws RobotFunctionCallException, VelocityLimitException {
         for (int i = 0; i < 64; i++) {
             for (int j = 0; j < 64; j++) {
-                if (image.getPixel(j, i).getRed() == 0) {
+                if (image.red(j, i) == 0) {
                     stopDriving();
                     return true;
                 }
@@ -36,7 +36,7 @@ public class DoorController extends BasicRobot {
         // Finds the left side of the door and saves the height of y
         for (int i = 0; i < 64 && !found; i++) {
             for (int j = 0; j < 64 && !found; j++) {
-                if (image.getPixel(j, i).getRed() == 0) {
+                if (image.red(j, i) == 0) {
                     y = i;
                     result[0] = j;
                     found = true;
@@ -46,7 +46,7 @@ public class DoorController extends BasicRobot {
 
         // Finds the right side of the door
         for (int i = 63; i >= 0; i--) {
-            if (image.getPixel(i, y).getRed() == 0) {
+            if (image.red(i, y) == 0) {
                 result[1] = i;
                 break;
             }
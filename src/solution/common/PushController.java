@@ -8,14 +8,14 @@ import at.fhv.dgr1992.exceptions.VelocityLimitException;
 /**
  * Functionality for both PushControllers
  */
-public class PushController extends BasicRobot {
+public abstract class PushController extends BasicRobot {
 
     /**
      * Turns the robot clockwise until the puck is found
      */
     protected boolean findPuck() throws CameraNotEnabledException, RobotFunctionCallException, VelocityLimitException {
         CameraImage image = epuck.getCameraImage();
-        if (image.getPixel(32, 32).getBlue() > 100 && image.getPixel(32, 32).getRed() < 100) {
+        if (image.blue(32, 32) > 100 && image.red(32, 32) < 100) {
             stopDriving();
             return true;
         } else {
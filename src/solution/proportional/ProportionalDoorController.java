@@ -1,20 +1,29 @@
 package solution.proportional;
 
 import at.fhv.dgr1992.differentialWheels.CameraImage;
+import at.fhv.dgr1992.ePuck.AsyncEPuck;
 import solution.common.DoorController;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Proportional solution to crash into a door
  */
 public class ProportionalDoorController extends DoorController {
 
-    private void startBehavior() {
+    @Override
+    protected void startBehavior() {
         startEPuck();
         epuck.enableCamera();
+        AsyncEPuck async = epuck.getAsyncApi();
+        async.setDefaultTimeout(1000);
         boolean doorFound = false;
+        CompletableFuture<CameraImage> nextImage = async.getCameraImage();
         while (epuck.isConnected()) {
             try {
-                CameraImage image = epuck.getCameraImage();
+                CameraImage image = nextImage.get();
+                //Fetch the next image while the current one is analysed
+                nextImage = async.getCameraImage();
                 // Finds the door if it isn't already in the robot's field of view
                 if (!doorFound)
                     doorFound = findDoor(image);
@@ -1,21 +1,44 @@
 package solution.proportional;
 
 import at.fhv.dgr1992.differentialWheels.CameraImage;
+import at.fhv.dgr1992.ePuck.TickResult;
 import solution.common.DoorController;
 
 /**
  * Proportional solution to stop right before a door
  */
 public class ProportionalDoorProxController extends DoorController {
+    private final double turnGain; // how strongly the robot turns towards the center of the door
+    private final double doorDistance; // proximity at which the robot starts to decelerate
+    private final double stopDistance; // proximity at which the robot stops
 
-    private void startBehavior() {
+    public ProportionalDoorProxController() {
+        this(0.00053, 0.05, 0.03);
+    }
+
+    /**
+     * @param turnGain     Factor of the squared pixel distance between the door's center and the image edge that is
+     *                     subtracted from the maximum speed
+     * @param doorDistance Proximity in m at which the robot starts to decelerate
+     * @param stopDistance Proximity in m at which the robot stops
+     */
+    public ProportionalDoorProxController(double turnGain, double doorDistance, double stopDistance) {
+        this.turnGain = turnGain;
+        this.doorDistance = doorDistance;
+        this.stopDistance = stopDistance;
+    }
+
+    @Override
+    protected void startBehavior() {
         startEPuck();
         epuck.enableCamera();
         boolean doorFound = false;
         boolean doorInFront = false;
         while (epuck.isConnected()) {
             try {
-                CameraImage image = epuck.getCameraImage();
+                // Reads camera and sensors in one tick, the speeds are set as soon as they are computed
+                TickResult tick = epuck.tick(null, true);
+                CameraImage image = tick.getCameraImage();
                 // Finds the door if it isn't already in the robot's field of view
                 if (!doorFound)
                     doorFound = findDoor(image);
@@ -23,21 +46,20 @@ public class ProportionalDoorProxController extends DoorController {
                 // Sets the motor speeds depending on the left and right edge of the door
                 if (doorFound) {
                     int center = getCenter(image);
-                    double leftSpeed = -0.00053 * Math.pow(center - 63, 2) + MAX_SPEED;
-                    double rightSpeed = -0.00053 * Math.pow(center, 2) + MAX_SPEED;
+                    double leftSpeed = -turnGain * Math.pow(center - 63, 2) + MAX_SPEED;
+                    double rightSpeed = -turnGain * Math.pow(center, 2) + MAX_SPEED;
 
                     // Changes the state to doorInFront
-                    epuck.senseAllTogether();
-                    double[] distVector = epuck.getProximitySensorValues();
-                    if (distVector[FRONT_RIGHT] < 0.05 || distVector[FRONT_LEFT] < 0.05)
+                    double[] distVector = tick.getSensorFrame().getProximitySensorValues();
+                    if (distVector[FRONT_RIGHT] < doorDistance || distVector[FRONT_LEFT] < doorDistance)
                         doorInFront = true;
 
                     // Same as in the DoorController
                     if (!doorInFront)
                         setSpeeds(leftSpeed, rightSpeed);
                     else
-                        // If the door is in front of the robot, the speeds decelerate until a proximity of 0.03 is reached
-                        setSpeeds(leftSpeed * (distVector[FRONT_LEFT] - 0.03), rightSpeed * (distVector[FRONT_RIGHT] - 0.03));
+                        // If the door is in front of the robot, the speeds decelerate until the stop distance is reached
+                        setSpeeds(leftSpeed * (distVector[FRONT_LEFT] - stopDistance), rightSpeed * (distVector[FRONT_RIGHT] - stopDistance));
                 }
 
                 Thread.sleep(20);
@@ -1,10 +1,21 @@
 package solution.proportional;
 
+import at.fhv.dgr1992.differentialWheels.BraitenbergEngine;
 import solution.common.PushController;
 
 public class ProportionalPushController extends PushController {
+    // Each front sensor drives the wheel on its side: speed = 20 * distance + 1
+    private final BraitenbergEngine engine = new BraitenbergEngine(FRONT_RIGHT + 1, 0);
+    private final double[] speeds = new double[2];
 
-    private void startBehavior() {
+    public ProportionalPushController() {
+        engine.setWeight(0, FRONT_LEFT, 20);
+        engine.setWeight(1, FRONT_RIGHT, 20);
+        engine.setBias(1, 1);
+    }
+
+    @Override
+    protected void startBehavior() {
         startEPuck();
         epuck.enableCamera();
         boolean puckFound = false;
@@ -17,9 +28,8 @@ public class ProportionalPushController extends PushController {
                 // Sets the motor speeds to a %-value of the front sensors
                 if (puckFound) {
                     epuck.senseAllTogether();
-                    double[] distVector = epuck.getProximitySensorValues();
-                    //setSpeeds((distVector[FRONT_LEFT] + 0.05) * 10 * MAX_SPEED, (distVector[FRONT_RIGHT] + 0.05) * 10 * MAX_SPEED);
-                    setSpeeds(distVector[FRONT_LEFT] * 20 + 1, distVector[FRONT_RIGHT] * 20 + 1);
+                    engine.evaluate(epuck.getSensorFrame(), speeds);
+                    setSpeeds(speeds[0], speeds[1]);
                 }
 
                 Thread.sleep(5);
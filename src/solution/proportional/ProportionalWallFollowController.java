@@ -1,58 +1,63 @@
 package solution.proportional;
 
+import at.fhv.dgr1992.ePuck.ControlLoop;
+import at.fhv.dgr1992.ePuck.SheddableWork;
 import solution.common.BasicRobot;
 
 /**
  * Proportional solution to follow a wall
  */
 public class ProportionalWallFollowController extends BasicRobot {
+    private boolean wallFound = false;
+    private boolean positioned = false;
 
-    private void startBehavior() {
+    @Override
+    protected void startBehavior() {
         startEPuck();
-        boolean wallFound = false;
-        boolean positioned = false;
-        boolean repositioned;
-        while (epuck.isConnected()) {
-            try {
-                // Drives forward until the wall is in front of the robot
-                if (!wallFound)
-                    driveForward();
+        // The speeds are set every tick, so the loop does not wait for VRep to apply them
+        setUseMotorCommandChannel(true);
+        // The proximity sensors are the only input, so no work is shed
+        runControlLoop(100, new ControlLoop.Behavior() {
+            @Override
+            public void tick(ControlLoop.Tick tick) throws Exception {
+                step(tick.getSensorFrame().getProximitySensorValues());
+            }
+        }, new SheddableWork[0]);
+    }
 
-                epuck.senseAllTogether();
-                double[] distVector = epuck.getProximitySensorValues();
-                // Changes the state to wallFound
-                if (!wallFound && (distVector[FRONT_LEFT] < 0.05 || distVector[FRONT_RIGHT] < 0.05))
-                    wallFound = true;
+    private void step(double[] distVector) throws Exception {
+        boolean repositioned;
+        // Drives forward until the wall is in front of the robot
+        if (!wallFound)
+            driveForward();
 
-                // Positions the robot, so that its left side is directed towards the wall
-                if (wallFound && !positioned) {
-                    if (distVector[FRONT_LEFT] < 0.05 || distVector[LEFT_FRONT] < 0.012)
-                        turnRight();
-                    else
-                        positioned = true;
-                }
+        // Changes the state to wallFound
+        if (!wallFound && (distVector[FRONT_LEFT] < 0.05 || distVector[FRONT_RIGHT] < 0.05))
+            wallFound = true;
 
-                if (positioned) {
-                    // Repositions the robot if a corner is reached
-                    if (distVector[FRONT_LEFT] < 0.05 || distVector[FRONT_RIGHT] < 0.05) {
-                        repositioned = false;
-                        turnRight();
-                    } else
-                        repositioned = true;
+        // Positions the robot, so that its left side is directed towards the wall
+        if (wallFound && !positioned) {
+            if (distVector[FRONT_LEFT] < 0.05 || distVector[LEFT_FRONT] < 0.012)
+                turnRight();
+            else
+                positioned = true;
+        }
 
-                    if(repositioned) {
-                        double leftSensors = distVector[FRONT_LEFT] + distVector[LEFT_FRONT] + distVector[LEFT] + distVector[BACK_LEFT];
+        if (positioned) {
+            // Repositions the robot if a corner is reached
+            if (distVector[FRONT_LEFT] < 0.05 || distVector[FRONT_RIGHT] < 0.05) {
+                repositioned = false;
+                turnRight();
+            } else
+                repositioned = true;
 
-                        double leftSpeed = -52 * Math.pow(leftSensors, 2) + MAX_SPEED;
-                        double rightSpeed = 52 * Math.pow(leftSensors, 2); 
+            if(repositioned) {
+                double leftSensors = distVector[FRONT_LEFT] + distVector[LEFT_FRONT] + distVector[LEFT] + distVector[BACK_LEFT];
 
-                        setSpeeds(leftSpeed, rightSpeed);
-                    }
-                }
+                double leftSpeed = -52 * Math.pow(leftSensors, 2) + MAX_SPEED;
+                double rightSpeed = 52 * Math.pow(leftSensors, 2);
 
-                Thread.sleep(5);
-            } catch (Exception e) {
-                epuck.disconnect();
+                setSpeeds(leftSpeed, rightSpeed);
             }
         }
     }
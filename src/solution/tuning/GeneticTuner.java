@@ -0,0 +1,520 @@
+package solution.tuning;
+
+import at.fhv.dgr1992.ePuck.EPuck;
+import at.fhv.dgr1992.ePuck.ePuckSim.EPuckSim;
+import at.fhv.dgr1992.ePuck.ePuckSim.SimWorld;
+import solution.batch.BatchRunner;
+import solution.batch.EpisodeResult;
+import solution.batch.Experiment;
+import solution.common.BasicRobot;
+import solution.proportional.ProportionalDoorProxController;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Evolves the parameters of a controller with a genetic algorithm. The candidates of a generation are run as episodes
+ * of a BatchRunner, so they are evaluated in parallel on all cores. The best candidates are kept unchanged, the others
+ * are bred by tournament selection, blend crossover and gaussian mutation within the bounds of the parameter space.
+ * <p>
+ * Trials that run in real time (e.g. an EPuckSim in asynchronous mode) don't give the same cost twice. The kept
+ * candidates are therefore evaluated again in every generation, so a candidate can't stay the best because of one
+ * lucky evaluation.
+ * <p>
+ * After every generation the population is written to a checkpoint file. A run with an existing checkpoint resumes
+ * from it. The random numbers only depend on the seed and the generation, so a generation that was interrupted is bred
+ * again from the same random numbers.
+ */
+public class GeneticTuner {
+
+    /**
+     * Candidate of a generation
+     */
+    public static final class Candidate {
+        private final double[] _parameters;
+        private double _cost;
+
+        private Candidate(double[] parameters, double cost) {
+            _parameters = parameters;
+            _cost = cost;
+        }
+
+        /**
+         * @return Values in the order of the parameter space, must not be modified
+         */
+        public double[] getParameters() {
+            return _parameters;
+        }
+
+        /**
+         * @return Mean cost over all trials, NaN if not evaluated yet
+         */
+        public double getCost() {
+            return _cost;
+        }
+
+        private boolean isEvaluated() {
+            return !Double.isNaN(_cost);
+        }
+    }
+
+    private static final String CHECKPOINT_HEADER = "# GeneticTuner checkpoint";
+
+    private static final Comparator<Candidate> BY_COST = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            return Double.compare(a._cost, b._cost);
+        }
+    };
+
+    private final TuningProblem _problem;
+    private final ParameterSpace _space;
+    private final int _populationSize;
+    private final int _trials;
+    private int _parallelism;
+    private int _eliteCount;
+    private int _tournamentSize;
+    private double _crossoverRate;
+    private double _mutationRate;
+    private double _mutationScale;
+    private long _timeBudget;
+    private double _simulationTimeBudget;
+    private long _tickBudget;
+    private File _checkpoint;
+    private PrintStream _progress;
+
+    /**
+     * Constructs a new tuner
+     *
+     * @param problem        Task the parameters are optimized for
+     * @param populationSize Number of candidates per generation
+     * @param trials         Number of episodes every candidate is run
+     */
+    public GeneticTuner(TuningProblem problem, int populationSize, int trials) {
+        if (populationSize < 2 || trials <= 0) {
+            throw new IllegalArgumentException("The tuner needs at least two candidates and one trial");
+        }
+        _problem = problem;
+        _space = problem.getParameterSpace();
+        _populationSize = populationSize;
+        _trials = trials;
+        _parallelism = Runtime.getRuntime().availableProcessors();
+        _eliteCount = Math.max(1, populationSize / 10);
+        _tournamentSize = 3;
+        _crossoverRate = 0.9;
+        _mutationRate = 0.3;
+        _mutationScale = 0.1;
+    }
+
+    //region Settings
+
+    /**
+     * @param parallelism Number of episodes that run at the same time, default the number of cores
+     */
+    public void setParallelism(int parallelism) {
+        _parallelism = parallelism;
+    }
+
+    /**
+     * @param eliteCount Number of the best candidates that are taken over unchanged into the next generation
+     */
+    public void setEliteCount(int eliteCount) {
+        if (eliteCount < 0 || eliteCount >= _populationSize) {
+            throw new IllegalArgumentException("Elite count must be less than the population size");
+        }
+        _eliteCount = eliteCount;
+    }
+
+    /**
+     * @param tournamentSize Number of candidates of which the best is selected as parent
+     */
+    public void setTournamentSize(int tournamentSize) {
+        _tournamentSize = tournamentSize;
+    }
+
+    /**
+     * @param crossoverRate Probability that a child is bred from two parents instead of copied from one
+     */
+    public void setCrossoverRate(double crossoverRate) {
+        _crossoverRate = crossoverRate;
+    }
+
+    /**
+     * @param mutationRate  Probability that a parameter of a child is mutated
+     * @param mutationScale Standard deviation of a mutation relative to the range of the parameter
+     */
+    public void setMutation(double mutationRate, double mutationScale) {
+        _mutationRate = mutationRate;
+        _mutationScale = mutationScale;
+    }
+
+    /**
+     * @param timeBudget Wall clock time in ms after which a trial is ended, 0 for no budget
+     */
+    public void setTimeBudget(long timeBudget) {
+        _timeBudget = timeBudget;
+    }
+
+    /**
+     * @param simulationTimeBudget Simulated time in s after which a trial with an EPuckSim is ended, 0 for no budget
+     */
+    public void setSimulationTimeBudget(double simulationTimeBudget) {
+        _simulationTimeBudget = simulationTimeBudget;
+    }
+
+    /**
+     * @param tickBudget Number of ticks after which a trial is ended, 0 for no budget
+     */
+    public void setTickBudget(long tickBudget) {
+        _tickBudget = tickBudget;
+    }
+
+    /**
+     * @param checkpoint File the population is written to after every generation and resumed from, null for none
+     */
+    public void setCheckpoint(File checkpoint) {
+        _checkpoint = checkpoint;
+    }
+
+    /**
+     * @param progress Stream the best cost of every generation is written to, null for none
+     */
+    public void setProgress(PrintStream progress) {
+        _progress = progress;
+    }
+
+    //endregion
+
+    /**
+     * Evolve the parameters, resuming from the checkpoint if it exists.
+     *
+     * @param generations Number of generations including the first
+     * @param seed        Seed of the random numbers and the trials, trial t gets seed + t
+     * @return Best candidate of the last generation
+     * @throws InterruptedException if interrupted while evaluating a generation, the last checkpoint remains
+     * @throws IOException          if the checkpoint could not be read or written
+     */
+    public Candidate run(int generations, long seed) throws InterruptedException, IOException {
+        int generation = 0;
+        List<Candidate> population;
+        if (_checkpoint != null && _checkpoint.exists()) {
+            long[] state = new long[2];
+            population = readCheckpoint(state);
+            generation = (int) state[0];
+            seed = state[1];
+            if (_progress != null) {
+                _progress.println("resumed generation " + generation + " from " + _checkpoint);
+            }
+        } else {
+            population = createInitialPopulation(new Random(seed));
+        }
+
+        while (true) {
+            evaluate(population, seed);
+            population.sort(BY_COST);
+            writeCheckpoint(population, generation, seed);
+            if (_progress != null) {
+                Candidate best = population.get(0);
+                _progress.println(String.format(Locale.ROOT, "generation %d: best cost %.4f, median cost %.4f, parameters %s", generation, best._cost, population.get(population.size() / 2)._cost, Arrays.toString(best._parameters)));
+            }
+            if (generation + 1 >= generations) {
+                return population.get(0);
+            }
+            population = breed(population, new Random(seed * 31 + generation));
+            generation++;
+        }
+    }
+
+    private List<Candidate> createInitialPopulation(Random random) {
+        List<Candidate> population = new ArrayList<Candidate>(_populationSize);
+        population.add(new Candidate(_space.getInitialValues(), Double.NaN));
+        while (population.size() < _populationSize) {
+            double[] parameters = new double[_space.size()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = _space.getLower(i) + random.nextDouble() * (_space.getUpper(i) - _space.getLower(i));
+            }
+            population.add(new Candidate(parameters, Double.NaN));
+        }
+        return population;
+    }
+
+    /**
+     * Run the trials of all candidates without a cost in one batch
+     */
+    private void evaluate(List<Candidate> population, final long seed) throws InterruptedException {
+        final List<Candidate> pending = new ArrayList<Candidate>();
+        for (Candidate candidate : population) {
+            if (!candidate.isEvaluated()) {
+                pending.add(candidate);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        BatchRunner runner = new BatchRunner(new Experiment() {
+            @Override
+            public EPuck createRobot(int episode, long episodeSeed) throws Exception {
+                int trial = episode % _trials;
+                return _problem.createRobot(trial, seed + trial);
+            }
+
+            @Override
+            public BasicRobot createController(int episode) throws Exception {
+                return _problem.createController(pending.get(episode / _trials)._parameters.clone());
+            }
+
+            @Override
+            public boolean isComplete(EPuck robot) throws Exception {
+                return _problem.isComplete(robot);
+            }
+        }, _parallelism);
+        runner.setTimeBudget(_timeBudget);
+        runner.setSimulationTimeBudget(_simulationTimeBudget);
+        runner.setTickBudget(_tickBudget);
+
+        List<EpisodeResult> results = runner.run(pending.size() * _trials, seed);
+        for (int i = 0; i < pending.size(); i++) {
+            double sum = 0;
+            for (int trial = 0; trial < _trials; trial++) {
+                sum += _problem.getCost(results.get(i * _trials + trial));
+            }
+            double cost = sum / _trials;
+            pending.get(i)._cost = Double.isNaN(cost) ? Double.POSITIVE_INFINITY : cost;
+        }
+    }
+
+    /**
+     * Breed the next generation from a population sorted by cost
+     */
+    private List<Candidate> breed(List<Candidate> population, Random random) {
+        List<Candidate> next = new ArrayList<Candidate>(_populationSize);
+        for (int i = 0; i < _eliteCount; i++) {
+            //The cost of a trial is not deterministic, so the elites are evaluated again
+            next.add(new Candidate(population.get(i)._parameters, Double.NaN));
+        }
+        while (next.size() < _populationSize) {
+            double[] first = select(population, random)._parameters;
+            double[] parameters;
+            if (random.nextDouble() < _crossoverRate) {
+                parameters = crossover(first, select(population, random)._parameters, random);
+            } else {
+                parameters = first.clone();
+            }
+            mutate(parameters, random);
+            next.add(new Candidate(parameters, Double.NaN));
+        }
+        return next;
+    }
+
+    private Candidate select(List<Candidate> population, Random random) {
+        Candidate best = population.get(random.nextInt(population.size()));
+        for (int i = 1; i < _tournamentSize; i++) {
+            Candidate candidate = population.get(random.nextInt(population.size()));
+            if (candidate._cost < best._cost) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Blend crossover: every parameter is drawn from the interval of both parents extended by half its width on each side
+     */
+    private double[] crossover(double[] first, double[] second, Random random) {
+        double[] child = new double[first.length];
+        for (int i = 0; i < child.length; i++) {
+            double min = Math.min(first[i], second[i]);
+            double width = Math.abs(first[i] - second[i]);
+            child[i] = _space.clamp(i, min - 0.5 * width + random.nextDouble() * 2 * width);
+        }
+        return child;
+    }
+
+    private void mutate(double[] parameters, Random random) {
+        for (int i = 0; i < parameters.length; i++) {
+            if (random.nextDouble() < _mutationRate) {
+                double range = _space.getUpper(i) - _space.getLower(i);
+                parameters[i] = _space.clamp(i, parameters[i] + random.nextGaussian() * _mutationScale * range);
+            }
+        }
+    }
+
+    //region Checkpoint
+
+    /**
+     * Write the population to a temporary file and replace the checkpoint with it, so an interruption while writing
+     * keeps the previous checkpoint
+     */
+    private void writeCheckpoint(List<Candidate> population, int generation, long seed) throws IOException {
+        if (_checkpoint == null) {
+            return;
+        }
+        File directory = _checkpoint.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(_checkpoint.getName(), ".tmp", directory);
+        try {
+            BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8);
+            try {
+                writer.write(CHECKPOINT_HEADER);
+                writer.newLine();
+                writer.write("generation " + generation);
+                writer.newLine();
+                writer.write("seed " + seed);
+                writer.newLine();
+                StringBuilder names = new StringBuilder("parameters");
+                for (int i = 0; i < _space.size(); i++) {
+                    names.append(' ').append(_space.getName(i));
+                }
+                writer.write(names.toString());
+                writer.newLine();
+                for (Candidate candidate : population) {
+                    StringBuilder line = new StringBuilder("candidate ").append(candidate._cost);
+                    for (double parameter : candidate._parameters) {
+                        line.append(' ').append(parameter);
+                    }
+                    writer.write(line.toString());
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+            try {
+                Files.move(temp.toPath(), _checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(temp.toPath(), _checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * @param state Array the generation and the seed of the checkpoint are written to
+     */
+    private List<Candidate> readCheckpoint(long[] state) throws IOException {
+        List<String> lines = Files.readAllLines(_checkpoint.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(CHECKPOINT_HEADER)) {
+            throw new IOException(_checkpoint + " is not a checkpoint of a GeneticTuner");
+        }
+        List<Candidate> population = new ArrayList<Candidate>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.trim().split("\\s+");
+            try {
+                if (fields[0].equals("generation")) {
+                    state[0] = Long.parseLong(fields[1]);
+                } else if (fields[0].equals("seed")) {
+                    state[1] = Long.parseLong(fields[1]);
+                } else if (fields[0].equals("parameters")) {
+                    if (!Arrays.equals(Arrays.copyOfRange(fields, 1, fields.length), parameterNames())) {
+                        throw new IOException("Parameters of " + _checkpoint + " don't match the parameter space");
+                    }
+                } else if (fields[0].equals("candidate")) {
+                    double[] parameters = new double[fields.length - 2];
+                    for (int i = 0; i < parameters.length; i++) {
+                        parameters[i] = Double.parseDouble(fields[i + 2]);
+                    }
+                    population.add(new Candidate(parameters, Double.parseDouble(fields[1])));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid line in " + _checkpoint + ": " + line, e);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Invalid line in " + _checkpoint + ": " + line, e);
+            }
+        }
+        if (population.size() != _populationSize) {
+            throw new IOException(_checkpoint + " contains " + population.size() + " candidates instead of " + _populationSize);
+        }
+        for (Candidate candidate : population) {
+            if (candidate._parameters.length != _space.size()) {
+                throw new IOException(_checkpoint + " contains a candidate with " + candidate._parameters.length + " parameters");
+            }
+        }
+        return population;
+    }
+
+    private String[] parameterNames() {
+        String[] names = new String[_space.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = _space.getName(i);
+        }
+        return names;
+    }
+
+    //endregion
+
+    /**
+     * Tunes the ProportionalDoorProxController in the door arena of BatchRunner.main, a trial is completed when the
+     * robot stands in front of the door. The cost of a trial is the simulated time until completion, with penalties
+     * for collisions and for trials that didn't complete.
+     * Arguments: checkpoint file (default door-prox-tuning.txt), generations (20), population size (24), trials per
+     * candidate (4), time scale of the simulation (10)
+     */
+    public static void main(String[] args) throws Exception {
+        File checkpoint = new File(args.length > 0 ? args[0] : "door-prox-tuning.txt");
+        int generations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int populationSize = args.length > 2 ? Integer.parseInt(args[2]) : 24;
+        int trials = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        final double timeScale = args.length > 4 ? Double.parseDouble(args[4]) : 10;
+        final double simulationTimeBudget = 60;
+
+        final SimWorld world = SimWorld.rectangularArena(1, 1);
+        world.addWall(0.4, 0.999, 0.6, 0.999, 0x0000ff);
+
+        //The search starts from the defaults of the controller. The simulated proximity sensors report their range of
+        //0.05m if nothing is detected, a larger door distance would be reached right after the door is found
+        GeneticTuner tuner = new GeneticTuner(new TuningProblem() {
+            private final ParameterSpace _space = new ParameterSpace()
+                    .add("turnGain", 0.00053, 0.0001, 0.002)
+                    .add("doorDistance", 0.05, 0.03, 0.05)
+                    .add("stopDistance", 0.03, 0.005, 0.045);
+
+            @Override
+            public ParameterSpace getParameterSpace() {
+                return _space;
+            }
+
+            @Override
+            public EPuck createRobot(int trial, long seed) {
+                Random random = new Random(seed);
+                EPuckSim robot = new EPuckSim("ePuck" + trial, world.copy(), 0.2 + random.nextDouble() * 0.6, 0.1 + random.nextDouble() * 0.4, (random.nextDouble() * 2 - 1) * Math.PI, false);
+                robot.setTimeScale(timeScale);
+                return robot;
+            }
+
+            @Override
+            public BasicRobot createController(double[] parameters) {
+                return new ProportionalDoorProxController(parameters[0], parameters[1], parameters[2]);
+            }
+
+            @Override
+            public boolean isComplete(EPuck robot) {
+                double x = ((EPuckSim) robot).getGroundTruthPose().getX();
+                double y = ((EPuckSim) robot).getGroundTruthPose().getY();
+                return x > 0.4 && x < 0.6 && y > 0.9;
+            }
+
+            @Override
+            public double getCost(EpisodeResult result) {
+                double cost = result.getOutcome() == EpisodeResult.Outcome.Completed ? result.getCompletionTime() : 2 * simulationTimeBudget;
+                return cost + 10 * Math.max(result.getCollisions(), 0);
+            }
+        }, populationSize, trials);
+        tuner.setSimulationTimeBudget(simulationTimeBudget);
+        tuner.setCheckpoint(checkpoint);
+        tuner.setProgress(System.out);
+
+        Candidate best = tuner.run(generations, 1);
+        System.out.println("best parameters " + Arrays.toString(best.getParameters()) + ", cost " + best.getCost());
+    }
+}
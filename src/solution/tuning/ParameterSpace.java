@@ -0,0 +1,78 @@
+package solution.tuning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parameters a GeneticTuner evolves, each with a start value and the bounds it is kept within
+ */
+public class ParameterSpace {
+    private final List<String> _names = new ArrayList<String>();
+    private final List<double[]> _values = new ArrayList<double[]>();
+
+    /**
+     * Add a parameter
+     *
+     * @param name    Name of the parameter, without whitespace
+     * @param initial Hand-tuned value the search starts from
+     * @param lower   Lower bound
+     * @param upper   Upper bound
+     * @return this space
+     */
+    public ParameterSpace add(String name, double initial, double lower, double upper) {
+        if (name.isEmpty() || name.matches(".*\\s.*")) {
+            throw new IllegalArgumentException("Parameter name must not be empty or contain whitespace");
+        }
+        if (!(lower < upper) || initial < lower || initial > upper) {
+            throw new IllegalArgumentException("Parameter " + name + " needs lower < upper and an initial value within the bounds");
+        }
+        _names.add(name);
+        _values.add(new double[]{initial, lower, upper});
+        return this;
+    }
+
+    /**
+     * @return Number of parameters
+     */
+    public int size() {
+        return _names.size();
+    }
+
+    public String getName(int index) {
+        return _names.get(index);
+    }
+
+    public double getInitial(int index) {
+        return _values.get(index)[0];
+    }
+
+    public double getLower(int index) {
+        return _values.get(index)[1];
+    }
+
+    public double getUpper(int index) {
+        return _values.get(index)[2];
+    }
+
+    /**
+     * @return Initial values of all parameters
+     */
+    public double[] getInitialValues() {
+        double[] values = new double[size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getInitial(i);
+        }
+        return values;
+    }
+
+    /**
+     * Limit a value to the bounds of a parameter
+     *
+     * @param index Index of the parameter
+     * @param value Value of the parameter
+     * @return Value within the bounds
+     */
+    public double clamp(int index, double value) {
+        return Math.max(getLower(index), Math.min(getUpper(index), value));
+    }
+}
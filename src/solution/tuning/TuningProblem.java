@@ -0,0 +1,54 @@
+package solution.tuning;
+
+import at.fhv.dgr1992.ePuck.EPuck;
+import solution.batch.EpisodeResult;
+import solution.common.BasicRobot;
+
+/**
+ * Task a GeneticTuner optimizes the parameters of a controller for. Every candidate is run in several trials, trial t
+ * gets the same robot setup for all candidates, so the costs of the candidates can be compared. The methods are called
+ * concurrently for different episodes.
+ */
+public interface TuningProblem {
+
+    /**
+     * @return Parameters of the controller
+     */
+    ParameterSpace getParameterSpace();
+
+    /**
+     * Create the robot of a trial, e.g. an EPuckSim with a start pose derived from the seed
+     *
+     * @param trial Number of the trial, starting at 0
+     * @param seed  Seed of the trial
+     * @return Robot backend of the trial
+     * @throws Exception if the robot could not be created
+     */
+    EPuck createRobot(int trial, long seed) throws Exception;
+
+    /**
+     * Create a controller with the parameters of a candidate
+     *
+     * @param parameters Values in the order of the parameter space
+     * @return Controller that drives the robot
+     * @throws Exception if the controller could not be created
+     */
+    BasicRobot createController(double[] parameters) throws Exception;
+
+    /**
+     * Check whether the task of a trial is done, called periodically while the trial runs.
+     *
+     * @param robot Robot of the trial
+     * @return true to end the trial as completed
+     * @throws Exception if the robot could not be queried
+     */
+    boolean isComplete(EPuck robot) throws Exception;
+
+    /**
+     * Cost of one trial, the tuner minimizes the mean cost over all trials of a candidate
+     *
+     * @param result Result of the trial
+     * @return Cost, lower is better
+     */
+    double getCost(EpisodeResult result);
+}
@@ -0,0 +1,348 @@
+package at.fhv.dgr1992.ePuck.ePuckVRep.remote;
+
+import coppelia.CharWA;
+import coppelia.FloatWA;
+import coppelia.IntW;
+import coppelia.IntWA;
+import coppelia.StringWA;
+import coppelia.remoteApi;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks the messages of the NioRemoteApiClient against messages of the native remoteApiJava library.
+ * <p>
+ * The requests were recorded from the native library (vRepApiLibraries/Linux/64Bit) connected to a loopback server,
+ * they contain the command headers and data after the message header. The replies were fed to the native library,
+ * which decoded them to the values asserted here. A loopback server compares the messages of the NioRemoteApiClient
+ * with the recorded requests and answers with the replies.
+ */
+public class NioRemoteApiClientWireTest {
+
+    //region recorded requests
+
+    private static final String OBJECT_HANDLE_ONESHOT = "20 00 00 00 20 00 00 00 06 00 00 00 00 00 01 30 00 00 00 00 00 00 00 00 00 00 65 50 75 63 6b 00";
+    private static final String IMAGE_RGB_STREAMING_20 = "1e 00 00 00 1e 00 00 00 04 00 00 00 00 00 04 10 02 00 14 00 00 00 00 00 00 00 07 00 00 00";
+    private static final String IMAGE_BW_ONESHOT = "1e 00 00 00 1e 00 00 00 04 00 00 00 00 00 03 10 00 00 00 00 00 00 00 00 00 00 07 00 00 00";
+    private static final String START_SIMULATION_ONESHOT = "1e 00 00 00 1e 00 00 00 04 00 00 00 00 00 07 10 00 00 00 00 00 00 00 00 00 00 00 00 00 00";
+    private static final String STOP_SIMULATION_ONESHOT = "1e 00 00 00 1e 00 00 00 04 00 00 00 00 00 07 10 00 00 00 00 00 00 00 00 00 00 02 00 00 00";
+    private static final String STRING_SIGNAL_STREAMING = "1e 00 00 00 1e 00 00 00 04 00 00 00 00 00 12 30 02 00 00 00 00 00 00 00 00 00 73 69 67 00";
+    private static final String SET_STRING_SIGNAL_ONESHOT = "21 00 00 00 21 00 00 00 04 00 00 00 00 00 15 30 00 00 00 00 00 00 00 00 00 00 73 69 67 00 61 62 c8";
+    private static final String CALL_SCRIPT_FUNCTION_ONESHOT = "48 00 00 00 48 00 00 00 0d 00 00 00 00 00 01 34 00 00 00 00 00 00 00 00 01 00 06 00 00 00 65 50 75 63 6b 00 66 6e 00"
+            + " 02 00 00 00 01 00 00 00 01 00 00 00 02 00 00 00 05 00 00 00 ff ff ff ff 00 00 c0 3f 68 69 00 01 02";
+    private static final String PING = "1e 00 00 00 1e 00 00 00 04 00 00 00 00 00 21 10 01 00 00 00 00 00 00 00 00 00 01 00 00 00";
+    private static final String SYNCHRONOUS_ENABLE = "1a 00 00 00 1a 00 00 00 00 00 00 00 00 00 01 00 01 00 00 00 00 00 00 00 00 00";
+    private static final String SYNCHRONOUS_DISABLE = "1a 00 00 00 1a 00 00 00 00 00 00 00 00 00 02 00 01 00 00 00 00 00 00 00 00 00";
+    private static final String SYNCHRONOUS_TRIGGER = "1a 00 00 00 1a 00 00 00 00 00 00 00 00 00 03 00 01 00 00 00 00 00 00 00 00 00";
+
+    //endregion
+
+    //region replies decoded by the native library
+
+    private static final String OBJECT_HANDLE_REPLY = "24 00 00 00 24 00 00 00 06 00 00 00 00 00 01 30 01 00 00 00 26 02 00 00 00 00 65 50 75 63 6b 00 2a 00 00 00";
+    private static final String OBJECT_HANDLE_ERROR_REPLY = "24 00 00 00 24 00 00 00 06 00 00 00 00 00 01 30 01 00 00 00 26 02 00 00 01 00 65 50 75 63 6b 00 2a 00 00 00";
+    private static final String CALL_SCRIPT_FUNCTION_REPLY = "4b 00 00 00 4b 00 00 00 0d 00 00 00 00 00 01 34 01 00 00 00 26 02 00 00 00 00 06 00 00 00 65 50 75 63 6b 00 66 6e 00"
+            + " 02 00 00 00 01 00 00 00 02 00 00 00 03 00 00 00 07 00 00 00 f8 ff ff ff 00 00 20 40 61 62 00 63 00 09 c8 01";
+    private static final String IMAGE_RGB_REPLY = "2c 00 00 00 2c 00 00 00 04 00 00 00 00 00 04 10 01 00 00 00 26 02 00 00 00 00 07 00 00 00 02 00 00 00 01 00 00 00 0a 14 1e 28 32 3c";
+    private static final String STRING_SIGNAL_REPLY = "21 00 00 00 21 00 00 00 04 00 00 00 00 00 12 30 01 00 00 00 26 02 00 00 00 00 73 69 67 00 05 fa 07";
+
+    //endregion
+
+    private static final int SIM_TIME_OF_REPLIES = 550;
+
+    private SimxServer _server;
+    private NioRemoteApiClient _client;
+    private int _clientID;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = new SimxServer();
+        _client = new NioRemoteApiClient();
+        _clientID = _client.simxStart("127.0.0.1", _server.getPort(), true, true, 2000, 5);
+        assertEquals(0, _clientID);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _client.simxFinish(_clientID);
+        _server.close();
+    }
+
+    //region requests
+
+    @Test
+    public void getObjectHandleRequest() throws Exception {
+        _client.simxGetObjectHandle(_clientID, "ePuck", new IntW(0), remoteApi.simx_opmode_oneshot);
+        assertCommands(OBJECT_HANDLE_ONESHOT, _server.nextRequest());
+    }
+
+    @Test
+    public void getVisionSensorImageRequests() throws Exception {
+        _client.simxGetVisionSensorImage(_clientID, 7, new IntWA(2), new CharWA(0), 0, remoteApi.simx_opmode_streaming + 20);
+        assertCommands(IMAGE_RGB_STREAMING_20, _server.nextRequest());
+        _client.simxGetVisionSensorImage(_clientID, 7, new IntWA(2), new CharWA(0), 1, remoteApi.simx_opmode_oneshot);
+        assertCommands(IMAGE_BW_ONESHOT, _server.nextRequest());
+    }
+
+    @Test
+    public void startAndStopSimulationRequests() throws Exception {
+        _client.simxStartSimulation(_clientID, remoteApi.simx_opmode_oneshot);
+        assertCommands(START_SIMULATION_ONESHOT, _server.nextRequest());
+        _client.simxStopSimulation(_clientID, remoteApi.simx_opmode_oneshot);
+        assertCommands(STOP_SIMULATION_ONESHOT, _server.nextRequest());
+    }
+
+    @Test
+    public void stringSignalRequests() throws Exception {
+        _client.simxGetStringSignal(_clientID, "sig", new CharWA(0), remoteApi.simx_opmode_streaming);
+        assertCommands(STRING_SIGNAL_STREAMING, _server.nextRequest());
+        _client.simxSetStringSignal(_clientID, "sig", chars('a', 'b', (char) 200), remoteApi.simx_opmode_oneshot);
+        assertCommands(SET_STRING_SIGNAL_ONESHOT, _server.nextRequest());
+    }
+
+    @Test
+    public void callScriptFunctionRequest() throws Exception {
+        callScriptFunction(remoteApi.simx_opmode_oneshot, new IntWA(0), new FloatWA(0), new StringWA(0), new CharWA(0));
+        assertCommands(CALL_SCRIPT_FUNCTION_ONESHOT, _server.nextRequest());
+    }
+
+    @Test
+    public void blockingRequests() throws Exception {
+        _client.simxGetPingTime(_clientID, new IntW(0));
+        assertCommands(PING, _server.nextRequest());
+        _client.simxSynchronous(_clientID, true);
+        assertCommands(SYNCHRONOUS_ENABLE, _server.nextRequest());
+        _client.simxSynchronousTrigger(_clientID);
+        assertCommands(SYNCHRONOUS_TRIGGER, _server.nextRequest());
+        _client.simxSynchronous(_clientID, false);
+        assertCommands(SYNCHRONOUS_DISABLE, _server.nextRequest());
+    }
+
+    @Test
+    public void pausedCommandsAreSentInOneMessage() throws Exception {
+        _client.simxPauseCommunication(_clientID, true);
+        _client.simxSetStringSignal(_clientID, "sig", chars('x'), remoteApi.simx_opmode_oneshot);
+        _client.simxSetStringSignal(_clientID, "sig", chars('a', 'b', (char) 200), remoteApi.simx_opmode_oneshot);
+        callScriptFunction(remoteApi.simx_opmode_oneshot, new IntWA(0), new FloatWA(0), new StringWA(0), new CharWA(0));
+        callScriptFunction(remoteApi.simx_opmode_oneshot, new IntWA(0), new FloatWA(0), new StringWA(0), new CharWA(0));
+        _client.simxPauseCommunication(_clientID, false);
+
+        //The newer signal replaces the older one, script function calls are never replaced
+        assertCommands(SET_STRING_SIGNAL_ONESHOT + " " + CALL_SCRIPT_FUNCTION_ONESHOT + " " + CALL_SCRIPT_FUNCTION_ONESHOT, _server.nextRequest());
+    }
+
+    //endregion
+
+    //region replies
+
+    @Test
+    public void getObjectHandleReply() {
+        _server.setReply(OBJECT_HANDLE_REPLY);
+        IntW handle = new IntW(0);
+        assertEquals(remoteApi.simx_return_ok, _client.simxGetObjectHandle(_clientID, "ePuck", handle, remoteApi.simx_opmode_blocking));
+        assertEquals(42, handle.getValue());
+        assertEquals(SIM_TIME_OF_REPLIES, _client.simxGetLastCmdTime(_clientID));
+    }
+
+    @Test
+    public void remoteErrorReply() {
+        _server.setReply(OBJECT_HANDLE_ERROR_REPLY);
+        assertEquals(remoteApi.simx_return_remote_error_flag, _client.simxGetObjectHandle(_clientID, "ePuck", new IntW(0), remoteApi.simx_opmode_blocking));
+    }
+
+    @Test
+    public void callScriptFunctionReply() {
+        _server.setReply(CALL_SCRIPT_FUNCTION_REPLY);
+        IntWA outInts = new IntWA(0);
+        FloatWA outFloats = new FloatWA(0);
+        StringWA outStrings = new StringWA(0);
+        CharWA outBuffer = new CharWA(0);
+        assertEquals(remoteApi.simx_return_ok, callScriptFunction(remoteApi.simx_opmode_blocking, outInts, outFloats, outStrings, outBuffer));
+        assertArrayEquals(new int[]{7, -8}, outInts.getArray());
+        assertArrayEquals(new float[]{2.5f}, outFloats.getArray(), 0);
+        assertArrayEquals(new String[]{"ab", "c"}, outStrings.getArray());
+        assertArrayEquals(new char[]{9, 200, 1}, outBuffer.getArray());
+    }
+
+    @Test
+    public void getVisionSensorImageReply() {
+        _server.setReply(IMAGE_RGB_REPLY);
+        IntWA resolution = new IntWA(0);
+        CharWA image = new CharWA(0);
+        assertEquals(remoteApi.simx_return_ok, _client.simxGetVisionSensorImage(_clientID, 7, resolution, image, 0, remoteApi.simx_opmode_blocking));
+        assertArrayEquals(new int[]{2, 1}, resolution.getArray());
+        assertArrayEquals(new char[]{10, 20, 30, 40, 50, 60}, image.getArray());
+    }
+
+    @Test
+    public void getStringSignalReply() {
+        _server.setReply(STRING_SIGNAL_REPLY);
+        CharWA signal = new CharWA(0);
+        assertEquals(remoteApi.simx_return_ok, _client.simxGetStringSignal(_clientID, "sig", signal, remoteApi.simx_opmode_blocking));
+        assertArrayEquals(new char[]{5, 250, 7}, signal.getArray());
+    }
+
+    //endregion
+
+    private int callScriptFunction(int operationMode, IntWA outInts, FloatWA outFloats, StringWA outStrings, CharWA outBuffer) {
+        IntWA inInts = new IntWA(2);
+        inInts.getArray()[0] = 5;
+        inInts.getArray()[1] = -1;
+        FloatWA inFloats = new FloatWA(1);
+        inFloats.getArray()[0] = 1.5f;
+        StringWA inStrings = new StringWA(1);
+        inStrings.getArray()[0] = "hi";
+        return _client.simxCallScriptFunction(_clientID, "ePuck", 6, "fn", inInts, inFloats, inStrings, chars((char) 1, (char) 2), outInts, outFloats, outStrings, outBuffer, operationMode);
+    }
+
+    private static CharWA chars(char... values) {
+        CharWA chars = new CharWA(values.length);
+        System.arraycopy(values, 0, chars.getArray(), 0, values.length);
+        return chars;
+    }
+
+    /**
+     * Compare a message with the recorded commands. The message id and the time stamps of the message header differ
+     * between runs, the crc field, the version and the fields generated by the server are checked.
+     */
+    private static void assertCommands(String expected, byte[] message) {
+        assertNotNull("No message with commands received", message);
+        assertEquals("crc", 0, message[remoteApi.simx_headeroffset_crc] | message[remoteApi.simx_headeroffset_crc + 1]);
+        assertEquals("version", SimxCommand.SIMX_VERSION, message[remoteApi.simx_headeroffset_version]);
+        assertEquals("scene id and server state", 0, message[15] | message[16] | message[17]);
+        assertEquals(expected, hex(Arrays.copyOfRange(message, remoteApi.SIMX_HEADER_SIZE, message.length)));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] bytes(String hex) {
+        String[] values = hex.split(" ");
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(values[i], 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Loopback remote API server. It records the messages that contain commands and answers every message with its
+     * header followed by the configured reply commands, or by its own commands if no reply is configured.
+     */
+    private static final class SimxServer implements Runnable {
+        private final ServerSocket _serverSocket;
+        private final BlockingQueue<byte[]> _requests = new LinkedBlockingQueue<byte[]>();
+        private final Thread _thread;
+        private volatile byte[] _reply;
+        private volatile Socket _socket;
+
+        SimxServer() throws IOException {
+            _serverSocket = new ServerSocket(0);
+            _thread = new Thread(this, "simx-test-server");
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+
+        int getPort() {
+            return _serverSocket.getLocalPort();
+        }
+
+        void setReply(String commands) {
+            _reply = bytes(commands);
+        }
+
+        byte[] nextRequest() throws InterruptedException {
+            return _requests.poll(2, TimeUnit.SECONDS);
+        }
+
+        void close() throws IOException {
+            _serverSocket.close();
+            if (_socket != null) {
+                _socket.close();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                _socket = _serverSocket.accept();
+                InputStream in = _socket.getInputStream();
+                OutputStream out = _socket.getOutputStream();
+                while (true) {
+                    byte[] message = readMessage(in);
+                    if (message.length > remoteApi.SIMX_HEADER_SIZE) {
+                        _requests.add(message);
+                    }
+
+                    byte[] reply = _reply;
+                    if (reply == null) {
+                        reply = Arrays.copyOfRange(message, remoteApi.SIMX_HEADER_SIZE, message.length);
+                    }
+                    ByteBuffer answer = ByteBuffer.allocate(remoteApi.SIMX_HEADER_SIZE + reply.length).order(ByteOrder.LITTLE_ENDIAN);
+                    answer.put(message, 0, remoteApi.SIMX_HEADER_SIZE).put(reply);
+                    answer.putInt(remoteApi.simx_headeroffset_server_time, 1234);
+                    ByteBuffer packetHeader = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+                    packetHeader.putShort((short) 1).putShort((short) answer.capacity()).putShort((short) 0);
+                    out.write(packetHeader.array());
+                    out.write(answer.array());
+                    out.flush();
+                }
+            } catch (IOException e) {
+                //Closed by the test
+            }
+        }
+
+        private static byte[] readMessage(InputStream in) throws IOException {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            byte[] packetHeader = new byte[6];
+            int packetsLeft;
+            do {
+                readFully(in, packetHeader);
+                ByteBuffer header = ByteBuffer.wrap(packetHeader).order(ByteOrder.LITTLE_ENDIAN);
+                byte[] data = new byte[header.getShort(2) & 0xffff];
+                packetsLeft = header.getShort(4) & 0xffff;
+                readFully(in, data);
+                message.write(data);
+            } while (packetsLeft > 0);
+            return message.toByteArray();
+        }
+
+        private static void readFully(InputStream in, byte[] buffer) throws IOException {
+            int offset = 0;
+            while (offset < buffer.length) {
+                int read = in.read(buffer, offset, buffer.length - offset);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                offset += read;
+            }
+        }
+    }
+}